@@ -134,11 +134,12 @@ public class SongJsonParser extends DataConstants {
 
   /**
    * Parses a JSON object representing a measure and returns a Measure object.
+   * Public so stored measure snapshots (e.g. revision history) can be read back on their own.
    *
    * @param aMeasure the JSON object for the measure
    * @return a Measure object
    */
-  private Measure getMeasure(Object aMeasure) {
+  public Measure getMeasure(Object aMeasure) {
     JSONObject measureJSON = (JSONObject) aMeasure;
     int keySignature = getValue(measureJSON, SONG_MEASURES_KEY_SIGNATURE, Number.class).intValue();
     int timeSignatureNumerator = getValue(measureJSON, SONG_MEASURES_TIME_SIGNATURE_NUMERATOR, Number.class).intValue();
@@ -49,6 +49,9 @@ public class DiscoverController extends BaseController {
             facade.getSongList().getSongs()
         );
         songListView.setCellFactory(lv -> new SongCell());
+        // Compile the selected song in the background so opening and playing it is instant.
+        songListView.getSelectionModel().selectedItemProperty()
+            .addListener((obs, o, n) -> facade.precompileSong(n));
 
         // 2) build genre toggle-buttons
         for (String genre : GENRES) {
@@ -147,6 +150,12 @@ public class DiscoverController extends BaseController {
             );
             content.getStyleClass().add("song-cell");
 
+            setOnMouseEntered(evt -> {
+                if (!isEmpty()) {
+                    facade.precompileSong(getItem());
+                }
+            });
+
             setOnMouseClicked(evt -> {
                 if (evt.getClickCount() == 2 && !isEmpty()) {
                     Song song = getItem();
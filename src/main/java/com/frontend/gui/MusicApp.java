@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.logging.Logger;
 
 import com.model.MusicAppFacade;
+import com.service.PlaybackService;
 
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
@@ -22,6 +23,9 @@ public class MusicApp extends Application {
     @Override
     public void start(Stage primaryStage) {
         try {
+            // Open the synthesizer in the background so the first play does not wait for it
+            PlaybackService.getInstance().warmUp();
+
             // Initialize style manager
             styleManager = BaseStyleManager.getInstance();
             
@@ -0,0 +1,153 @@
+package com.frontend.gui;
+
+import com.model.MusicAppFacade;
+import com.service.MeasureTickIndex;
+import com.service.SongEventTable;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.paint.Color;
+
+/**
+ * Highlights the measure and element that are sounding while a song plays.
+ * The playhead is drawn on its own transparent canvas stacked over the score, so moving it only clears and
+ * fills the previous and current measure instead of redrawing the score. Every frame it reads the sequencer's
+ * tick and maps it to a measure and element with two binary searches, and looks their positions up in the
+ * layout recorded when the score was drawn; frames where neither changed draw nothing.
+ */
+public class PlayheadOverlay extends AnimationTimer {
+    private static final Color MEASURE_COLOR = Color.rgb(255, 190, 0, 0.25);
+    private static final Color ELEMENT_COLOR = Color.rgb(255, 140, 0, 0.9);
+    private static final double PADDING = 4;
+
+    private final Canvas overlay;
+    private final GraphicsContext gc;
+    private final ScrollPane scrollPane;
+
+    private SongEventTable events;
+    private MeasureTickIndex index;
+    private int staff;
+    private double[] measureX = new double[0];
+    private double[] measureY = new double[0];
+    private double[] eventX = new double[0];
+    private double measureWidth;
+    private double measureHeight;
+
+    private int drawnMeasure = -1;
+    private int drawnEvent = -1;
+    private long maxFrameNanos;
+
+    /**
+     * Creates a playhead over the given score canvas.
+     *
+     * @param score The canvas the score is drawn on.
+     * @param scrollPane The scroll pane showing the score, scrolled to follow the playhead.
+     */
+    public PlayheadOverlay(Canvas score, ScrollPane scrollPane) {
+        this.scrollPane = scrollPane;
+        overlay = new Canvas();
+        overlay.widthProperty().bind(score.widthProperty());
+        overlay.heightProperty().bind(score.heightProperty());
+        overlay.setMouseTransparent(true);
+        gc = overlay.getGraphicsContext2D();
+    }
+
+    public Canvas getCanvas() {
+        return overlay;
+    }
+
+    /**
+     * Sets where the measures and events of a staff were drawn.
+     *
+     * @param events The event table the score was drawn from.
+     * @param staff The staff the playhead follows.
+     * @param measureX The left edge of each drawn measure.
+     * @param measureY The top edge of each drawn measure.
+     * @param eventX The x position of each event of the staff, starting at its first event.
+     * @param measureWidth The width of a measure.
+     * @param measureHeight The height of a measure.
+     */
+    public void setLayout(SongEventTable events, int staff, double[] measureX, double[] measureY, double[] eventX,
+                          double measureWidth, double measureHeight) {
+        this.events = events;
+        this.index = MeasureTickIndex.of(events);
+        this.staff = staff;
+        this.measureX = measureX;
+        this.measureY = measureY;
+        this.eventX = eventX;
+        this.measureWidth = measureWidth;
+        this.measureHeight = measureHeight;
+        clear();
+    }
+
+    @Override
+    public void handle(long now) {
+        long start = System.nanoTime();
+        MusicAppFacade facade = MusicAppFacade.getInstance();
+        if (!facade.isPlaybackActive()) {
+            stop();
+            return;
+        }
+        if (events == null || !facade.isPlaying()) {
+            return;
+        }
+        long tick = facade.getPlaybackTickPosition();
+        int measure = index.measureAt(staff, tick);
+        int event = events.eventAt(staff, tick);
+        if (measure >= measureX.length || (measure == drawnMeasure && event == drawnEvent)) {
+            return;
+        }
+        if (drawnMeasure >= 0) {
+            clearMeasure(drawnMeasure);
+            if (measureY[drawnMeasure] != measureY[measure]) {
+                follow(measureY[measure]);
+            }
+        }
+        gc.setFill(MEASURE_COLOR);
+        gc.fillRect(measureX[measure], measureY[measure] - PADDING, measureWidth, measureHeight + 2 * PADDING);
+        if (event >= 0 && events.getMeasure(event) == measure) {
+            gc.setFill(ELEMENT_COLOR);
+            gc.fillRect(eventX[event - events.getFirstEvent(staff, 0)] - 1, measureY[measure] - PADDING, 3,
+                    measureHeight + 2 * PADDING);
+        }
+        drawnMeasure = measure;
+        drawnEvent = event;
+        maxFrameNanos = Math.max(maxFrameNanos, System.nanoTime() - start);
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        clear();
+    }
+
+    private void clearMeasure(int measure) {
+        gc.clearRect(measureX[measure] - 1, measureY[measure] - PADDING - 1, measureWidth + 2,
+                measureHeight + 2 * PADDING + 2);
+    }
+
+    private void clear() {
+        gc.clearRect(0, 0, overlay.getWidth(), overlay.getHeight());
+        drawnMeasure = -1;
+        drawnEvent = -1;
+    }
+
+    // Keeps the line being played in view.
+    private void follow(double y) {
+        double scrollable = overlay.getHeight() - scrollPane.getViewportBounds().getHeight();
+        if (scrollable > 0) {
+            scrollPane.setVvalue(Math.min(1, Math.max(0, (y - PADDING) / scrollable)));
+        }
+    }
+
+    /**
+     * Gets the longest time a frame spent on the FX thread since the playhead was created.
+     *
+     * @return The time in nanoseconds
+     */
+    public long getMaxFrameNanos() {
+        return maxFrameNanos;
+    }
+}
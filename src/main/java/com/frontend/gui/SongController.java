@@ -5,7 +5,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-import com.model.Chord;
 import com.model.DurationElement;
 import com.model.Instrument;
 import com.model.Measure;
@@ -15,11 +14,10 @@ import com.model.Note;
 import com.model.SheetMusic;
 import com.model.Song;
 import com.model.Staff;
-import com.model.Tuplet;
 import com.model.User;
+import com.service.MidiSequenceCompiler;
 import com.service.MusicXMLToSongJsonConverter;
-import com.service.PlaybackTask;
-import com.service.SongPlayer;
+import com.service.SongEventTable;
 
 import javafx.application.Platform;
 import javafx.fxml.FXML;
@@ -39,11 +37,16 @@ public class SongController extends BaseController {
     @FXML private HBox        hudBar;
     @FXML private Button      exitSongBtn;
     @FXML private Button      playSongBtn;
+    @FXML private Button      pauseSongBtn;
     @FXML private Button      importMusicXMLBtn;
     @FXML private ScrollPane  scrollPane;
     @FXML private Pane        contentPane;
 
     private Canvas            canvas;
+    private PlayheadOverlay   playhead;
+    private double[]          layoutMeasureX;
+    private double[]          layoutMeasureY;
+    private double[]          layoutEventX;
     private GraphicsContext   gc;
     private Song              currentSong;
     private double width;
@@ -51,26 +54,31 @@ public class SongController extends BaseController {
     private double measureLength;
     private double measureHeight;
 
-    private static PlaybackTask currentTask;
     private static SongController activeInstance;
 
     @FXML private void handlePlay() {
-        SongPlayer songPlayer = new SongPlayer();
-        if (currentTask == null || !currentTask.isRunning()) {
-            currentTask = new PlaybackTask(songPlayer.play(currentSong));
-            Thread t = new Thread(currentTask, "JFugue-Playback");
-            t.setDaemon(true);             // JVM can exit even if music is still playing
-            t.start();
+        MusicAppFacade facade = MusicAppFacade.getInstance();
+        if (facade.isPaused()) {
+            facade.resumeViewedSong();
+        } else if (!facade.isPlaying()) {
+            facade.playViewedSong();
         }
+        playhead.start();
     }
 
-    @FXML public static void handleStop() {       // Pause is similar: call player.pause()
-        if (currentTask != null){
-            currentTask.stopPlayback();
-            System.out.println("Attempted stop");
+    @FXML private void handlePause() {
+        MusicAppFacade facade = MusicAppFacade.getInstance();
+        if (facade.isPaused()) {
+            facade.resumeViewedSong();
+        } else {
+            facade.pauseViewedSong();
         }
     }
 
+    @FXML public static void handleStop() {
+        MusicAppFacade.getInstance().stopViewedSong();
+    }
+
     @FXML
     public void initialize() {
         try {
@@ -82,6 +90,8 @@ public class SongController extends BaseController {
             // 1) Prepare the canvas & put it in the scrollPane
             canvas = new Canvas();
             contentPane.getChildren().add(canvas);
+            playhead = new PlayheadOverlay(canvas, scrollPane);
+            contentPane.getChildren().add(playhead.getCanvas());
             scrollPane.setContent(contentPane);
             scrollPane.pannableProperty().set(true);
             gc = canvas.getGraphicsContext2D();
@@ -124,6 +134,7 @@ public class SongController extends BaseController {
             playSongBtn.setOnAction(e -> {
                 handlePlay();
             });
+            pauseSongBtn.setOnAction(e -> handlePause());
             importMusicXMLBtn.setOnAction(e -> handleImportMusicXML());
             if (exitSongBtn != null) {
                 exitSongBtn.setOnAction(e -> handleDiscover());
@@ -289,16 +300,25 @@ public class SongController extends BaseController {
             }
 
             double x = width/10, y = 100;
+            SongEventTable events = MusicAppFacade.getInstance().getEventTable(song);
+            int playheadStaff = 0;
+            layoutMeasureX = new double[events.getStaffCount() > 0 ? events.getMeasureCount(playheadStaff) : 0];
+            layoutMeasureY = new double[layoutMeasureX.length];
+            layoutEventX = new double[events.getStaffCount() > 0
+                    ? events.getFirstEvent(playheadStaff, layoutMeasureX.length) - events.getFirstEvent(playheadStaff, 0) : 0];
 
             // Draw first staff if it exists and has measures
             try {
                 if (!song.getSheetMusic().get(0).getStaves().isEmpty()) {
                     Staff firstStaff = song.getSheetMusic().get(0).getStaves().get(0);
                     if (firstStaff != null && firstStaff.getMeasures() != null && !firstStaff.getMeasures().isEmpty()) {
-                        for (Measure measure : firstStaff.getMeasures()) {
+                        for (int m = 0; m < firstStaff.getMeasures().size(); ++m) {
+                            Measure measure = firstStaff.getMeasures().get(m);
                             try {
                                 if (measure != null) {
-                                    drawMeasure(x, y, measure);
+                                    layoutMeasureX[m] = x;
+                                    layoutMeasureY[m] = y;
+                                    drawMeasure(x, y, measure, events, 0, m);
                                     x += measureLength + 1;
                                     if (x > width - measureLength) {
                                         x = width/10;
@@ -328,10 +348,11 @@ public class SongController extends BaseController {
                 if (song.getSheetMusic().get(0).getStaves().size() > 3) {
                     Staff fourthStaff = song.getSheetMusic().get(0).getStaves().get(3);
                     if (fourthStaff != null && fourthStaff.getMeasures() != null && !fourthStaff.getMeasures().isEmpty()) {
-                        for (Measure measure : fourthStaff.getMeasures()) {
+                        for (int m = 0; m < fourthStaff.getMeasures().size(); ++m) {
+                            Measure measure = fourthStaff.getMeasures().get(m);
                             try {
                                 if (measure != null) {
-                                    drawMeasure(x, y, measure);
+                                    drawMeasure(x, y, measure, events, 3, m);
                                     x += measureLength + 1;
                                     if (x > width - measureLength) {
                                         x = width/10;
@@ -349,13 +370,18 @@ public class SongController extends BaseController {
             } catch (Exception e) {
                 System.err.println("Error drawing fourth staff: " + e.getMessage());
             }
+
+            if (events.getStaffCount() > 0) {
+                playhead.setLayout(events, playheadStaff, layoutMeasureX, layoutMeasureY, layoutEventX,
+                        measureLength, measureHeight);
+            }
         } catch (Exception e) {
             System.err.println("Error drawing song: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    private void drawMeasure(double x, double y, Measure measure) {
+    private void drawMeasure(double x, double y, Measure measure, SongEventTable events, int staff, int measureIndex) {
 
         int numOfLines = 5;
         gc.strokeLine(x, y, x, y + measureHeight);
@@ -363,47 +389,23 @@ public class SongController extends BaseController {
         for (int i = 0; i < numOfLines; ++i) {
             gc.strokeLine(x, y + ((measureHeight * i) / 4), x + measureLength, y + ( (measureHeight * i) / 4) );
         }
-        double duration = getTotalMeasureDuration(measure);
-        drawMusicElements(x, y, measure.getMusicElements(), duration, measure);
+        drawMusicElements(x, y, measure, events, staff, measureIndex);
     }
 
-    private void drawMusicElements(double x, double y, List<MusicElement> musicElements, double duration, Measure measure) {
-        for (MusicElement element : musicElements) {
-            drawMusicElement(x, y, element);
-            x += getXIncrement(element, measureLength, measure) * measureLength;
-        }
-    }
-
-    private double getXIncrement(MusicElement element, double measureLength, Measure measure) {
-        double duration = 0;
-        if (element.getType().equals("chord")) {
-            for (Note note : ((Chord) element).getNotes()) {
-                if (note.getDuration() > duration) {
-                    duration = note.getDuration();
-                }
+    // Notes are placed by their onset in the song's event table, so chords, tuplets and ties are laid out
+    // with the same timing playback uses.
+    private void drawMusicElements(double x, double y, Measure measure, SongEventTable events, int staff, int measureIndex) {
+        long measureStart = events.getMeasureTick(staff, measureIndex);
+        double barTicks = MidiSequenceCompiler.toTicks(
+                (double) measure.getTimeSignatureNumerator() / measure.getTimeSignatureDenominator());
+        for (int e = events.getFirstEvent(staff, measureIndex); e < events.getFirstEvent(staff, measureIndex + 1); ++e) {
+            double elementX = x + (events.getOnsetTick(e) - measureStart) / barTicks * measureLength;
+            if (staff == 0) {
+                layoutEventX[e - events.getFirstEvent(0, 0)] = elementX;
             }
-        } else if (element.getType().equals("tuplet")) {
-            for (MusicElement element1 : ((Tuplet) element).getElements()) {
-                duration += getXIncrement(element1, measureLength, measure);
+            if (events.getElement(e) instanceof Note note) {
+                drawNote(elementX, y, note);
             }
-        } else {
-            duration = ((DurationElement) element).getDuration();
-        }
-        double test = duration / ((double) measure.getTimeSignatureNumerator() / measure.getTimeSignatureDenominator());
-        return test;
-    }
-
-    private void drawMusicElement(double x, double y, MusicElement musicElement) {
-        switch (musicElement.getType()) {
-            case "note" -> drawNote(x, y, (Note) musicElement);
-            case "chord" -> drawChord(x, y, (Chord) musicElement);
-        }
-
-    }
-
-    private void drawChord(double x, double y, Chord musicElement) {
-        for (Note note : musicElement.getNotes()) {
-            drawNote(x, y, note);
         }
     }
 
@@ -432,10 +434,6 @@ public class SongController extends BaseController {
         gc.strokeLine(x + 3*measureHeight/8, y + 3, x + 3*measureHeight/8, y - measureHeight * 3/4);
     }
 
-    private double getTotalMeasureDuration(Measure measure) {
-        return (double) measure.getTimeSignatureDenominator() / measure.getTimeSignatureNumerator();
-    }
-
     private double getDurationElementYPos(DurationElement element, double lineOffset) {
         if (element.getType().equals("rest")) return 0; //TODO offset to B4
         int noteNumber = noteNameToInt.get(((Note) element).getNoteName().charAt(0));
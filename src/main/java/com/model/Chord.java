@@ -2,7 +2,7 @@ package com.model;
 
 import java.util.ArrayList;
 import java.util.List;
-import org.jfugue.player.Player;
+import com.service.AuditionEngine;
 
 /**
  * Represents a musical chord composed of multiple notes played simultaneously.
@@ -71,11 +71,11 @@ public class Chord implements MusicElement {
     }
 
     /**
-     * Plays the chord using JFugue.
+     * Plays the chord through the {@link AuditionEngine}.
      * Notes are played simultaneously.
      */
     public void play() {
-        new Player().play(toJfugueString());
+        AuditionEngine.getInstance().audition(this);
     }
 
     /**
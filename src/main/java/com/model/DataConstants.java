@@ -53,4 +53,19 @@ public abstract class DataConstants {
   public static final String SONG_MUSIC_ELEMENT_IMPLIED_DIVISION = "impliedDivision";
   public static final String SONG_MUSIC_ELEMENT_TUPLET_ELEMENTS = "elements";
   public static final String SONG_MUSIC_ELEMENT_CHORD_NOTES = "notes";
+
+  public static final String REVISION_DIRECTORY = "src/main/java/com/data/revisions";
+  public static final String REVISION_NUMBER = "revision";
+  public static final String REVISION_TIMESTAMP = "timestamp";
+  public static final String REVISION_CHECKPOINT = "checkpoint";
+  public static final String REVISION_HEADER = "header";
+  public static final String REVISION_MEASURE_COUNT = "measureCount";
+  public static final String REVISION_CHANGES = "changes";
+  public static final String REVISION_CHANGE_SHEET = "sheet";
+  public static final String REVISION_CHANGE_STAFF = "staff";
+  public static final String REVISION_CHANGE_MEASURE = "measure";
+  public static final String REVISION_CHANGE_HASH = "hash";
+  public static final String REVISION_MEASURES = "measures";
+
+  public static final String MIDI_CACHE_DIRECTORY = "cache/midi";
 }
@@ -2,10 +2,21 @@ package com.model;
 
 import java.util.ArrayList;
 
-import com.service.SongPlayer;
+import com.service.AuditionEngine;
+import com.service.CompiledSongCache;
+import com.service.JitterHistogram;
+import com.service.PlaybackQueue;
+import com.service.PlaybackService;
+import com.service.PlaybackTask;
+import com.service.SongEventTable;
+import com.service.SpeculativeCompiler;
+import com.service.StaffMixer;
+import com.service.WavRenderer;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
-
-import com.service.SongPlayer;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
 
 public class MusicAppFacade {
     private User user;
@@ -13,6 +24,16 @@ public class MusicAppFacade {
     private SongList songList;
     private UserList userList;
     private Song viewedSong;
+    private final SpeculativeCompiler speculativeCompiler = new SpeculativeCompiler(CompiledSongCache.getInstance());
+    // Mute and solo settings of the viewed song, kept across plays of it.
+    private final StaffMixer mixer = new StaffMixer();
+    // Written by the playback thread when a queue moves on to its next song.
+    private volatile PlaybackTask playbackTask;
+    private final PlaybackQueue playbackQueue = new PlaybackQueue(CompiledSongCache.getInstance(), song -> {
+        PlaybackTask task = createPlaybackTask(song, 0);
+        playbackTask = task;
+        return task;
+    });
 
     /**
      * Private constructor to enforce singleton pattern.
@@ -69,12 +90,34 @@ public class MusicAppFacade {
         return songList;
     }
 
+    /**
+     * Starts preparing a song the user selected or is pointing at in a list, so opening and playing it is
+     * instant. The song prepared before is abandoned.
+     *
+     * @param song The song to prepare, or null when nothing is selected.
+     */
+    public void precompileSong(Song song) {
+        speculativeCompiler.speculate(song);
+    }
+
+    /**
+     * Gets the speculative compiler, e.g. to read how often precompiling paid off.
+     *
+     * @return The speculative compiler.
+     */
+    public SpeculativeCompiler getSpeculativeCompiler() {
+        return speculativeCompiler;
+    }
+
     /**
      * Sets the currently viewed song to a song input
      *
      * @param song the song being set as currently viewed
      */
     public void setViewedSong(Song song) {
+        if (song != viewedSong) {
+            mixer.clear();
+        }
         this.viewedSong = song;
     }
 
@@ -91,12 +134,15 @@ public class MusicAppFacade {
     }
 
     /**
-     * Adds a music element to the currently viewed song.
+     * Adds a music element to the currently viewed song and auditions it.
      *
      * @param musicElement The music element to be added.
      */
     public void addMusicElement(MusicElement musicElement) {
         viewedSong.getSheetMusic().get(0).getStaves().get(0).getMeasures().get(0).addMusicElement(musicElement);
+        viewedSongModified();
+        Instrument instrument = viewedSong.getSheetMusic().get(0).getInstrument();
+        AuditionEngine.getInstance().audition(musicElement, instrument == null ? null : instrument.getInstrumentName());
     }
 
     /**
@@ -106,6 +152,7 @@ public class MusicAppFacade {
      */
     public void addSheetMusic(SheetMusic sheetMusic) {
         viewedSong.addSheetMusic(sheetMusic);
+        viewedSongModified();
     }
 
     /**
@@ -115,6 +162,7 @@ public class MusicAppFacade {
      */
     public void addMeasure(Measure measure) {
         viewedSong.getSheetMusic().get(0).getStaves().get(0).addMeasure(measure);
+        viewedSongModified();
     }
 
     /**
@@ -124,21 +172,347 @@ public class MusicAppFacade {
      */
     public void addStaff(Staff staff) {
         viewedSong.getSheetMusic().get(0).addStaff(staff);
+        viewedSongModified();
+    }
+
+    /**
+     * Bumps the viewed song's content version and drops its compiled playback so the next play recompiles.
+     */
+    private void viewedSongModified() {
+        viewedSong.markModified();
+        CompiledSongCache.getInstance().invalidate(viewedSong);
     }
 
     /**
      * Plays the currently viewed song.
      */
     public void playViewedSong() {
-        SongPlayer player = new SongPlayer();
-        player.play(viewedSong);
+        playFromMeasure(0);
+    }
+
+    /**
+     * Plays the currently viewed song starting at the given measure, replacing whatever is playing.
+     *
+     * @param measure The index of the measure to start at.
+     */
+    public void playFromMeasure(int measure) {
+        checkMeasure(measure);
+        stopViewedSong();
+        speculativeCompiler.recordPlay(viewedSong);
+        playbackTask = createPlaybackTask(viewedSong, measure);
+        playbackTask.setMixer(mixer);
+        PlaybackService.getInstance().start(playbackTask);
+    }
+
+    /**
+     * Moves playback of the viewed song to the given measure, starting playback there if nothing is playing.
+     *
+     * @param measure The index of the measure to seek to.
+     */
+    public void seekToMeasure(int measure) {
+        checkMeasure(measure);
+        // A task that fell back to JFugue is replaced; it logs if the new one cannot start at the measure either.
+        if (!hasPlayback() || !playbackTask.hasMeasures()) {
+            playFromMeasure(measure);
+            return;
+        }
+        try {
+            playbackTask.seekToMeasure(measure);
+        } catch (InvalidMidiDataException | IllegalStateException e) {
+            System.err.println("Could not seek to measure " + measure + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loops a range of measures of the viewed song for practice, starting playback at the first of them if
+     * nothing is playing. Calling it again while looping moves the loop without recompiling.
+     *
+     * @param firstMeasure The index of the first measure to loop.
+     * @param lastMeasure The index of the last measure to loop, inclusive.
+     */
+    public void loopMeasures(int firstMeasure, int lastMeasure) {
+        checkMeasure(firstMeasure);
+        checkMeasure(lastMeasure);
+        if (!isPlaybackActive() || !playbackTask.hasMeasures()) {
+            playFromMeasure(firstMeasure);
+        }
+        // A task that falls back to JFugue has no measure positions to loop between; it says so itself.
+        try {
+            playbackTask.setLoop(firstMeasure, lastMeasure);
+        } catch (InvalidMidiDataException | IllegalStateException e) {
+            System.err.println("Could not loop measures " + firstMeasure + "-" + lastMeasure + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Changes the playback speed, e.g. to practice a passage slowly, without recompiling the song.
+     * The speed applies at once to the song that is playing and stays set for later songs.
+     *
+     * @param factor The speed relative to the written tempo, limited to 0.25 to 2.
+     * @return The speed that was applied.
+     */
+    public double setPlaybackSpeed(double factor) {
+        return PlaybackService.getInstance().setTempoFactor((float) factor);
+    }
+
+    public double getPlaybackSpeed() {
+        return PlaybackService.getInstance().getTempoFactor();
+    }
+
+    /**
+     * Mutes or unmutes a staff of the viewed song. The change is heard at once if the song is playing and
+     * is kept for later plays of it.
+     *
+     * @param staff The index of the staff across all sheet music of the song.
+     * @param muted true to silence the staff.
+     */
+    public void setStaffMuted(int staff, boolean muted) {
+        mixer.setMuted(staff, muted);
+    }
+
+    /**
+     * Solos a staff of the viewed song or takes it out of the solo; while any staff is soloed only the
+     * soloed staves are heard.
+     *
+     * @param staff The index of the staff across all sheet music of the song.
+     * @param solo true to solo the staff.
+     */
+    public void setStaffSolo(int staff, boolean solo) {
+        mixer.setSolo(staff, solo);
+    }
+
+    public boolean isStaffAudible(int staff) {
+        return mixer.isAudible(staff);
+    }
+
+    /**
+     * Turns the metronome click on or off. The click is compiled with the song, so it is heard or silenced
+     * at once while the viewed song plays, and the setting stays for later songs.
+     *
+     * @param enabled true to hear the click.
+     */
+    public void setMetronomeEnabled(boolean enabled) {
+        mixer.setClickEnabled(enabled);
+    }
+
+    public boolean isMetronomeEnabled() {
+        return mixer.isClickEnabled();
+    }
+
+    /**
+     * Chooses between the stock sequencer and the high-resolution event scheduler for later playback.
+     * The scheduler measures how late every event is sent; both play loops, seeks and the metronome alike.
+     *
+     * @param enabled true to play with the event scheduler.
+     */
+    public void setPreciseTimingEnabled(boolean enabled) {
+        PlaybackService.getInstance().setEventSchedulerEnabled(enabled);
+    }
+
+    /**
+     * Gets how late the event scheduler sent events, e.g. to show p50, p99 and max timing error.
+     *
+     * @return The jitter histogram of every song played with precise timing.
+     */
+    public JitterHistogram getPlaybackJitter() {
+        return PlaybackService.getInstance().getSchedulerJitter();
+    }
+
+    /**
+     * Stops looping; the viewed song plays on from where it is.
+     */
+    public void clearLoop() {
+        if (playbackTask != null) {
+            playbackTask.clearLoop();
+        }
+    }
+
+    /**
+     * Stops playback of the viewed song.
+     */
+    public void stopViewedSong() {
+        playbackQueue.stop();
+        if (playbackTask != null) {
+            PlaybackService.getInstance().stop();
+            playbackTask = null;
+        }
+    }
+
+    /**
+     * Plays songs back to back, replacing whatever is playing. Upcoming songs are compiled while the
+     * current one plays.
+     *
+     * @param songs The songs to play in order.
+     */
+    public void playQueue(List<Song> songs) {
+        stopViewedSong();
+        playbackQueue.play(songs);
+    }
+
+    /**
+     * Plays the logged in user's favorite songs back to back.
+     */
+    public void playFavoriteSongs() {
+        if (user != null) {
+            playQueue(user.getFavoriteSongs());
+        }
+    }
+
+    /**
+     * Plays every song of a genre back to back.
+     *
+     * @param genre The genre to play.
+     */
+    public void playGenre(String genre) {
+        playQueue(filterByGenre(genre));
+    }
+
+    /**
+     * Plays the songs created by the users the logged in user follows, back to back.
+     */
+    public void playFollowedUsersSongs() {
+        if (user == null) {
+            return;
+        }
+        List<Song> songs = new ArrayList<>();
+        for (User followed : user.getFollowedUsers()) {
+            songs.addAll(followed.getCreatedSongs());
+        }
+        playQueue(songs);
+    }
+
+    /**
+     * Skips to the next song of the queue.
+     */
+    public void playNextQueuedSong() {
+        playbackQueue.next();
+    }
+
+    /**
+     * Goes back to the previous song of the queue.
+     */
+    public void playPreviousQueuedSong() {
+        playbackQueue.previous();
+    }
+
+    /**
+     * Gets the queue used for back to back playback, e.g. to change its prefetch depth or read its gap metrics.
+     *
+     * @return The playback queue
+     */
+    public PlaybackQueue getPlaybackQueue() {
+        return playbackQueue;
+    }
+
+    /**
+     * Returns whether a song is currently playing.
+     *
+     * @return true if playback is running and not paused
+     */
+    public boolean isPlaying() {
+        return hasPlayback() && !playbackTask.isPaused();
+    }
+
+    /**
+     * Returns whether playback is paused and can be resumed.
+     *
+     * @return true if playback is paused
+     */
+    public boolean isPaused() {
+        return hasPlayback() && playbackTask.isPaused();
+    }
+
+    /**
+     * Returns whether a playback was started and has not finished, including one still starting up.
+     *
+     * @return true until the current playback ends or is stopped
+     */
+    public boolean isPlaybackActive() {
+        return playbackTask != null && !playbackTask.isDone();
+    }
+
+    /**
+     * Gets the playhead position of the current playback.
+     *
+     * @return The current tick, or 0 if nothing is playing
+     */
+    public long getPlaybackTickPosition() {
+        return hasPlayback() ? playbackTask.getTickPosition() : 0;
+    }
+
+    /**
+     * Gets the playhead position of the current playback as time from the start of the song.
+     *
+     * @return The current position in microseconds, or 0 if nothing is playing
+     */
+    public long getPlaybackMicrosecondPosition() {
+        return hasPlayback() ? playbackTask.getMicrosecondPosition() : 0;
+    }
+
+    private boolean hasPlayback() {
+        return playbackTask != null && playbackTask.isRunning();
+    }
+
+    private void checkMeasure(int measure) {
+        int measures = viewedSong.getSheetMusic().isEmpty() || viewedSong.getSheetMusic().get(0).getStaves().isEmpty()
+                ? 0
+                : viewedSong.getSheetMusic().get(0).getStaves().get(0).getMeasures().size();
+        if (measure < 0 || (measure > 0 && measure >= measures)) {
+            throw new IndexOutOfBoundsException("No measure " + measure + " in " + viewedSong.getTitle());
+        }
+    }
+
+    /**
+     * Plays the song's compiled MIDI from the playback cache, or streams it while it compiles on a miss,
+     * falling back to the JFugue pattern path if the compiler fails. The task looks the song up and compiles
+     * it on the playback thread, so nothing here grows with the length of the song.
+     */
+    private PlaybackTask createPlaybackTask(Song song, int measure) {
+        return new PlaybackTask(song, CompiledSongCache.getInstance(), measure);
     }
 
     /**
      * Pauses the currently viewed song.
      */
     public void pauseViewedSong() {
-        // Implementation for pausing the viewed song
+        if (hasPlayback()) {
+            playbackTask.pause();
+        }
+    }
+
+    /**
+     * Resumes the viewed song from where it was paused.
+     */
+    public void resumeViewedSong() {
+        if (hasPlayback()) {
+            playbackTask.resume();
+        }
+    }
+
+    /**
+     * Renders the viewed song to a WAV file offline, without playing it.
+     *
+     * @param file The WAV file to write.
+     * @return true if the file was written
+     */
+    public boolean exportViewedSongToWav(File file) {
+        try {
+            new WavRenderer().render(CompiledSongCache.getInstance().getOrCompile(viewedSong).getSequence(), file);
+            return true;
+        } catch (InvalidMidiDataException | MidiUnavailableException | IOException e) {
+            System.err.println("Could not render " + viewedSong.getTitle() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Gets the timed events of a song's current version, shared with playback.
+     *
+     * @param song The song to get the events of.
+     * @return The event table of the song.
+     */
+    public SongEventTable getEventTable(Song song) {
+        return CompiledSongCache.getInstance().getEventTable(song);
     }
 
     /**
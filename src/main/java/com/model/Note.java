@@ -2,7 +2,7 @@ package com.model;
 
 import java.util.HashMap;
 import java.util.Map;
-import org.jfugue.player.Player;
+import com.service.AuditionEngine;
 
 public class Note implements MusicElement, DurationElement {
     private final String type = "note";
@@ -93,9 +93,11 @@ public class Note implements MusicElement, DurationElement {
         this.lyric = lyric;
     }
 
+    /**
+     * Sounds the note right away through the {@link AuditionEngine}.
+     */
     public void play() {
-        Player player = new Player();
-        player.play(toJfugueString());
+        AuditionEngine.getInstance().audition(this);
     }
 
     /**
@@ -1,7 +0,0 @@
-package com.model;
-
-import java.util.List;
-
-public record ProcessedMusicElement(String elementJFugueString, List<MusicElement> tiedElements) {
-
-}
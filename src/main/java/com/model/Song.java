@@ -18,6 +18,7 @@ public class Song {
     private List<SheetMusic> sheetMusic;
     private int pickUp;
     private List<String> genres;
+    private long contentVersion;
 
      /**
      * Constructor for a Song
@@ -78,6 +79,23 @@ public class Song {
      */
     public void addSheetMusic(SheetMusic sheet) {
         sheetMusic.add(sheet);
+        markModified();
+    }
+
+    /**
+     * Records that the song's musical content changed, so anything compiled from an older version is stale
+     */
+    public void markModified() {
+        contentVersion++;
+    }
+
+    /**
+     * Gets the song's content version, which increases every time its musical content is edited
+     *
+     * @return The content version
+     */
+    public long getContentVersion() {
+        return contentVersion;
     }
 
     /**
@@ -1,10 +1,13 @@
 package com.model;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.service.DataAssembler;
 import com.service.DataWriter;
+import com.service.SongRevisionHistory;
 
 /**
  * Manages a collection of songs in the music application
@@ -12,6 +15,8 @@ import com.service.DataWriter;
 public class SongList {
     private static SongList instance;
     private List<Song> songs;
+    // The content version of every song when it was last loaded or saved
+    private final Map<Song, Long> savedVersions = new IdentityHashMap<>();
 
     /**
      * Constructor for SongList
@@ -183,6 +188,7 @@ public class SongList {
             List<Song> loadedSongs = dataAssembler.getAssembledSongs();
             if (loadedSongs != null) {
                 this.songs = loadedSongs;
+                rememberSavedVersions();
                 return true;
             }
             return false;
@@ -198,12 +204,37 @@ public class SongList {
     }
 
     /**
-     * Saves the song list
+     * Saves the song list and records a revision for every song that was added or edited since it was
+     * last loaded or saved; the other songs are not hashed again
      * 
      * @return True if the save was successful, false otherwise
      */
     public boolean save() {
-        return DataWriter.saveSongs(this.songs);
+        if (!DataWriter.saveSongs(this.songs)) {
+            return false;
+        }
+        List<Song> modified = new ArrayList<>();
+        for (Song song : songs) {
+            Long saved = savedVersions.get(song);
+            if (saved == null || saved != song.getContentVersion()) {
+                modified.add(song);
+            }
+        }
+        // Songs whose revision failed stay modified, so the next save tries again
+        if (SongRevisionHistory.getInstance().recordRevisions(modified)) {
+            rememberSavedVersions();
+        }
+        return true;
+    }
+
+    /**
+     * Remembers the content version of every song as the one last saved
+     */
+    private void rememberSavedVersions() {
+        savedVersions.clear();
+        for (Song song : songs) {
+            savedVersions.put(song, song.getContentVersion());
+        }
     }
 
     /**
@@ -0,0 +1,13 @@
+package com.model;
+
+/**
+ * Summary of one stored revision of a song.
+ *
+ * @param revision        Sequential revision number, starting at 0
+ * @param timestamp       Time the revision was recorded, in epoch milliseconds
+ * @param checkpoint      Whether the revision stores every measure position instead of a delta
+ * @param changedMeasures Number of measure positions recorded in the revision
+ */
+public record SongRevision(int revision, long timestamp, boolean checkpoint, int changedMeasures) {
+
+}
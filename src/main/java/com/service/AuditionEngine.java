@@ -0,0 +1,257 @@
+package com.service;
+
+import com.model.Chord;
+import com.model.DataConstants;
+import com.model.MusicElement;
+import com.model.Note;
+import com.model.Tuplet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongSupplier;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+
+/**
+ * Plays single elements while a song is being edited, with as little latency as possible.
+ * Auditions play on a synthesizer of their own, opened by the {@link PlaybackService} warm-up, so they never
+ * take a channel of a song that is playing. The program of the element's instrument and every note-on and
+ * note-off of the element go straight to that synthesizer as soon as the element is auditioned, timestamped on
+ * its clock, which plays each at its time; nothing is parsed, sequenced or timed by a thread of this engine.
+ * An audition asked for while the synthesizer is still opening is held and played once it is open; only the
+ * latest one is kept, and the caller never waits.
+ * Auditions may overlap. A note-off already sent cannot be taken back, so a pitch auditioned again while it
+ * still sounds is struck again and released with the earlier note.
+ *
+ * <p>The engine measures the time from an audition call to its note-on messages being sent.
+ */
+public class AuditionEngine extends DataConstants {
+  /** The channel pitched instruments are auditioned on; the synthesizer is only used for auditions. */
+  public static final int AUDITION_CHANNEL = 0;
+  private static AuditionEngine instance;
+
+  // When the note-off sent last for each pitch of each channel is played, in synthesizer microseconds.
+  private final long[][] releaseAt = new long[MidiChannelAllocator.CHANNELS_PER_PORT][128];
+  private CompletableFuture<Synthesizer> synthesizer;
+  private Receiver receiver;
+  private LongSupplier clock;
+  private int program = -1;
+  private Pending pending;
+  private long auditions;
+  private long totalLatencyMicros;
+  private long maxLatencyMicros;
+  private long lastLatencyMicros;
+
+  private AuditionEngine() {
+  }
+
+  /**
+   * Creates an engine sending to the given receiver instead of the audition synthesizer.
+   *
+   * @param receiver The receiver to send note messages to.
+   * @param clock The time of the receiver's device in microseconds, the base of the timestamps sent to it.
+   */
+  AuditionEngine(Receiver receiver, LongSupplier clock) {
+    this.receiver = receiver;
+    this.clock = clock;
+  }
+
+  /**
+   * Gets the singleton audition engine.
+   *
+   * @return The singleton instance
+   */
+  public static synchronized AuditionEngine getInstance() {
+    if (instance == null) {
+      instance = new AuditionEngine();
+    }
+    return instance;
+  }
+
+  /**
+   * Sounds an element now with the default program, a piano.
+   *
+   * @param element The element to audition.
+   * @see #audition(MusicElement, String)
+   */
+  public void audition(MusicElement element) {
+    audition(element, null);
+  }
+
+  /**
+   * Sounds an element now: a note, every note of a chord at once, or the members of a tuplet one after another.
+   * Rests make no sound. Percussion instruments play on the percussion channel.
+   *
+   * @param element The element to audition.
+   * @param instrument The name of the instrument playing the element, or null for the default program.
+   */
+  public void audition(MusicElement element, String instrument) {
+    play(new Pending(element, instrument, System.nanoTime()));
+  }
+
+  private void play(Pending audition) {
+    synchronized (this) {
+      if (receiver == null && !connect(audition)) {
+        return;
+      }
+    }
+    boolean percussion = audition.instrument() != null && MidiChannelAllocator.isPercussion(audition.instrument());
+    int channel = percussion ? MidiChannelAllocator.PERCUSSION_CHANNEL : AUDITION_CHANNEL;
+    int wanted = audition.instrument() == null ? InstrumentPrograms.DEFAULT_PROGRAM
+        : InstrumentPrograms.programOf(audition.instrument());
+    long now = clock.getAsLong();
+    // Held across the program change and the notes, so another audition cannot change the program in between.
+    synchronized (releaseAt) {
+      if (!percussion && wanted != program) {
+        program = wanted;
+        send(ShortMessage.PROGRAM_CHANGE, channel, wanted, 0, now);
+      }
+      send(audition.element(), channel, now, 1.0);
+    }
+    recordLatency((System.nanoTime() - audition.startNanos()) / 1_000);
+  }
+
+  /**
+   * Connects to the audition synthesizer once it is open. Until then the audition is held, replacing any held
+   * before it, and played when the synthesizer opens. Must hold the lock.
+   *
+   * @return true if the engine is connected, false if the audition is held or the synthesizer failed to open.
+   */
+  private boolean connect(Pending audition) {
+    if (synthesizer == null) {
+      synthesizer = PlaybackService.getInstance().getAuditionSynthesizer();
+    }
+    if (!synthesizer.isDone()) {
+      boolean waiting = pending != null;
+      pending = audition;
+      if (!waiting) {
+        synthesizer.whenComplete((synth, error) -> playPending());
+      }
+      return false;
+    }
+    try {
+      Synthesizer synth = synthesizer.join();
+      receiver = synth.getReceiver();
+      clock = synth::getMicrosecondPosition;
+      return true;
+    } catch (CompletionException | MidiUnavailableException e) {
+      System.err.println("Could not audition element: " + e.getMessage());
+      return false;
+    }
+  }
+
+  private void playPending() {
+    Pending held;
+    synchronized (this) {
+      held = pending;
+      pending = null;
+    }
+    if (held != null) {
+      play(held);
+    }
+  }
+
+  /**
+   * Sends the messages of an element starting at the given time and returns the time after it.
+   *
+   * @param element The element to sound.
+   * @param channel The channel to sound it on.
+   * @param startMicros When the element starts, on the synthesizer's clock.
+   * @param scale The tuplet scale applied to durations.
+   * @return When the element ends, on the synthesizer's clock.
+   */
+  private long send(MusicElement element, int channel, long startMicros, double scale) {
+    switch (element.getType()) {
+      case SONG_MUSIC_ELEMENT_NOTE -> {
+        return startMicros + sendNote((Note) element, channel, startMicros, scale);
+      }
+      case SONG_MUSIC_ELEMENT_CHORD -> {
+        long length = 0;
+        for (Note note : ((Chord) element).getNotes()) {
+          length = Math.max(length, sendNote(note, channel, startMicros, scale));
+        }
+        return startMicros + length;
+      }
+      case SONG_MUSIC_ELEMENT_TUPLET -> {
+        Tuplet tuplet = (Tuplet) element;
+        long time = startMicros;
+        for (MusicElement inner : tuplet.getElements()) {
+          time = send(inner, channel, time, scale * MidiSequenceCompiler.tupletRatio(tuplet));
+        }
+        return time;
+      }
+      default -> {
+        return startMicros;
+      }
+    }
+  }
+
+  /**
+   * Sends the note-on of a note and, unless the pitch is still sounding then, its note-off.
+   *
+   * @return The length of the note in microseconds.
+   */
+  private long sendNote(Note note, int channel, long startMicros, double scale) {
+    int midi = note.getMidiNumber();
+    double tempo = note.getTempo() > 0 ? note.getTempo() : MidiSequenceCompiler.DEFAULT_TEMPO;
+    long length = Math.round(note.getDuration() * scale * 4 * 60 / tempo * 1_000_000L);
+    if (midi < 0 || midi > 127) {
+      return length;
+    }
+    synchronized (releaseAt) {
+      send(ShortMessage.NOTE_ON, channel, midi, MidiSequenceCompiler.DEFAULT_VELOCITY, startMicros);
+      // The note-off already sent for the pitch releases this strike as well.
+      if (releaseAt[channel][midi] <= startMicros) {
+        releaseAt[channel][midi] = startMicros + length;
+        send(ShortMessage.NOTE_OFF, channel, midi, MidiSequenceCompiler.DEFAULT_VELOCITY, startMicros + length);
+      }
+    }
+    return length;
+  }
+
+  private void send(int command, int channel, int data1, int data2, long timeMicros) {
+    try {
+      receiver.send(new ShortMessage(command, channel, data1, data2), timeMicros);
+    } catch (InvalidMidiDataException e) {
+      System.err.println("Could not send audition message: " + e.getMessage());
+    }
+  }
+
+  private record Pending(MusicElement element, String instrument, long startNanos) {
+  }
+
+  private synchronized void recordLatency(long micros) {
+    auditions++;
+    totalLatencyMicros += micros;
+    maxLatencyMicros = Math.max(maxLatencyMicros, micros);
+    lastLatencyMicros = micros;
+  }
+
+  public synchronized long getAuditionCount() {
+    return auditions;
+  }
+
+  /**
+   * Gets the time from the last audition call to its note-on messages being sent.
+   *
+   * @return The latency in microseconds
+   */
+  public synchronized long getLastLatencyMicros() {
+    return lastLatencyMicros;
+  }
+
+  public synchronized long getMaxLatencyMicros() {
+    return maxLatencyMicros;
+  }
+
+  /**
+   * Gets the mean time from an audition call to its note-on messages being sent.
+   *
+   * @return The mean latency in microseconds, or 0 if nothing was auditioned yet
+   */
+  public synchronized double getAverageLatencyMicros() {
+    return auditions == 0 ? 0 : (double) totalLatencyMicros / auditions;
+  }
+}
@@ -0,0 +1,131 @@
+package com.service;
+
+import com.model.Measure;
+import com.model.SheetMusic;
+import com.model.Song;
+import com.model.Staff;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Writes the metronome click of a song into its own percussion track. The beats come from the time signature
+ * of each measure of the song's longest staff; downbeats are accented. Clicks are placed in ticks, so they
+ * follow the tempo changes of the conductor track like the notes do.
+ *
+ * <p>A song with a pick-up starts with only the last {@link Song#getPickUp()} beats of its first bar, none of
+ * them accented. The track is written once per compile, in one pass over the measures, and is named so
+ * playback can mute or unmute it on the running sequencer without recompiling.
+ */
+public class ClickTrack {
+  public static final String TRACK_NAME = "Click";
+  /** General MIDI percussion keys: hi wood block on downbeats, low wood block on the other beats. */
+  public static final int ACCENT_NOTE = 76;
+  public static final int BEAT_NOTE = 77;
+  public static final int ACCENT_VELOCITY = 110;
+  public static final int BEAT_VELOCITY = 70;
+  private static final int TRACK_NAME_META_TYPE = 0x03;
+  private static final long CLICK_TICKS = MidiSequenceCompiler.RESOLUTION / 8;
+
+  private ClickTrack() {
+  }
+
+  /**
+   * Writes the clicks of a song into a track.
+   *
+   * @param track The empty track to write to.
+   * @param song The song, for its measures and pick-up.
+   * @param events The event table of the song's current version.
+   * @throws InvalidMidiDataException if a MIDI message cannot be built.
+   */
+  static void write(Track track, Song song, SongEventTable events) throws InvalidMidiDataException {
+    byte[] name = TRACK_NAME.getBytes(StandardCharsets.US_ASCII);
+    track.add(new MidiEvent(new MetaMessage(TRACK_NAME_META_TYPE, name, name.length), 0));
+    int staff = events.getLongestStaff();
+    if (staff < 0) {
+      return;
+    }
+    List<Measure> measures = staffMeasures(song, staff);
+    for (int m = 0; m < measures.size(); ++m) {
+      Measure measure = measures.get(m);
+      int numerator = Math.max(1, measure.getTimeSignatureNumerator());
+      int denominator = Math.max(1, measure.getTimeSignatureDenominator());
+      long beat = MidiSequenceCompiler.toTicks(1.0 / denominator);
+      long start = events.getMeasureTick(staff, m);
+      long end = m + 1 < measures.size() ? events.getMeasureTick(staff, m + 1) : events.getStaffEndTick(staff);
+      int firstBeat = 0;
+      if (m == 0 && song.getPickUp() > 0 && song.getPickUp() < numerator) {
+        // The pick-up plays the last beats of a bar that ends where the second measure starts.
+        firstBeat = numerator - song.getPickUp();
+        start = Math.max(start, end - song.getPickUp() * beat);
+      }
+      for (int b = firstBeat; b < numerator; ++b) {
+        long tick = start + (b - firstBeat) * beat;
+        if (tick >= end) {
+          break;
+        }
+        boolean accent = b == 0;
+        int note = accent ? ACCENT_NOTE : BEAT_NOTE;
+        track.add(new MidiEvent(click(ShortMessage.NOTE_ON, note, accent ? ACCENT_VELOCITY : BEAT_VELOCITY), tick));
+        track.add(new MidiEvent(click(ShortMessage.NOTE_OFF, note, 0), Math.min(tick + CLICK_TICKS, end)));
+      }
+    }
+  }
+
+  private static ShortMessage click(int command, int note, int velocity) throws InvalidMidiDataException {
+    return new ShortMessage(command, MidiChannelAllocator.PERCUSSION_CHANNEL, note, velocity);
+  }
+
+  private static List<Measure> staffMeasures(Song song, int index) {
+    int i = 0;
+    for (SheetMusic sheetMusic : song.getSheetMusic()) {
+      for (Staff staff : sheetMusic.getStaves()) {
+        if (i++ == index) {
+          return staff.getMeasures();
+        }
+      }
+    }
+    return new ArrayList<>();
+  }
+
+  /**
+   * Tells whether a track is the click track of a compiled song.
+   *
+   * @param track The track to look at.
+   * @return true if the track starts with the click track name.
+   */
+  public static boolean isClickTrack(Track track) {
+    for (int i = 0; i < track.size() && track.get(i).getTick() == 0; i++) {
+      MidiMessage message = track.get(i).getMessage();
+      if (message instanceof MetaMessage meta && meta.getType() == TRACK_NAME_META_TYPE
+          && TRACK_NAME.equals(new String(meta.getData(), StandardCharsets.US_ASCII))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Finds the click track of a sequence.
+   *
+   * @param sequence The sequence to look at.
+   * @return The index of the click track, or -1 if the sequence has none.
+   */
+  public static int indexOf(Sequence sequence) {
+    Track[] tracks = sequence.getTracks();
+    // The compiler writes it last.
+    for (int i = tracks.length - 1; i >= 0; i--) {
+      if (isClickTrack(tracks[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,75 @@
+package com.service;
+
+import com.model.Song;
+import java.util.UUID;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * The playback artifact compiled from one version of a {@link com.model.Song}.
+ * Compiled songs are shared between plays, so the sequence must be treated as read-only.
+ */
+public class CompiledSong {
+  private final Song song;
+  private final UUID songId;
+  private final long contentVersion;
+  private final Sequence sequence;
+  private final MeasureTickIndex measureTickIndex;
+  private final int eventCount;
+
+  /**
+   * Creates a compiled song.
+   *
+   * @param song The song that was compiled, at the version it was compiled.
+   * @param sequence The compiled sequence.
+   * @param measureTickIndex The start tick and time of every measure in the sequence.
+   */
+  public CompiledSong(Song song, Sequence sequence, MeasureTickIndex measureTickIndex) {
+    this.song = song;
+    this.songId = song.getId();
+    this.contentVersion = song.getContentVersion();
+    this.sequence = sequence;
+    this.measureTickIndex = measureTickIndex;
+    int events = 0;
+    for (Track track : sequence.getTracks()) {
+      events += track.size();
+    }
+    this.eventCount = events;
+  }
+
+  public UUID getSongId() {
+    return songId;
+  }
+
+  public long getContentVersion() {
+    return contentVersion;
+  }
+
+  /**
+   * Tells whether this was compiled from this song object at its current version. Another song object with
+   * the same ID, e.g. one rebuilt from its revision history, does not match even at the same version number.
+   *
+   * @param song The song to check.
+   * @return true if the sequence plays the song's current content.
+   */
+  public boolean isOf(Song song) {
+    return this.song == song && contentVersion == song.getContentVersion();
+  }
+
+  public Sequence getSequence() {
+    return sequence;
+  }
+
+  public MeasureTickIndex getMeasureTickIndex() {
+    return measureTickIndex;
+  }
+
+  /**
+   * Gets the number of MIDI events in every track, used to estimate the memory the song holds.
+   *
+   * @return The total event count
+   */
+  public int getEventCount() {
+    return eventCount;
+  }
+}
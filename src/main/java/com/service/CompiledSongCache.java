@@ -0,0 +1,241 @@
+package com.service;
+
+import com.model.Song;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+
+/**
+ * Keeps recently compiled songs in memory so pressing Play again does not recompile.
+ * Entries are keyed by song ID and only match the same song object at its current content version, so any
+ * edit makes the next lookup recompile, and so does a song rebuilt with the same ID, whose version numbers
+ * start over. The cache is bounded by the total number of MIDI events it holds
+ * and evicts the least recently played songs first.
+ *
+ * <p>On a miss the optional {@link MidiDiskCache} is checked by content hash before compiling, and newly
+ * compiled songs are written back to it, so songs played in an earlier session load without compiling.
+ *
+ * <p>The cache also keeps the {@link SongEventTable} of recently used songs, so a song version is only
+ * interpreted once however many times it is compiled, drawn or exported.
+ *
+ * <p>Compiling, building event tables and reading the disk cache happen outside the cache's lock; only the
+ * lookups and the publishing of results hold it, so a long compile does not block other songs. Two threads
+ * missing on the same song at once may both compile it, and the table built first is the one kept.
+ */
+public class CompiledSongCache {
+  public static final int DEFAULT_MAX_EVENTS = 2_000_000;
+  public static final int MAX_EVENT_TABLES = 64;
+  private static CompiledSongCache instance;
+
+  private final MidiSequenceCompiler compiler = new MidiSequenceCompiler();
+  private final MidiDiskCache diskCache;
+  private final LinkedHashMap<UUID, CompiledSong> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<UUID, SongEventTable> eventTables = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<UUID, SongEventTable> eldest) {
+      return size() > MAX_EVENT_TABLES;
+    }
+  };
+  private final int maxEvents;
+  private int cachedEvents;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Creates a memory-only cache holding at most the given number of MIDI events.
+   *
+   * @param maxEvents The event budget of the cache.
+   */
+  public CompiledSongCache(int maxEvents) {
+    this(maxEvents, null);
+  }
+
+  /**
+   * Creates a cache holding at most the given number of MIDI events, backed by a disk cache.
+   *
+   * @param maxEvents The event budget of the cache.
+   * @param diskCache The disk cache to check before compiling, or null for none.
+   */
+  public CompiledSongCache(int maxEvents, MidiDiskCache diskCache) {
+    this.maxEvents = maxEvents;
+    this.diskCache = diskCache;
+  }
+
+  /**
+   * Gets the singleton cache used for playback.
+   *
+   * @return The singleton instance
+   */
+  public static synchronized CompiledSongCache getInstance() {
+    if (instance == null) {
+      instance = new CompiledSongCache(DEFAULT_MAX_EVENTS, MidiDiskCache.getInstance());
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the compiled form of the song's current version, compiling it on a miss.
+   *
+   * @param song The song to play.
+   * @return The compiled song.
+   * @throws InvalidMidiDataException if the song cannot be compiled.
+   */
+  public CompiledSong getOrCompile(Song song) throws InvalidMidiDataException {
+    CompiledSong cached = lookup(song);
+    if (cached != null) {
+      return cached;
+    }
+    MidiSequenceCompiler.Session session = compiler.open(song, getEventTable(song));
+    session.compileMeasures(session.getMeasureCount());
+    return store(song, session);
+  }
+
+  /**
+   * Returns the compiled form of the song's current version from memory or the disk cache, without compiling.
+   * A caller that gets null can compile the song itself, e.g. by streaming it, and hand the result to
+   * {@link #store(Song, MidiSequenceCompiler.Session)}.
+   *
+   * @param song The song to play.
+   * @return The compiled song, or null on a miss.
+   */
+  public CompiledSong lookup(Song song) {
+    synchronized (this) {
+      CompiledSong cached = entries.get(song.getId());
+      if (cached != null && cached.isOf(song)) {
+        hits++;
+        return cached;
+      }
+      misses++;
+    }
+    if (diskCache == null) {
+      return null;
+    }
+    Sequence sequence = diskCache.load(SongContentHasher.hashSong(song));
+    if (sequence == null) {
+      return null;
+    }
+    CompiledSong loaded = new CompiledSong(song, sequence, MeasureTickIndex.of(getEventTable(song)));
+    put(loaded);
+    return loaded;
+  }
+
+  /**
+   * Returns the event table of the song's current version, building it if the song changed since the
+   * table was built.
+   *
+   * @param song The song to interpret.
+   * @return The event table of the song.
+   */
+  public SongEventTable getEventTable(Song song) {
+    synchronized (this) {
+      SongEventTable events = eventTables.get(song.getId());
+      if (events != null && events.isOf(song)) {
+        return events;
+      }
+    }
+    SongEventTable built = SongEventTable.build(song);
+    synchronized (this) {
+      SongEventTable events = eventTables.get(song.getId());
+      if (events != null && events.isOf(song)) {
+        return events;
+      }
+      eventTables.put(song.getId(), built);
+    }
+    return built;
+  }
+
+  /**
+   * Stores a finished compilation for the song's current version and queues its sequence for the disk cache.
+   *
+   * @param song The song that was compiled.
+   * @param session The completed compilation.
+   * @return The stored compiled song.
+   * @throws InvalidMidiDataException if the sequence cannot be tagged for the disk cache.
+   */
+  public CompiledSong store(Song song, MidiSequenceCompiler.Session session)
+      throws InvalidMidiDataException {
+    CompiledSong compiled = new CompiledSong(song, session.getSequence(), session.getMeasureTickIndex());
+    put(compiled);
+    if (diskCache != null) {
+      diskCache.storeAsync(SongContentHasher.hashSong(song), session.getSequence());
+    }
+    return compiled;
+  }
+
+  /**
+   * Stores a compiled song, replacing any older version and evicting the least recently used entries
+   * until the cache is back within its event budget.
+   *
+   * @param compiled The compiled song to store.
+   */
+  public synchronized void put(CompiledSong compiled) {
+    remove(compiled.getSongId());
+    if (compiled.getEventCount() > maxEvents) {
+      return;
+    }
+    entries.put(compiled.getSongId(), compiled);
+    cachedEvents += compiled.getEventCount();
+    Iterator<Map.Entry<UUID, CompiledSong>> eldest = entries.entrySet().iterator();
+    while (cachedEvents > maxEvents && eldest.hasNext()) {
+      cachedEvents -= eldest.next().getValue().getEventCount();
+      eldest.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Drops the compiled form of a song, e.g. after it was edited.
+   *
+   * @param song The song that changed.
+   */
+  public synchronized void invalidate(Song song) {
+    remove(song.getId());
+    eventTables.remove(song.getId());
+  }
+
+  private void remove(UUID songId) {
+    CompiledSong removed = entries.remove(songId);
+    if (removed != null) {
+      cachedEvents -= removed.getEventCount();
+    }
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictions;
+  }
+
+  /**
+   * Gets the share of lookups served from the cache.
+   *
+   * @return The hit rate between 0 and 1, or 0 if nothing was looked up yet
+   */
+  public synchronized double getHitRate() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  /**
+   * Gets the number of MIDI events currently held by the cache.
+   *
+   * @return The cached event count
+   */
+  public synchronized int getCachedEventCount() {
+    return cachedEvents;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+}
@@ -210,21 +210,7 @@ public class DataWriter extends DataConstants {
                 staveJSON.put(SONG_MEASURES, measuresArray);
                 
                 for (Measure measure : staff.getMeasures()) {
-                    JSONObject measureJSON = new JSONObject();
-                    measureJSON.put(SONG_MEASURES_KEY_SIGNATURE, measure.getKeySignature());
-                    measureJSON.put(SONG_MEASURES_TIME_SIGNATURE_NUMERATOR, measure.getTimeSignatureNumerator());
-                    measureJSON.put(SONG_MEASURES_TIME_SIGNATURE_DENOMINATOR, measure.getTimeSignatureDenominator());
-                    
-                    // Process music elements
-                    JSONArray musicElementsArray = new JSONArray();
-                    measureJSON.put(SONG_MUSIC_ELEMENTS, musicElementsArray);
-                    
-                    for (MusicElement element : measure.getMusicElements()) {
-                        // Process each music element
-                        JSONObject elementJSON = getMusicElementByType(element.getType(), element);
-                        musicElementsArray.add(elementJSON);
-                    }
-                    measuresArray.add(measureJSON);
+                    measuresArray.add(getMeasureJSON(measure));
                 }
             }
         }
@@ -232,6 +218,30 @@ public class DataWriter extends DataConstants {
         return songDetails;
     }
 
+    /**
+     * Converts a single measure and its music elements to the JSON layout used in songs.json
+     * 
+     * @param measure The measure to convert to JSON
+     * @return A JSONObject representing the measure
+     */
+    public static JSONObject getMeasureJSON(Measure measure) {
+        JSONObject measureJSON = new JSONObject();
+        measureJSON.put(SONG_MEASURES_KEY_SIGNATURE, measure.getKeySignature());
+        measureJSON.put(SONG_MEASURES_TIME_SIGNATURE_NUMERATOR, measure.getTimeSignatureNumerator());
+        measureJSON.put(SONG_MEASURES_TIME_SIGNATURE_DENOMINATOR, measure.getTimeSignatureDenominator());
+        
+        // Process music elements
+        JSONArray musicElementsArray = new JSONArray();
+        measureJSON.put(SONG_MUSIC_ELEMENTS, musicElementsArray);
+        
+        for (MusicElement element : measure.getMusicElements()) {
+            // Process each music element
+            JSONObject elementJSON = getMusicElementByType(element.getType(), element);
+            musicElementsArray.add(elementJSON);
+        }
+        return measureJSON;
+    }
+
     /**
      * For the case of a note element, it gets added to a JSONObject to be written in the music elements array
      * 
@@ -322,7 +332,7 @@ public class DataWriter extends DataConstants {
             JSONObject tupletElementJSON = getMusicElementByType(tupletElement.getType(), tupletElement);
             elementsJSON.add(tupletElementJSON);
         }
-        tupletJSON.put(SONG_MUSIC_ELEMENTS, elementsJSON);
+        tupletJSON.put(SONG_MUSIC_ELEMENT_TUPLET_ELEMENTS, elementsJSON);
         tupletJSON.put(SONG_MUSIC_ELEMENT_TEMPO, tuplet.getTempo());
         return tupletJSON;
     }
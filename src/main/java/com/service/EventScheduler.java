@@ -0,0 +1,467 @@
+package com.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntPredicate;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Plays a compiled sequence by sending its events to a {@link Receiver} from a dedicated thread, instead of
+ * through the stock {@link javax.sound.midi.Sequencer}. The events of every track are merged once into arrays
+ * sorted by time, with each event's time taken from the song's tempo map. The thread parks until shortly
+ * before the next event is due and spins on {@link System#nanoTime()} for the rest, then sends it and records
+ * how late it was in a {@link JitterHistogram}.
+ *
+ * <p>Pausing, seeking and changing the tempo factor rebase the clock at the current position, so nothing is
+ * rescheduled; the thread notices the change while it waits. Starting or seeking past the beginning first sends
+ * the program changes and controller values in effect at that point, and a loop range set with
+ * {@link #setLoop(long, long)} jumps back to its start each time its end is reached. Meta events are not sent.
+ */
+public class EventScheduler {
+  /** Waits shorter than this are spun, because parking can overshoot by about as much. */
+  static final long SPIN_NANOS = 1_000_000;
+  /** The longest single park, so pause, seek and stop are noticed promptly. */
+  static final long MAX_PARK_NANOS = 5_000_000;
+  private static final int ALL_NOTES_OFF = 123;
+
+  private final long[] ticks;
+  private final long[] micros;
+  private final int[] tracks;
+  private final MidiMessage[] messages;
+  private final int portCount;
+  private final MeasureTickIndex index;
+  private final Receiver receiver;
+  private final JitterHistogram jitter;
+  private volatile IntPredicate trackFilter = track -> true;
+  private volatile Runnable onFinished;
+
+  private final Object lock = new Object();
+  private volatile int version;
+  private Thread thread;
+  private int next;
+  private long baseNanos;
+  private long baseMicros;
+  // The time playback has reached for certain: the last event sent, or where it was started or moved to.
+  private long reachedMicros;
+  private float tempoFactor = 1f;
+  private boolean paused;
+  private long pausedMicros;
+  private boolean stopped;
+  private boolean finished;
+  private long loopStart = -1;
+  private long loopEnd = -1;
+  private long loopEndMicros;
+
+  /**
+   * Prepares a compiled song for playback.
+   *
+   * @param sequence The compiled sequence.
+   * @param index The measure index of the song, for its tempo map.
+   * @param receiver Where the events are sent.
+   * @param jitter Where the lateness of every sent event is recorded.
+   */
+  public EventScheduler(Sequence sequence, MeasureTickIndex index, Receiver receiver, JitterHistogram jitter) {
+    this.index = index;
+    this.receiver = receiver;
+    this.jitter = jitter;
+    this.portCount = MidiChannelAllocator.portCount(sequence);
+    List<MidiEvent> events = new ArrayList<>();
+    List<Integer> eventTracks = new ArrayList<>();
+    Track[] sequenceTracks = sequence.getTracks();
+    for (int t = 0; t < sequenceTracks.length; t++) {
+      for (int i = 0; i < sequenceTracks[t].size(); i++) {
+        MidiEvent event = sequenceTracks[t].get(i);
+        if (!(event.getMessage() instanceof MetaMessage)) {
+          events.add(event);
+          eventTracks.add(t);
+        }
+      }
+    }
+    // Stable by tick, so events at the same tick keep their track order.
+    Integer[] order = new Integer[events.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(events.get(a).getTick(), events.get(b).getTick()));
+    ticks = new long[order.length];
+    micros = new long[order.length];
+    tracks = new int[order.length];
+    messages = new MidiMessage[order.length];
+    for (int i = 0; i < order.length; i++) {
+      MidiEvent event = events.get(order[i]);
+      ticks[i] = event.getTick();
+      micros[i] = index.toMicros(event.getTick());
+      tracks[i] = eventTracks.get(order[i]);
+      messages[i] = event.getMessage();
+    }
+  }
+
+  /**
+   * Sets which tracks are heard. The filter is asked for every note-on, so changes apply from the next note;
+   * note-offs and other messages of every track are always sent, so no note hangs and a track that is
+   * unmuted later still has its instrument.
+   *
+   * @param trackFilter Tells whether a track index is heard.
+   */
+  public void setTrackFilter(IntPredicate trackFilter) {
+    this.trackFilter = trackFilter;
+  }
+
+  /**
+   * Sets an action run on the scheduler thread once the last event was sent, but not when playback is stopped.
+   *
+   * @param onFinished The action, or null for none.
+   */
+  public void setOnFinished(Runnable onFinished) {
+    this.onFinished = onFinished;
+  }
+
+  /**
+   * Starts sending events from a tick on a new thread.
+   *
+   * @param fromTick The tick to start at.
+   */
+  public void start(long fromTick) {
+    synchronized (lock) {
+      if (thread != null) {
+        throw new IllegalStateException("The scheduler was already started");
+      }
+      next = firstEventAt(fromTick);
+      chase(next);
+      baseMicros = index.toMicros(fromTick);
+      reachedMicros = baseMicros;
+      baseNanos = System.nanoTime();
+      thread = new Thread(this::run, "Midi-Scheduler");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MAX_PRIORITY);
+      thread.start();
+    }
+  }
+
+  private void run() {
+    while (true) {
+      int event;
+      int seen;
+      long target;
+      boolean wrap;
+      synchronized (lock) {
+        while (paused && !stopped) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            stopped = true;
+          }
+        }
+        wrap = loopEnd >= 0 && reachedMicros < loopEndMicros && (next >= messages.length || ticks[next] >= loopEnd);
+        if (stopped || (!wrap && next >= messages.length)) {
+          finished = !stopped;
+          break;
+        }
+        event = next;
+        seen = version;
+        target = baseNanos + (long) (((wrap ? loopEndMicros : micros[event]) - baseMicros) * 1000 / tempoFactor);
+      }
+      if (!waitUntil(target, seen)) {
+        continue;
+      }
+      // Sent under the lock, so no event slips out after a pause or seek has silenced the synthesizer.
+      // The router does not lock, so this cannot deadlock with a thread that holds a lock and calls in here.
+      synchronized (lock) {
+        if (version != seen) {
+          continue;
+        }
+        if (wrap) {
+          next = firstEventAt(loopStart);
+          baseMicros = index.toMicros(loopStart);
+          reachedMicros = baseMicros;
+          // Rebased on when the pass was due rather than on now, so the passes do not drift.
+          baseNanos = target;
+          silence();
+          chase(next);
+          continue;
+        }
+        next = event + 1;
+        reachedMicros = micros[event];
+        if (!isNoteOn(messages[event]) || trackFilter.test(tracks[event])) {
+          // Timed before the send, so the histogram holds the scheduler's lateness and not the receiver's cost.
+          jitter.record(System.nanoTime() - target);
+          receiver.send(messages[event], -1);
+        }
+      }
+    }
+    silence();
+    Runnable done = onFinished;
+    if (finished && done != null) {
+      done.run();
+    }
+  }
+
+  /**
+   * Waits for the time an event is due: parks while it is far off, then spins.
+   *
+   * @param target The {@link System#nanoTime()} the event is due at.
+   * @param seen The state version the target was computed from.
+   * @return true once the time is reached, false if the state changed while waiting.
+   */
+  private boolean waitUntil(long target, int seen) {
+    while (true) {
+      if (version != seen) {
+        return false;
+      }
+      long remaining = target - System.nanoTime();
+      if (remaining <= 0) {
+        return true;
+      }
+      if (remaining > SPIN_NANOS) {
+        LockSupport.parkNanos(this, Math.min(remaining - SPIN_NANOS, MAX_PARK_NANOS));
+      } else {
+        Thread.onSpinWait();
+      }
+    }
+  }
+
+  /**
+   * Holds playback at the current position and silences the notes that are sounding.
+   */
+  public void pause() {
+    synchronized (lock) {
+      if (paused || stopped || thread == null) {
+        return;
+      }
+      pausedMicros = currentMicros();
+      paused = true;
+      changed();
+      silence();
+    }
+  }
+
+  /**
+   * Continues playback from where it was paused.
+   */
+  public void resume() {
+    synchronized (lock) {
+      if (!paused) {
+        return;
+      }
+      baseMicros = pausedMicros;
+      baseNanos = System.nanoTime();
+      paused = false;
+      changed();
+    }
+  }
+
+  /**
+   * Moves playback to a tick.
+   *
+   * @param tick The tick to continue from.
+   */
+  public void seek(long tick) {
+    synchronized (lock) {
+      next = firstEventAt(tick);
+      baseMicros = index.toMicros(tick);
+      reachedMicros = baseMicros;
+      baseNanos = System.nanoTime();
+      pausedMicros = baseMicros;
+      changed();
+      silence();
+      chase(next);
+    }
+  }
+
+  /**
+   * Loops a range of ticks: when playback reaches the end of the range it continues from its start, until
+   * {@link #clearLoop()}. Playback before the range plays into it; playback already past its end plays on to
+   * the end of the song without looping, as with the sequencer.
+   *
+   * @param startTick The first tick of the range.
+   * @param endTick The tick after the range.
+   */
+  public void setLoop(long startTick, long endTick) {
+    if (startTick < 0 || endTick <= startTick) {
+      throw new IllegalArgumentException("No ticks to loop in " + startTick + "-" + endTick);
+    }
+    synchronized (lock) {
+      loopStart = startTick;
+      loopEnd = endTick;
+      loopEndMicros = index.toMicros(endTick);
+      if (thread != null) {
+        reachedMicros = Math.max(reachedMicros, currentMicros());
+      }
+      changed();
+    }
+  }
+
+  /**
+   * Stops looping; playback continues from where it is to the end of the song.
+   */
+  public void clearLoop() {
+    synchronized (lock) {
+      loopStart = -1;
+      loopEnd = -1;
+      changed();
+    }
+  }
+
+  /**
+   * Changes the speed of playback from the current position on.
+   *
+   * @param factor The speed relative to the tempo map, e.g. 0.5 for half speed.
+   */
+  public void setTempoFactor(float factor) {
+    if (factor <= 0) {
+      throw new IllegalArgumentException("Tempo factor must be positive: " + factor);
+    }
+    synchronized (lock) {
+      if (thread != null && !paused) {
+        baseMicros = currentMicros();
+        baseNanos = System.nanoTime();
+      }
+      tempoFactor = factor;
+      changed();
+    }
+  }
+
+  /**
+   * Stops playback for good. The thread silences the notes that are sounding and ends.
+   */
+  public void stop() {
+    synchronized (lock) {
+      stopped = true;
+      changed();
+    }
+  }
+
+  /**
+   * Waits for the scheduler thread to end, after the last event or after {@link #stop()}.
+   *
+   * @throws InterruptedException if the caller is interrupted while waiting.
+   */
+  public void join() throws InterruptedException {
+    Thread running;
+    synchronized (lock) {
+      running = thread;
+    }
+    if (running != null) {
+      running.join();
+    }
+  }
+
+  // Must hold the lock.
+  private void changed() {
+    version++;
+    lock.notifyAll();
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  // Must hold the lock.
+  private long currentMicros() {
+    if (paused) {
+      return pausedMicros;
+    }
+    return baseMicros + (long) ((System.nanoTime() - baseNanos) / 1000 * tempoFactor);
+  }
+
+  // The index of the first event at or after a tick.
+  private int firstEventAt(long tick) {
+    int low = 0;
+    int high = ticks.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ticks[mid] < tick) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static boolean isNoteOn(MidiMessage message) {
+    return message instanceof ShortMessage note && note.getCommand() == ShortMessage.NOTE_ON && note.getData2() > 0;
+  }
+
+  // Must hold the lock. Sends the last program change and controller values each track set on each channel
+  // before an event, so playback started or moved there plays with the instruments in effect at that point.
+  private void chase(int before) {
+    Map<Long, MidiMessage> controllers = new LinkedHashMap<>();
+    Map<Long, MidiMessage> programs = new LinkedHashMap<>();
+    for (int i = 0; i < before; i++) {
+      if (messages[i] instanceof ShortMessage message) {
+        long channel = (long) tracks[i] << 4 | message.getChannel();
+        if (message.getCommand() == ShortMessage.CONTROL_CHANGE) {
+          controllers.put(channel << 7 | message.getData1(), message);
+        } else if (message.getCommand() == ShortMessage.PROGRAM_CHANGE) {
+          programs.put(channel, message);
+        }
+      }
+    }
+    // Program changes go last, as a bank select controller only takes effect with the next program change.
+    for (MidiMessage message : controllers.values()) {
+      receiver.send(message, -1);
+    }
+    for (MidiMessage message : programs.values()) {
+      receiver.send(message, -1);
+    }
+  }
+
+  // Sends all-notes-off on every channel of every port, so no note hangs after a pause, seek or stop.
+  private void silence() {
+    try {
+      for (int port = 0; port < portCount; port++) {
+        for (int channel = 0; channel < MidiChannelAllocator.CHANNELS_PER_PORT; channel++) {
+          receiver.send(port == 0
+              ? new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, ALL_NOTES_OFF, 0)
+              : new MidiChannelAllocator.PortMessage(port, ShortMessage.CONTROL_CHANGE, channel, ALL_NOTES_OFF, 0),
+              -1);
+        }
+      }
+    } catch (InvalidMidiDataException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Gets the position of the playhead, from the playback clock, so it moves on through long notes and rests.
+   *
+   * @return The tick played now, at most the tick of the last event
+   */
+  public long getTickPosition() {
+    synchronized (lock) {
+      long tick = index.toTick(thread == null ? baseMicros : currentMicros());
+      return ticks.length == 0 ? 0 : Math.min(tick, ticks[ticks.length - 1]);
+    }
+  }
+
+  public long getMicrosecondPosition() {
+    synchronized (lock) {
+      return thread == null ? 0 : currentMicros();
+    }
+  }
+
+  public boolean isFinished() {
+    synchronized (lock) {
+      return finished;
+    }
+  }
+
+  public int getEventCount() {
+    return messages.length;
+  }
+
+  public JitterHistogram getJitter() {
+    return jitter;
+  }
+}
@@ -0,0 +1,145 @@
+package com.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves instrument names to General MIDI programs. Names come from the songs' {@link com.model.Instrument}s,
+ * which are often MusicXML part names such as "Piano", "Acoustic Guitar" or "Violin I", or JFugue instrument
+ * names such as "ELECTRIC_BASS_FINGER". A name is matched word by word against the General MIDI program names
+ * and a few common part names, and the program whose name shares the most words wins, the lowest program on a
+ * tie. Every distinct name is resolved once and cached, so songs compiled again cost a map lookup per part.
+ */
+public class InstrumentPrograms {
+  public static final int DEFAULT_PROGRAM = 0;
+  private static final int CHOIR_AAHS = 52;
+  private static final int STRING_ENSEMBLE = 48;
+  private static final int ELECTRIC_BASS = 33;
+
+  private static final String[] GENERAL_MIDI = {
+      "Acoustic Grand Piano", "Bright Acoustic Piano", "Electric Grand Piano", "Honky-tonk Piano",
+      "Electric Piano 1", "Electric Piano 2", "Harpsichord", "Clavinet",
+      "Celesta", "Glockenspiel", "Music Box", "Vibraphone", "Marimba", "Xylophone", "Tubular Bells", "Dulcimer",
+      "Drawbar Organ", "Percussive Organ", "Rock Organ", "Church Organ", "Reed Organ", "Accordion", "Harmonica",
+      "Tango Accordion",
+      "Acoustic Guitar Nylon", "Acoustic Guitar Steel", "Electric Guitar Jazz", "Electric Guitar Clean",
+      "Electric Guitar Muted", "Overdriven Guitar", "Distortion Guitar", "Guitar Harmonics",
+      "Acoustic Bass", "Electric Bass Finger", "Electric Bass Pick", "Fretless Bass", "Slap Bass 1", "Slap Bass 2",
+      "Synth Bass 1", "Synth Bass 2",
+      "Violin", "Viola", "Cello", "Contrabass", "Tremolo Strings", "Pizzicato Strings", "Orchestral Harp",
+      "Timpani",
+      "String Ensemble 1", "String Ensemble 2", "Synth Strings 1", "Synth Strings 2", "Choir Aahs", "Voice Oohs",
+      "Synth Voice", "Orchestra Hit",
+      "Trumpet", "Trombone", "Tuba", "Muted Trumpet", "French Horn", "Brass Section", "Synth Brass 1",
+      "Synth Brass 2",
+      "Soprano Sax", "Alto Sax", "Tenor Sax", "Baritone Sax", "Oboe", "English Horn", "Bassoon", "Clarinet",
+      "Piccolo", "Flute", "Recorder", "Pan Flute", "Blown Bottle", "Shakuhachi", "Whistle", "Ocarina",
+      "Lead 1 Square", "Lead 2 Sawtooth", "Lead 3 Calliope", "Lead 4 Chiff", "Lead 5 Charang", "Lead 6 Voice",
+      "Lead 7 Fifths", "Lead 8 Bass Lead",
+      "Pad 1 New Age", "Pad 2 Warm", "Pad 3 Polysynth", "Pad 4 Choir", "Pad 5 Bowed", "Pad 6 Metallic",
+      "Pad 7 Halo", "Pad 8 Sweep",
+      "FX 1 Rain", "FX 2 Soundtrack", "FX 3 Crystal", "FX 4 Atmosphere", "FX 5 Brightness", "FX 6 Goblins",
+      "FX 7 Echoes", "FX 8 Sci-fi",
+      "Sitar", "Banjo", "Shamisen", "Koto", "Kalimba", "Bagpipe", "Fiddle", "Shanai",
+      "Tinkle Bell", "Agogo", "Steel Drums", "Woodblock", "Taiko Drum", "Melodic Tom", "Synth Drum",
+      "Reverse Cymbal",
+      "Guitar Fret Noise", "Breath Noise", "Seashore", "Bird Tweet", "Telephone Ring", "Helicopter", "Applause",
+      "Gunshot"
+  };
+
+  // Part names that do not share a word with the program they should play.
+  private static final Map<String, Integer> ALIASES = Map.ofEntries(
+      Map.entry("voice", CHOIR_AAHS), Map.entry("vocals", CHOIR_AAHS), Map.entry("vocal", CHOIR_AAHS),
+      Map.entry("soprano", CHOIR_AAHS), Map.entry("alto", CHOIR_AAHS), Map.entry("tenor", CHOIR_AAHS),
+      Map.entry("baritone", CHOIR_AAHS), Map.entry("choir", CHOIR_AAHS), Map.entry("chorus", CHOIR_AAHS),
+      Map.entry("strings", STRING_ENSEMBLE), Map.entry("double bass", 43), Map.entry("bass guitar", ELECTRIC_BASS),
+      Map.entry("electric bass", ELECTRIC_BASS), Map.entry("keyboard", DEFAULT_PROGRAM),
+      Map.entry("keyboards", DEFAULT_PROGRAM), Map.entry("harp", 46), Map.entry("horn", 60),
+      Map.entry("horn in f", 60), Map.entry("saxophone", 65), Map.entry("organ", 16));
+
+  private static final List<String[]> PROGRAM_WORDS = new ArrayList<>();
+  private static final Map<String, Integer> CACHE = new ConcurrentHashMap<>();
+
+  static {
+    for (String name : GENERAL_MIDI) {
+      PROGRAM_WORDS.add(words(name));
+    }
+  }
+
+  private InstrumentPrograms() {
+  }
+
+  /**
+   * Gets the General MIDI program of an instrument.
+   *
+   * @param instrumentName The instrument or part name, or null.
+   * @return The program, 0 to 127, or {@link #DEFAULT_PROGRAM} if nothing matches.
+   */
+  public static int programOf(String instrumentName) {
+    if (instrumentName == null) {
+      return DEFAULT_PROGRAM;
+    }
+    return CACHE.computeIfAbsent(instrumentName, InstrumentPrograms::resolve);
+  }
+
+  /**
+   * Gets the General MIDI name of a program.
+   *
+   * @param program The program, 0 to 127.
+   * @return The name of the program.
+   */
+  public static String nameOf(int program) {
+    return GENERAL_MIDI[program];
+  }
+
+  private static int resolve(String instrumentName) {
+    String[] words = words(instrumentName);
+    if (words.length == 0) {
+      return DEFAULT_PROGRAM;
+    }
+    Integer alias = ALIASES.get(String.join(" ", words));
+    if (alias != null) {
+      return alias;
+    }
+    int best = DEFAULT_PROGRAM;
+    int bestScore = 0;
+    for (int program = 0; program < GENERAL_MIDI.length; program++) {
+      int score = score(words, PROGRAM_WORDS.get(program));
+      if (score > bestScore) {
+        best = program;
+        bestScore = score;
+      }
+    }
+    return best;
+  }
+
+  // Counts the words of the name found in the program name; a word also matches a program word it starts,
+  // so "sax" matches "Saxophone" and "elec" matches "Electric".
+  private static int score(String[] words, String[] programWords) {
+    int score = 0;
+    for (String word : words) {
+      for (String programWord : programWords) {
+        if (word.equals(programWord) || (word.length() >= 3 && programWord.length() >= 3
+            && (word.startsWith(programWord) || programWord.startsWith(word)))) {
+          score++;
+          break;
+        }
+      }
+    }
+    return score;
+  }
+
+  // Lower-case words of a name; punctuation, underscores and part numbers are dropped.
+  private static String[] words(String name) {
+    List<String> words = new ArrayList<>();
+    for (String word : name.toLowerCase(Locale.ROOT).split("[^a-z0-9]+")) {
+      if (!word.isEmpty() && !word.chars().allMatch(Character::isDigit) && !word.matches("i{1,3}|iv|v|vi")) {
+        words.add(word);
+      }
+    }
+    return words.toArray(new String[0]);
+  }
+}
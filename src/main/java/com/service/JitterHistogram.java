@@ -0,0 +1,116 @@
+package com.service;
+
+import java.util.Arrays;
+
+/**
+ * Counts how late events were dispatched compared to when they were meant to be played.
+ * Delays under a millisecond are kept to the microsecond and longer ones to the millisecond, up to a second;
+ * anything later falls in the last bucket. The exact maximum is kept as well. Recording is constant time and
+ * allocation free, so it can run on the dispatch thread for every event.
+ */
+public class JitterHistogram {
+  private static final int MICRO_BUCKETS = 1000;
+  private static final int MILLI_BUCKETS = 999;
+  private static final long NANOS_PER_MICRO = 1000;
+  private static final long NANOS_PER_MILLI = 1_000_000;
+
+  private final long[] counts = new long[MICRO_BUCKETS + MILLI_BUCKETS + 1];
+  private long count;
+  private long total;
+  private long max;
+
+  /**
+   * Records the delay of one event.
+   *
+   * @param lateNanos How late the event was dispatched, in nanoseconds; early dispatches count as 0.
+   */
+  public synchronized void record(long lateNanos) {
+    long late = Math.max(0, lateNanos);
+    long micros = late / NANOS_PER_MICRO;
+    int bucket;
+    if (micros < MICRO_BUCKETS) {
+      bucket = (int) micros;
+    } else {
+      bucket = (int) Math.min(MICRO_BUCKETS + MILLI_BUCKETS, MICRO_BUCKETS - 1 + late / NANOS_PER_MILLI);
+    }
+    counts[bucket]++;
+    count++;
+    total += late;
+    max = Math.max(max, late);
+  }
+
+  /**
+   * Gets the delay that the given share of events was dispatched within.
+   *
+   * @param percentile The share of events, 0 to 1, e.g. 0.99 for p99.
+   * @return The upper edge of the bucket holding that event in nanoseconds, at most the maximum,
+   *         or 0 if nothing was recorded.
+   */
+  public synchronized long getPercentileNanos(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile * count));
+    long seen = 0;
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      seen += counts[bucket];
+      if (seen >= rank) {
+        return Math.min(max, upperEdge(bucket));
+      }
+    }
+    return max;
+  }
+
+  private static long upperEdge(int bucket) {
+    if (bucket < MICRO_BUCKETS) {
+      return (bucket + 1) * NANOS_PER_MICRO;
+    }
+    return (bucket - MICRO_BUCKETS + 2) * NANOS_PER_MILLI;
+  }
+
+  public long getP50Nanos() {
+    return getPercentileNanos(0.5);
+  }
+
+  public long getP99Nanos() {
+    return getPercentileNanos(0.99);
+  }
+
+  public synchronized long getMaxNanos() {
+    return max;
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Gets the mean delay.
+   *
+   * @return The mean in nanoseconds, or 0 if nothing was recorded
+   */
+  public synchronized double getMeanNanos() {
+    return count == 0 ? 0 : (double) total / count;
+  }
+
+  /**
+   * Forgets every recorded delay.
+   */
+  public synchronized void reset() {
+    Arrays.fill(counts, 0);
+    count = 0;
+    total = 0;
+    max = 0;
+  }
+
+  /**
+   * Summarizes the histogram.
+   *
+   * @return A line of the form {@code 1200 events, p50 12us, p99 180us, max 2100us}.
+   */
+  @Override
+  public synchronized String toString() {
+    return count + " events, p50 " + getP50Nanos() / NANOS_PER_MICRO + "us, p99 " + getP99Nanos() / NANOS_PER_MICRO
+        + "us, max " + max / NANOS_PER_MICRO + "us";
+  }
+}
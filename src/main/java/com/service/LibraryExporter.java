@@ -0,0 +1,233 @@
+package com.service;
+
+import com.model.Song;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Exports songs to type 1 MIDI files (a conductor track plus one track per staff) and/or rendered WAV files
+ * without the GUI. Songs are exported on a fixed pool of workers, each with its own {@link WavRenderer} and
+ * therefore its own synthesizer. Every finished song is appended to a progress file in the output directory,
+ * so an interrupted export skips the songs it already wrote when it is run again, and the time each song took
+ * is appended to a CSV timing report.
+ *
+ * <p>Usage: {@code LibraryExporter <output dir> [--format midi|wav|both] [--genre name] [--publisher username]
+ * [--threads n]}
+ */
+public class LibraryExporter {
+  public static final String PROGRESS_FILE = "export-progress.txt";
+  public static final String TIMING_FILE = "export-timings.csv";
+  private static final String TIMING_HEADER = "songId,title,compileMillis,midiMillis,wavMillis,status";
+
+  private final Path outputDirectory;
+  private final boolean writeMidi;
+  private final boolean writeWav;
+  private final int threads;
+  private final ThreadLocal<WavRenderer> renderers = ThreadLocal.withInitial(WavRenderer::new);
+
+  /**
+   * Creates an exporter.
+   *
+   * @param outputDirectory The directory the files, progress file and timing report are written to.
+   * @param writeMidi Whether to write a MIDI file per song.
+   * @param writeWav Whether to write a WAV file per song.
+   * @param threads The number of worker threads.
+   */
+  public LibraryExporter(String outputDirectory, boolean writeMidi, boolean writeWav, int threads) {
+    this.outputDirectory = Paths.get(outputDirectory);
+    this.writeMidi = writeMidi;
+    this.writeWav = writeWav;
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * Keeps the songs matching a genre and a publisher.
+   *
+   * @param songs The songs to filter.
+   * @param genre The genre the songs must have, ignoring case, or null for any.
+   * @param publisher The username of the publisher, ignoring case, or null for any.
+   * @return The matching songs in their original order.
+   */
+  public static List<Song> filter(List<Song> songs, String genre, String publisher) {
+    List<Song> matching = new ArrayList<>();
+    for (Song song : songs) {
+      boolean genreMatches = genre == null
+          || song.getGenres().stream().anyMatch(songGenre -> songGenre.equalsIgnoreCase(genre));
+      boolean publisherMatches = publisher == null
+          || (song.getPublisher() != null && publisher.equalsIgnoreCase(song.getPublisher().getUsername()));
+      if (genreMatches && publisherMatches) {
+        matching.add(song);
+      }
+    }
+    return matching;
+  }
+
+  /**
+   * Exports every song that is not yet listed in the progress file.
+   *
+   * @param songs The songs to export.
+   * @return The number of songs exported by this run.
+   * @throws IOException if the output directory or progress file cannot be used.
+   * @throws InterruptedException if the export is interrupted while waiting for the workers.
+   */
+  public int export(List<Song> songs) throws IOException, InterruptedException {
+    Files.createDirectories(outputDirectory);
+    Set<String> done = readProgress();
+    Path timings = outputDirectory.resolve(TIMING_FILE);
+    if (!Files.exists(timings)) {
+      Files.writeString(timings, TIMING_HEADER + System.lineSeparator(), StandardCharsets.UTF_8);
+    }
+
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    List<Future<Boolean>> results = new ArrayList<>();
+    try {
+      for (Song song : songs) {
+        if (!done.contains(song.getId().toString())) {
+          results.add(workers.submit(() -> exportSong(song)));
+        }
+      }
+      int exported = 0;
+      for (Future<Boolean> result : results) {
+        try {
+          if (result.get()) {
+            exported++;
+          }
+        } catch (ExecutionException e) {
+          System.err.println("Export worker failed: " + e.getCause());
+        }
+      }
+      return exported;
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Compiles one song and writes its files, then records it in the progress file and the timing report.
+   *
+   * @param song The song to export.
+   * @return true if every requested file was written.
+   */
+  private boolean exportSong(Song song) {
+    long compileMillis = 0;
+    long midiMillis = 0;
+    long wavMillis = 0;
+    String status = "ok";
+    try {
+      long start = System.nanoTime();
+      Sequence sequence = new MidiSequenceCompiler().compile(song);
+      compileMillis = elapsedMillis(start);
+      if (writeMidi) {
+        start = System.nanoTime();
+        MidiSystem.write(sequence, 1, fileFor(song, ".mid"));
+        midiMillis = elapsedMillis(start);
+      }
+      if (writeWav) {
+        start = System.nanoTime();
+        renderers.get().render(sequence, fileFor(song, ".wav"));
+        wavMillis = elapsedMillis(start);
+      }
+    } catch (Exception e) {
+      status = "failed: " + e.getMessage();
+      System.err.println("Could not export " + song.getTitle() + ": " + e.getMessage());
+    }
+    record(song, compileMillis, midiMillis, wavMillis, status);
+    return "ok".equals(status);
+  }
+
+  /**
+   * Appends a song to the timing report and, if it succeeded, to the progress file.
+   */
+  private synchronized void record(Song song, long compileMillis, long midiMillis, long wavMillis, String status) {
+    try {
+      String row = String.join(",", song.getId().toString(), csv(song.getTitle()), Long.toString(compileMillis),
+          Long.toString(midiMillis), Long.toString(wavMillis), csv(status));
+      append(outputDirectory.resolve(TIMING_FILE), row);
+      if ("ok".equals(status)) {
+        append(outputDirectory.resolve(PROGRESS_FILE), song.getId().toString());
+      }
+    } catch (IOException e) {
+      System.err.println("Could not record progress for " + song.getTitle() + ": " + e.getMessage());
+    }
+  }
+
+  private Set<String> readProgress() throws IOException {
+    Path progress = outputDirectory.resolve(PROGRESS_FILE);
+    if (!Files.exists(progress)) {
+      return new HashSet<>();
+    }
+    return new HashSet<>(Files.readAllLines(progress, StandardCharsets.UTF_8));
+  }
+
+  private static void append(Path file, String line) throws IOException {
+    try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      writer.write(line);
+      writer.newLine();
+    }
+  }
+
+  private File fileFor(Song song, String extension) {
+    return outputDirectory.resolve(song.getId() + extension).toFile();
+  }
+
+  private static String csv(String value) {
+    String text = value == null ? "" : value;
+    return "\"" + text.replace("\"", "\"\"") + "\"";
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return (System.nanoTime() - startNanos) / 1_000_000;
+  }
+
+  /**
+   * Exports the library loaded through {@link DataAssembler}.
+   *
+   * @param args The output directory followed by the options described on the class.
+   * @throws IOException If an I/O error occurs.
+   * @throws ParseException If parsing of data fails.
+   * @throws InterruptedException If the export is interrupted.
+   */
+  public static void main(String[] args) throws IOException, ParseException, InterruptedException {
+    if (args.length == 0) {
+      System.err.println("Usage: LibraryExporter <output dir> [--format midi|wav|both] [--genre name]"
+          + " [--publisher username] [--threads n]");
+      System.exit(2);
+    }
+    String format = "both";
+    String genre = null;
+    String publisher = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    for (int i = 1; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--format" -> format = args[i + 1];
+        case "--genre" -> genre = args[i + 1];
+        case "--publisher" -> publisher = args[i + 1];
+        case "--threads" -> threads = Integer.parseInt(args[i + 1]);
+        default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+    }
+    List<Song> songs = filter(new DataAssembler().getAssembledSongs(), genre, publisher);
+    LibraryExporter exporter = new LibraryExporter(args[0], !"wav".equals(format), !"midi".equals(format), threads);
+    long start = System.nanoTime();
+    int exported = exporter.export(songs);
+    System.out.println("Exported " + exported + " of " + songs.size() + " songs in " + elapsedMillis(start) + " ms");
+  }
+}
@@ -0,0 +1,115 @@
+package com.service;
+
+/**
+ * Maps (staff, measure) to the MIDI tick and the playback time the measure starts at, so playback can start
+ * or seek at any measure without recompiling. Staves are numbered across all sheet music of the song in the
+ * order {@link MidiSequenceCompiler} writes them, and measures by their index in the staff.
+ *
+ * <p>The index reads the measure starts and tempo map of the song's {@link SongEventTable}, so it covers the
+ * whole song as soon as the table is built, whether the song is compiled, streamed or loaded from disk.
+ */
+public class MeasureTickIndex {
+  private final SongEventTable events;
+
+  private MeasureTickIndex(SongEventTable events) {
+    this.events = events;
+  }
+
+  /**
+   * Gets the index of a song version from its event table.
+   *
+   * @param events The event table of the song.
+   * @return The index of the song.
+   */
+  public static MeasureTickIndex of(SongEventTable events) {
+    return new MeasureTickIndex(events);
+  }
+
+  /**
+   * Gets the tick a measure starts at.
+   *
+   * @param staff The staff index across all sheet music.
+   * @param measure The measure index in the staff.
+   * @return The start tick of the measure.
+   */
+  public long getTick(int staff, int measure) {
+    return events.getMeasureTick(staff, measure);
+  }
+
+  /**
+   * Gets the tick a measure ends at, which is where the next measure starts.
+   *
+   * @param staff The staff index across all sheet music.
+   * @param measure The measure index in the staff.
+   * @return The end tick of the measure.
+   */
+  public long getEndTick(int staff, int measure) {
+    return measure + 1 < events.getMeasureCount(staff) ? events.getMeasureTick(staff, measure + 1)
+        : events.getStaffEndTick(staff);
+  }
+
+  /**
+   * Gets the time a measure starts at when the song is played from the beginning.
+   *
+   * @param staff The staff index across all sheet music.
+   * @param measure The measure index in the staff.
+   * @return The start time of the measure in microseconds.
+   */
+  public long getMicros(int staff, int measure) {
+    return events.getMeasureMicros(staff, measure);
+  }
+
+  /**
+   * Converts a tick to the time it is played at, following the tempo map.
+   *
+   * @param tick The tick.
+   * @return The time in microseconds from the start of the song.
+   */
+  public long toMicros(long tick) {
+    return events.toMicros(tick);
+  }
+
+  /**
+   * Converts a time to the tick played at it, following the tempo map.
+   *
+   * @param micros The time in microseconds from the start of the song.
+   * @return The tick.
+   */
+  public long toTick(long micros) {
+    return events.toTick(micros);
+  }
+
+  /**
+   * Finds the measure of a staff playing at a tick.
+   *
+   * @param staff The staff index across all sheet music.
+   * @param tick The tick.
+   * @return The index of the last measure starting at or before the tick, or 0 if there is none.
+   */
+  public int measureAt(int staff, long tick) {
+    int low = 0;
+    int high = events.getMeasureCount(staff) - 1;
+    // Empty measures share their start tick with the next one; the search reports the last of them.
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (events.getMeasureTick(staff, mid) <= tick) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return Math.max(high, 0);
+  }
+
+  public int getStaffCount() {
+    return events.getStaffCount();
+  }
+
+  public int getMeasureCount(int staff) {
+    return events.getMeasureCount(staff);
+  }
+
+  public SongEventTable getEventTable() {
+    return events;
+  }
+}
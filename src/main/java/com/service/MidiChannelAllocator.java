@@ -0,0 +1,272 @@
+package com.service;
+
+import com.model.SheetMusic;
+import com.model.Song;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Assigns every staff of a song a MIDI output port and channel. A port has 16 channels and channel 9 is
+ * reserved for percussion, so a port holds 15 pitched parts. Songs with at most 15 pitched staves give each
+ * staff its own channel on port 0. Larger songs, such as orchestral imports with a staff per voice per part,
+ * pack the staves that share an instrument onto one channel and spread the instruments over as many ports
+ * as they need. Percussion staves always share channel 9 of port 0. Every pitched staff is also given the
+ * General MIDI program of its instrument, resolved by {@link InstrumentPrograms}.
+ *
+ * <p>Staves on a port other than 0 are written with a MIDI port meta event at the start of their track and
+ * with {@link PortMessage} channel messages, so a receiver can route them to a synthesizer for that port.
+ */
+public class MidiChannelAllocator {
+  public static final int CHANNELS_PER_PORT = 16;
+  public static final int PERCUSSION_CHANNEL = 9;
+  /** The number of channels on a port that pitched staves can use. */
+  public static final int MELODIC_CHANNELS = CHANNELS_PER_PORT - 1;
+  /** The program of a percussion staff, whose channel plays a drum kit instead of a program. */
+  public static final int NO_PROGRAM = -1;
+  private static final int PORT_META_TYPE = 0x21;
+
+  /**
+   * Allocates channels for the staves of a song, in the order {@link MidiSequenceCompiler} writes them.
+   *
+   * @param song The song to allocate channels for.
+   * @return The port and channel of every staff.
+   */
+  public Allocation allocate(Song song) {
+    List<String> instruments = new ArrayList<>();
+    for (SheetMusic sheetMusic : song.getSheetMusic()) {
+      String name = sheetMusic.getInstrument() == null ? "" : sheetMusic.getInstrument().getInstrumentName();
+      for (int i = 0; i < sheetMusic.getStaves().size(); i++) {
+        instruments.add(name == null ? "" : name);
+      }
+    }
+    return allocate(instruments);
+  }
+
+  /**
+   * Allocates channels for staves played by the given instruments.
+   *
+   * @param staffInstruments The instrument name of every staff.
+   * @return The port and channel of every staff.
+   */
+  public Allocation allocate(List<String> staffInstruments) {
+    int staffCount = staffInstruments.size();
+    int[] ports = new int[staffCount];
+    int[] channels = new int[staffCount];
+    int[] programs = new int[staffCount];
+    long pitched = staffInstruments.stream().filter(name -> !isPercussion(name)).count();
+    Map<String, Integer> slots = new HashMap<>();
+    int nextSlot = 0;
+    for (int i = 0; i < staffCount; i++) {
+      String instrument = staffInstruments.get(i);
+      if (isPercussion(instrument)) {
+        channels[i] = PERCUSSION_CHANNEL;
+        programs[i] = NO_PROGRAM;
+        continue;
+      }
+      programs[i] = InstrumentPrograms.programOf(instrument);
+      int slot;
+      if (pitched <= MELODIC_CHANNELS) {
+        slot = nextSlot++;
+      } else {
+        Integer shared = slots.get(instrument);
+        slot = shared == null ? nextSlot++ : shared;
+        slots.put(instrument, slot);
+      }
+      ports[i] = slot / MELODIC_CHANNELS;
+      channels[i] = melodicChannel(slot % MELODIC_CHANNELS);
+    }
+    return new Allocation(staffInstruments.toArray(new String[0]), ports, channels, programs);
+  }
+
+  private static int melodicChannel(int index) {
+    return index < PERCUSSION_CHANNEL ? index : index + 1;
+  }
+
+  static boolean isPercussion(String instrument) {
+    String name = instrument.toLowerCase(Locale.ROOT);
+    return name.contains("drum") || name.contains("percussion");
+  }
+
+  /**
+   * Builds the MIDI port meta event that starts a track played on the given port.
+   *
+   * @param port The output port.
+   * @return The port meta message.
+   * @throws InvalidMidiDataException if the message cannot be built.
+   */
+  static MetaMessage portMessage(int port) throws InvalidMidiDataException {
+    return new MetaMessage(PORT_META_TYPE, new byte[] {(byte) port}, 1);
+  }
+
+  /**
+   * Gets the port a track is played on, from its MIDI port meta event.
+   *
+   * @param track The track to look at.
+   * @return The port of the track, or 0 if it has no port event.
+   */
+  public static int portOf(Track track) {
+    for (int i = 0; i < track.size() && track.get(i).getTick() == 0; i++) {
+      if (track.get(i).getMessage() instanceof MetaMessage meta && meta.getType() == PORT_META_TYPE) {
+        return meta.getData()[0] & 0xFF;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Counts the ports a sequence is played on.
+   *
+   * @param sequence The sequence to look at.
+   * @return One more than the highest port of any track.
+   */
+  public static int portCount(Sequence sequence) {
+    int ports = 1;
+    for (Track track : sequence.getTracks()) {
+      ports = Math.max(ports, portOf(track) + 1);
+    }
+    return ports;
+  }
+
+  /**
+   * Turns the channel messages of tracks on ports other than 0 back into {@link PortMessage}s.
+   * A sequence read from a MIDI file only keeps the port meta events, so this is needed before it is played.
+   *
+   * @param sequence The sequence to restore.
+   * @throws InvalidMidiDataException if a message cannot be rebuilt.
+   */
+  public static void restorePorts(Sequence sequence) throws InvalidMidiDataException {
+    for (Track track : sequence.getTracks()) {
+      int port = portOf(track);
+      if (port == 0) {
+        continue;
+      }
+      List<MidiEvent> plain = new ArrayList<>();
+      for (int i = 0; i < track.size(); i++) {
+        MidiMessage message = track.get(i).getMessage();
+        if (message instanceof ShortMessage && !(message instanceof PortMessage)) {
+          plain.add(track.get(i));
+        }
+      }
+      for (MidiEvent event : plain) {
+        ShortMessage message = (ShortMessage) event.getMessage();
+        track.remove(event);
+        track.add(new MidiEvent(new PortMessage(port, message.getCommand(), message.getChannel(),
+            message.getData1(), message.getData2()), event.getTick()));
+      }
+    }
+  }
+
+  /**
+   * The port and channel chosen for every staff of a song.
+   */
+  public static class Allocation {
+    private final String[] instruments;
+    private final int[] ports;
+    private final int[] channels;
+    private final int[] programs;
+
+    Allocation(String[] instruments, int[] ports, int[] channels, int[] programs) {
+      this.instruments = instruments;
+      this.ports = ports;
+      this.channels = channels;
+      this.programs = programs;
+    }
+
+    public int getStaffCount() {
+      return channels.length;
+    }
+
+    public int getPort(int staff) {
+      return ports[staff];
+    }
+
+    public int getChannel(int staff) {
+      return channels[staff];
+    }
+
+    /**
+     * Gets the General MIDI program a staff is played with, resolved from its instrument name.
+     *
+     * @param staff The staff index across all sheet music.
+     * @return The program, or {@link #NO_PROGRAM} for a percussion staff.
+     */
+    public int getProgram(int staff) {
+      return programs[staff];
+    }
+
+    /**
+     * Gets the number of output ports the song needs.
+     *
+     * @return One more than the highest port of any staff.
+     */
+    public int getPortCount() {
+      int count = 1;
+      for (int port : ports) {
+        count = Math.max(count, port + 1);
+      }
+      return count;
+    }
+
+    /**
+     * Describes the mapping, one line per staff.
+     *
+     * @return Lines of the form {@code staff 3 (Violin) -> port 0, channel 4, program 40}.
+     */
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      for (int i = 0; i < channels.length; i++) {
+        builder.append("staff ").append(i).append(" (").append(instruments[i]).append(") -> port ")
+            .append(ports[i]).append(", channel ").append(channels[i]).append(", program ").append(programs[i])
+            .append(System.lineSeparator());
+      }
+      return builder.toString();
+    }
+  }
+
+  /**
+   * A channel message that remembers the output port it is played on. The sequencer passes event messages
+   * to its receivers unchanged, so a receiver can read the port back to pick a synthesizer.
+   */
+  public static class PortMessage extends ShortMessage {
+    private final int port;
+
+    /**
+     * Creates a channel message for a port.
+     *
+     * @param port The output port.
+     * @param command The MIDI command.
+     * @param channel The channel on the port.
+     * @param data1 The first data byte.
+     * @param data2 The second data byte.
+     * @throws InvalidMidiDataException if the message is not valid.
+     */
+    public PortMessage(int port, int command, int channel, int data1, int data2) throws InvalidMidiDataException {
+      super(command, channel, data1, data2);
+      this.port = port;
+    }
+
+    public int getPort() {
+      return port;
+    }
+
+    @Override
+    public Object clone() {
+      try {
+        return new PortMessage(port, getCommand(), getChannel(), getData1(), getData2());
+      } catch (InvalidMidiDataException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
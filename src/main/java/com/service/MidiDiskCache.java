@@ -0,0 +1,223 @@
+package com.service;
+
+import com.model.DataConstants;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * Stores compiled songs as standard MIDI files so they survive restarts.
+ * Files are named by the content hash of the song ({@link SongContentHasher#hashSong}) and carry that hash,
+ * plus the compiler format version, in a text event on the conductor track. A file whose marker does not match
+ * is treated as a miss and deleted. The directory is kept under a byte budget by deleting the least recently
+ * used files, using the file modification time as the access time.
+ */
+public class MidiDiskCache extends DataConstants {
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  private static final int TEXT_META_TYPE = 0x01;
+  private static final String MARKER_PREFIX = "music-application:";
+  private static final String EXTENSION = ".mid";
+  private static MidiDiskCache instance;
+
+  private final Path directory;
+  private final long maxBytes;
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "MIDI-Disk-Cache");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private long hits;
+  private long misses;
+
+  /**
+   * Creates a disk cache in the given directory.
+   *
+   * @param directory The directory holding the cached MIDI files.
+   * @param maxBytes The most bytes the cached files may use together.
+   */
+  public MidiDiskCache(String directory, long maxBytes) {
+    this.directory = Paths.get(directory);
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Gets the singleton disk cache in the default cache directory.
+   *
+   * @return The singleton instance
+   */
+  public static synchronized MidiDiskCache getInstance() {
+    if (instance == null) {
+      instance = new MidiDiskCache(MIDI_CACHE_DIRECTORY, DEFAULT_MAX_BYTES);
+    }
+    return instance;
+  }
+
+  /**
+   * Loads the cached sequence for a content hash.
+   *
+   * @param hash The content hash of the song.
+   * @return The cached sequence, or null if there is no valid file for the hash.
+   */
+  public synchronized Sequence load(String hash) {
+    File file = fileFor(hash).toFile();
+    if (!file.isFile()) {
+      misses++;
+      return null;
+    }
+    try {
+      Sequence sequence = MidiSystem.getSequence(file);
+      if (!marker(hash).equals(readMarker(sequence))) {
+        Files.deleteIfExists(file.toPath());
+        misses++;
+        return null;
+      }
+      MidiChannelAllocator.restorePorts(sequence);
+      file.setLastModified(System.currentTimeMillis());
+      hits++;
+      return sequence;
+    } catch (InvalidMidiDataException | IOException e) {
+      System.err.println("Discarding unreadable cached MIDI file " + file + ": " + e.getMessage());
+      file.delete();
+      misses++;
+      return null;
+    }
+  }
+
+  /**
+   * Writes the sequence to the cache in the background, tagged with its content hash.
+   * The marker goes into a copy made by the writer; the sequence itself is only read, so it can be played
+   * while it is being stored and is never changed.
+   *
+   * @param hash The content hash of the song.
+   * @param sequence The compiled sequence.
+   * @throws InvalidMidiDataException if the marker event cannot be built.
+   */
+  public void storeAsync(String hash, Sequence sequence) throws InvalidMidiDataException {
+    MidiEvent marker = markerEvent(hash);
+    writer.execute(() -> store(hash, sequence, marker));
+  }
+
+  /**
+   * Writes a tagged copy of a sequence as a type 1 MIDI file and trims the cache back under its byte budget.
+   *
+   * @param hash The content hash of the song.
+   * @param sequence The compiled sequence.
+   * @param marker The marker event to add to the conductor track of the copy.
+   */
+  private synchronized void store(String hash, Sequence sequence, MidiEvent marker) {
+    try {
+      Sequence tagged = copyOf(sequence);
+      tagged.getTracks()[0].add(marker);
+      Files.createDirectories(directory);
+      Path temp = Files.createTempFile(directory, hash, ".tmp");
+      MidiSystem.write(tagged, 1, temp.toFile());
+      Files.move(temp, fileFor(hash), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      evict();
+    } catch (InvalidMidiDataException | IOException e) {
+      System.err.println("Failed to write cached MIDI file for " + hash + ": " + e.getMessage());
+    }
+  }
+
+  // MIDI events are not changed once compiled, so the copy shares them and only the tracks are new.
+  private static Sequence copyOf(Sequence sequence) throws InvalidMidiDataException {
+    Sequence copy = new Sequence(sequence.getDivisionType(), sequence.getResolution());
+    for (Track track : sequence.getTracks()) {
+      Track copied = copy.createTrack();
+      for (int i = 0; i < track.size(); i++) {
+        copied.add(track.get(i));
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Deletes the least recently used files until the cache fits in its byte budget.
+   *
+   * @throws IOException if the cache directory cannot be listed.
+   */
+  private void evict() throws IOException {
+    List<File> files = new ArrayList<>();
+    try (Stream<Path> paths = Files.list(directory)) {
+      paths.filter(path -> path.toString().endsWith(EXTENSION)).forEach(path -> files.add(path.toFile()));
+    }
+    long total = 0;
+    for (File file : files) {
+      total += file.length();
+    }
+    files.sort(Comparator.comparingLong(File::lastModified));
+    for (int i = 0; i < files.size() && total > maxBytes; i++) {
+      total -= files.get(i).length();
+      files.get(i).delete();
+    }
+  }
+
+  /**
+   * Blocks until every queued write has reached the disk.
+   */
+  public void flush() {
+    try {
+      writer.submit(() -> { }).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | RejectedExecutionException e) {
+      System.err.println("Could not wait for cached MIDI files to be written: " + e.getMessage());
+    }
+  }
+
+  private static MidiEvent markerEvent(String hash) throws InvalidMidiDataException {
+    byte[] text = marker(hash).getBytes(StandardCharsets.US_ASCII);
+    return new MidiEvent(new MetaMessage(TEXT_META_TYPE, text, text.length), 0);
+  }
+
+  private static String readMarker(Sequence sequence) {
+    Track[] tracks = sequence.getTracks();
+    if (tracks.length == 0) {
+      return null;
+    }
+    for (int i = 0; i < tracks[0].size() && tracks[0].get(i).getTick() == 0; i++) {
+      MidiMessage message = tracks[0].get(i).getMessage();
+      if (message instanceof MetaMessage meta && meta.getType() == TEXT_META_TYPE) {
+        String text = new String(meta.getData(), StandardCharsets.US_ASCII);
+        if (text.startsWith(MARKER_PREFIX)) {
+          return text;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String marker(String hash) {
+    return MARKER_PREFIX + hash + ":" + MidiSequenceCompiler.FORMAT_VERSION;
+  }
+
+  private Path fileFor(String hash) {
+    return directory.resolve(hash + EXTENSION);
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+}
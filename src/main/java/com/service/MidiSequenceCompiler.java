@@ -0,0 +1,277 @@
+package com.service;
+
+import com.model.DataConstants;
+import com.model.DurationElement;
+import com.model.Song;
+import com.model.Tuplet;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Compiles a {@link Song} straight into a {@link Sequence} without going through JFugue staccato strings.
+ * It emits the MIDI events of the song's {@link SongEventTable}, producing the same music as
+ * {@link SongPlayer#play(Song)} followed by JFugue's {@code Player.getSequence}.
+ *
+ * <p>Track 0 is a conductor track holding the tempo map; staff {@code i} is written to track {@code i + 1}
+ * on the port and channel chosen by {@link MidiChannelAllocator}, the same channels {@link SongPlayer} uses
+ * for its voices. Each staff track starts with a single program change to its instrument's program.
+ * The last track is the metronome {@link ClickTrack}, which playback keeps muted unless the click is on.
+ */
+public class MidiSequenceCompiler extends DataConstants {
+  public static final int RESOLUTION = 480;
+  /** Bump whenever the emitted events change, so sequences cached on disk by older builds are recompiled. */
+  public static final int FORMAT_VERSION = 4;
+  public static final int DEFAULT_VELOCITY = 64;
+  public static final int DEFAULT_TEMPO = 120;
+  private static final int TEMPO_META_TYPE = 0x51;
+
+  /**
+   * Compiles the given {@link Song} into a MIDI sequence.
+   *
+   * @param song The song to compile.
+   * @return A PPQ sequence with a conductor track followed by one track per staff.
+   * @throws InvalidMidiDataException if an element produces an invalid MIDI message.
+   */
+  public Sequence compile(Song song) throws InvalidMidiDataException {
+    Session session = open(song);
+    session.compileMeasures(session.getMeasureCount());
+    return session.getSequence();
+  }
+
+  /**
+   * Starts an incremental compilation of the given {@link Song}, interpreting it into a new event table.
+   *
+   * @param song The song to compile.
+   * @return A session writing into a sequence with one empty track per staff.
+   * @throws InvalidMidiDataException if the sequence cannot be created.
+   */
+  public Session open(Song song) throws InvalidMidiDataException {
+    return open(song, SongEventTable.build(song));
+  }
+
+  /**
+   * Starts an incremental compilation of a song from its event table. Only the tempo map is written until
+   * {@link Session#compileMeasures(int)} is called, so playback can start after the first window.
+   *
+   * @param song The song to compile.
+   * @param events The event table of the song's current version.
+   * @return A session writing into a sequence with one empty track per staff.
+   * @throws InvalidMidiDataException if the sequence cannot be created.
+   */
+  public Session open(Song song, SongEventTable events) throws InvalidMidiDataException {
+    return new Session(song, events, new MidiChannelAllocator().allocate(song));
+  }
+
+  static double tupletRatio(Tuplet tuplet) {
+    return tuplet.getSubdivisions() > 0 ? (double) tuplet.getImpliedDivision() / tuplet.getSubdivisions() : 1.0;
+  }
+
+  /**
+   * Converts a length in whole notes (the unit used by {@link DurationElement#getDuration()}) to ticks.
+   *
+   * @param wholeNotes The length in whole notes.
+   * @return The length in ticks at {@link #RESOLUTION}.
+   */
+  public static long toTicks(double wholeNotes) {
+    return Math.round(wholeNotes * 4 * RESOLUTION);
+  }
+
+  /**
+   * An incremental compilation that writes a song into its sequence a window of measures at a time.
+   * A note tied past the end of a window is written whole, held to its sounding end, so the finished sequence
+   * is identical to one compiled in a single pass. Its note off therefore lands beyond the window, as does the
+   * click track, which is written whole when the session opens, and later windows insert their events before
+   * those ticks. Every event of a window is at or after the window's first tick, though, so the sequence can be
+   * played while later windows are still being compiled, as long as each window is compiled before playback
+   * reaches its first tick.
+   */
+  public static class Session {
+    private final Sequence sequence;
+    private final SongEventTable events;
+    private final StaffWriter[] writers;
+    private final MeasureTickIndex index;
+    private final MidiChannelAllocator.Allocation allocation;
+    private int nextMeasure;
+    private int measureCount;
+    private boolean complete;
+
+    private Session(Song song, SongEventTable events, MidiChannelAllocator.Allocation allocation)
+        throws InvalidMidiDataException {
+      this.events = events;
+      this.allocation = allocation;
+      this.sequence = new Sequence(Sequence.PPQ, RESOLUTION);
+      Track conductor = sequence.createTrack();
+      for (int i = 0; i < events.getTempoCount(); ++i) {
+        conductor.add(new MidiEvent(tempoMessage(events.getTempoBpm(i)), events.getTempoTick(i)));
+      }
+      this.writers = new StaffWriter[events.getStaffCount()];
+      for (int i = 0; i < writers.length; ++i) {
+        writers[i] = new StaffWriter(sequence.createTrack(), allocation.getPort(i), allocation.getChannel(i),
+            allocation.getProgram(i));
+        measureCount = Math.max(measureCount, events.getMeasureCount(i));
+      }
+      // The click is a few events per measure, so it is written whole rather than window by window.
+      ClickTrack.write(sequence.createTrack(), song, events);
+      this.index = MeasureTickIndex.of(events);
+    }
+
+    /**
+     * Compiles the next window of measures on every staff.
+     *
+     * @param count The number of measures to compile.
+     * @return true if measures remain to be compiled, false once the song is complete.
+     * @throws InvalidMidiDataException if an element produces an invalid MIDI message.
+     */
+    public synchronized boolean compileMeasures(int count) throws InvalidMidiDataException {
+      if (complete) {
+        return false;
+      }
+      int end = (int) Math.min(measureCount, (long) nextMeasure + count);
+      for (int i = 0; i < writers.length; ++i) {
+        int staffEnd = Math.min(end, events.getMeasureCount(i));
+        if (nextMeasure >= staffEnd) {
+          continue;
+        }
+        for (int e = events.getFirstEvent(i, nextMeasure); e < events.getFirstEvent(i, staffEnd); ++e) {
+          writers[i].write(events, e);
+        }
+      }
+      nextMeasure = end;
+      if (nextMeasure >= measureCount) {
+        complete = true;
+      }
+      return !complete;
+    }
+
+    /**
+     * Gets the tick up to which every staff has been compiled.
+     *
+     * @return The compiled tick, or the full tick length once the song is complete.
+     */
+    public synchronized long getCompiledTick() {
+      if (complete) {
+        return events.getTickLength();
+      }
+      long compiled = Long.MAX_VALUE;
+      for (int i = 0; i < writers.length; ++i) {
+        if (nextMeasure < events.getMeasureCount(i)) {
+          compiled = Math.min(compiled, events.getMeasureTick(i, nextMeasure));
+        }
+      }
+      return compiled;
+    }
+
+    public synchronized boolean isComplete() {
+      return complete;
+    }
+
+    public synchronized int getCompiledMeasureCount() {
+      return nextMeasure;
+    }
+
+    public int getMeasureCount() {
+      return measureCount;
+    }
+
+    /**
+     * Gets the length the finished sequence will have, which is known before anything is compiled.
+     *
+     * @return The length of the longest staff in ticks.
+     */
+    public long getTickLength() {
+      return events.getTickLength();
+    }
+
+    public Sequence getSequence() {
+      return sequence;
+    }
+
+    public SongEventTable getEventTable() {
+      return events;
+    }
+
+    /**
+     * Gets the measure index, which covers the whole song before anything is compiled.
+     *
+     * @return The measure index of the song.
+     */
+    public MeasureTickIndex getMeasureTickIndex() {
+      return index;
+    }
+
+    /**
+     * Gets the port and channel every staff is written on.
+     *
+     * @return The channel allocation of the song.
+     */
+    public MidiChannelAllocator.Allocation getChannelAllocation() {
+      return allocation;
+    }
+  }
+
+  /**
+   * Builds a set-tempo meta message for the given quarter-note BPM.
+   *
+   * @param bpm Beats per minute.
+   * @return The tempo meta message.
+   * @throws InvalidMidiDataException if the message cannot be built.
+   */
+  static MetaMessage tempoMessage(int bpm) throws InvalidMidiDataException {
+    int microsPerQuarter = 60_000_000 / bpm;
+    byte[] data = {(byte) (microsPerQuarter >> 16), (byte) (microsPerQuarter >> 8), (byte) microsPerQuarter};
+    return new MetaMessage(TEMPO_META_TYPE, data, data.length);
+  }
+
+  /**
+   * Emits the events of one staff into its track. The event table has resolved the ties already: a note
+   * continuing a tie is not struck, and a struck note is held to its sounding end.
+   */
+  private static class StaffWriter {
+    private final Track track;
+    private final int port;
+    private final int channel;
+
+    StaffWriter(Track track, int port, int channel, int program) throws InvalidMidiDataException {
+      this.track = track;
+      this.port = port;
+      this.channel = channel;
+      if (port > 0) {
+        track.add(new MidiEvent(MidiChannelAllocator.portMessage(port), 0));
+      }
+      // The synthesizer is shared between songs, so the program is set even when it is the default.
+      if (program != MidiChannelAllocator.NO_PROGRAM) {
+        track.add(new MidiEvent(message(ShortMessage.PROGRAM_CHANGE, program, 0), 0));
+      }
+    }
+
+    /**
+     * Writes one event of the staff.
+     *
+     * @param events The event table of the song.
+     * @param event The index of the event to write.
+     * @throws InvalidMidiDataException if a MIDI message cannot be built.
+     */
+    void write(SongEventTable events, int event) throws InvalidMidiDataException {
+      int midi = events.getMidi(event);
+      if (midi >= 0 && midi <= 127 && !events.isTiedFromPrevious(event)) {
+        track.add(new MidiEvent(message(ShortMessage.NOTE_ON, midi), events.getOnsetTick(event)));
+        track.add(new MidiEvent(message(ShortMessage.NOTE_OFF, midi), events.getSoundingEndTick(event)));
+      }
+    }
+
+    private ShortMessage message(int command, int midi) throws InvalidMidiDataException {
+      return message(command, midi, DEFAULT_VELOCITY);
+    }
+
+    private ShortMessage message(int command, int data1, int data2) throws InvalidMidiDataException {
+      if (port > 0) {
+        return new MidiChannelAllocator.PortMessage(port, command, channel, data1, data2);
+      }
+      return new ShortMessage(command, channel, data1, data2);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package com.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Shrinks the staccato tokens {@link SongPlayer} generates for one voice before they are handed to JFugue.
+ * It drops tempo tokens that repeat the current tempo, merges a tied note and its continuation into one
+ * longer note, and removes rests and tempo changes left at the end of the voice. Tokens it does not
+ * understand, such as chords and tuplet members, are passed through untouched.
+ *
+ * <p>The optimizer counts the tokens it was given and the tokens it returned, so callers can report how much
+ * smaller the event stream became. It may be shared by threads optimizing different voices.
+ */
+public class PatternOptimizer {
+  private static final String DURATION_CHARS = "whqistxo";
+  // A single note or rest: name, tie-in, duration letter, tie-out, dots. Chords and tuplets never match.
+  private static final Pattern SIMPLE_EVENT = Pattern.compile("([A-GR][#b]*\\d*)(-?)([whqistxo])(-?)(\\.*)");
+  private static final Pattern TEMPO = Pattern.compile("T(\\d+)");
+
+  private long eventsBefore;
+  private long eventsAfter;
+
+  /**
+   * Optimizes the tokens of one voice.
+   *
+   * @param tokens The staccato tokens of the voice in playing order.
+   * @return The optimized tokens; empty if the voice has nothing left to play.
+   */
+  public List<String> optimize(List<String> tokens) {
+    List<String> optimized = mergeTies(dropRepeatedTempos(tokens));
+    dropTrailingRests(optimized);
+    count(tokens.size(), optimized.size());
+    return optimized;
+  }
+
+  // Voices are optimized in parallel, so only the counters are shared.
+  private synchronized void count(int before, int after) {
+    eventsBefore += before;
+    eventsAfter += after;
+  }
+
+  /**
+   * Keeps a tempo token only when it changes the tempo.
+   */
+  private static List<String> dropRepeatedTempos(List<String> tokens) {
+    List<String> kept = new ArrayList<>(tokens.size());
+    String tempo = null;
+    for (String token : tokens) {
+      if (TEMPO.matcher(token).matches()) {
+        if (token.equals(tempo)) {
+          continue;
+        }
+        tempo = token;
+      }
+      kept.add(token);
+    }
+    return kept;
+  }
+
+  /**
+   * Replaces a tied note followed directly by its continuation on the same pitch with one note
+   * lasting both durations.
+   */
+  private static List<String> mergeTies(List<String> tokens) {
+    List<String> merged = new ArrayList<>(tokens.size());
+    for (String token : tokens) {
+      if (!merged.isEmpty()) {
+        String joined = join(merged.get(merged.size() - 1), token);
+        if (joined != null) {
+          merged.set(merged.size() - 1, joined);
+          continue;
+        }
+      }
+      merged.add(token);
+    }
+    return merged;
+  }
+
+  private static String join(String first, String second) {
+    Matcher a = SIMPLE_EVENT.matcher(first);
+    Matcher b = SIMPLE_EVENT.matcher(second);
+    if (!a.matches() || !b.matches() || a.group(1).startsWith("R")
+        || !a.group(1).equals(b.group(1)) || a.group(4).isEmpty() || b.group(2).isEmpty()) {
+      return null;
+    }
+    double duration = duration(a.group(3).charAt(0), a.group(5).length())
+        + duration(b.group(3).charAt(0), b.group(5).length());
+    return a.group(1) + a.group(2) + durationString(duration, b.group(4));
+  }
+
+  /**
+   * Removes the rests and tempo tokens after the last note of a voice; they only delay the end of the track.
+   * A voice without any notes ends up empty.
+   */
+  private static void dropTrailingRests(List<String> tokens) {
+    for (int i = tokens.size() - 1; i >= 0; i--) {
+      String token = tokens.get(i);
+      if (!TEMPO.matcher(token).matches() && !isRest(token)) {
+        return;
+      }
+      tokens.remove(i);
+    }
+  }
+
+  private static boolean isRest(String token) {
+    return token.startsWith("R") && (token.length() == 1 || token.charAt(1) == '-'
+        || DURATION_CHARS.indexOf(token.charAt(1)) >= 0 || token.charAt(1) == '/');
+  }
+
+  /**
+   * Gets the length of a duration letter with dots, in whole notes.
+   */
+  private static double duration(char letter, int dots) {
+    double base = 1.0 / (1 << DURATION_CHARS.indexOf(letter));
+    return base * (2 - 1.0 / (1 << dots));
+  }
+
+  /**
+   * Writes a duration in whole notes as a letter with dots when one fits, or as a numeric duration otherwise.
+   * The tie-out marker goes between the letter and the dots, as {@link SongPlayer} writes it.
+   */
+  private static String durationString(double wholeNotes, String tieOut) {
+    for (int letter = 0; letter < DURATION_CHARS.length(); letter++) {
+      for (int dots = 0; dots <= 2; dots++) {
+        if (Math.abs(duration(DURATION_CHARS.charAt(letter), dots) - wholeNotes) < 1e-9) {
+          return DURATION_CHARS.charAt(letter) + tieOut + ".".repeat(dots);
+        }
+      }
+    }
+    return "/" + wholeNotes + tieOut;
+  }
+
+  public synchronized long getEventsBefore() {
+    return eventsBefore;
+  }
+
+  public synchronized long getEventsAfter() {
+    return eventsAfter;
+  }
+}
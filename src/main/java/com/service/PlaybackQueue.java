@@ -0,0 +1,262 @@
+package com.service;
+
+import com.model.Song;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+
+/**
+ * Plays a list of songs back to back, such as a user's favorites or the songs of a genre.
+ * While one song plays, the next {@link #getPrefetchDepth()} songs are compiled into the
+ * {@link CompiledSongCache} on a background thread and the synthesizers they need are opened, so when a song
+ * ends the next one starts from a ready sequence on the playback thread itself. The gap between the end of
+ * one song and the start of the next is measured for every transition.
+ */
+public class PlaybackQueue {
+  public static final int DEFAULT_PREFETCH_DEPTH = 1;
+
+  private final CompiledSongCache cache;
+  private final Function<Song, PlaybackTask> taskFactory;
+  private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "Playback-Prefetch");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final List<Song> songs = new ArrayList<>();
+  private int position = -1;
+  private int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+  private PlaybackTask current;
+  private long transitions;
+  private long lastGapNanos = -1;
+  private long maxGapNanos;
+  private long totalGapNanos;
+  // Set once opening the shared synthesizers failed, so the failure is reported once rather than for every song.
+  private static volatile boolean devicesUnavailable;
+
+  /**
+   * Creates an empty queue.
+   *
+   * @param cache The cache upcoming songs are compiled into.
+   * @param taskFactory Creates the playback of a song from its start, using the same cache.
+   */
+  public PlaybackQueue(CompiledSongCache cache, Function<Song, PlaybackTask> taskFactory) {
+    this.cache = cache;
+    this.taskFactory = taskFactory;
+  }
+
+  /**
+   * Replaces the songs in the queue and plays the first one.
+   *
+   * @param queued The songs to play in order.
+   * @return The playback of the first song, or null if there are no songs.
+   */
+  public synchronized PlaybackTask play(List<Song> queued) {
+    stop();
+    songs.clear();
+    songs.addAll(queued);
+    return playAt(0);
+  }
+
+  /**
+   * Adds a song to the end of the queue.
+   *
+   * @param song The song to add.
+   */
+  public synchronized void enqueue(Song song) {
+    songs.add(song);
+    if (position >= 0 && songs.size() - 1 - position <= prefetchDepth) {
+      prefetch(song);
+    }
+  }
+
+  /**
+   * Plays the song at the given position, replacing whatever is playing.
+   *
+   * @param index The position of the song in the queue.
+   * @return The playback of the song, or null if the position is outside the queue.
+   */
+  public synchronized PlaybackTask playAt(int index) {
+    if (index < 0 || index >= songs.size()) {
+      stop();
+      return null;
+    }
+    position = index;
+    current = createTask(songs.get(index));
+    PlaybackService.getInstance().start(current);
+    prefetchAhead();
+    return current;
+  }
+
+  /**
+   * Skips to the next song.
+   *
+   * @return The playback of the next song, or null at the end of the queue.
+   */
+  public synchronized PlaybackTask next() {
+    return playAt(position + 1);
+  }
+
+  /**
+   * Goes back to the previous song.
+   *
+   * @return The playback of the previous song, or null at the start of the queue.
+   */
+  public synchronized PlaybackTask previous() {
+    return playAt(position - 1);
+  }
+
+  /**
+   * Stops the queue. The songs stay queued and {@link #playAt(int)} can start it again.
+   */
+  public synchronized void stop() {
+    if (current != null) {
+      PlaybackService.getInstance().stop();
+      current = null;
+    }
+  }
+
+  private PlaybackTask createTask(Song song) {
+    PlaybackTask task = taskFactory.apply(song);
+    task.setOnFinished(() -> advance(task));
+    return task;
+  }
+
+  /**
+   * Starts the next song when the current one plays to its end. Runs on the playback thread.
+   *
+   * @param finished The playback that ended.
+   */
+  synchronized void advance(PlaybackTask finished) {
+    if (finished != current) {
+      return;
+    }
+    if (position + 1 >= songs.size()) {
+      current = null;
+      return;
+    }
+    PlaybackTask next = createTask(songs.get(position + 1));
+    long endedAt = finished.getEndedAtNanos();
+    next.setOnStarted(() -> recordGap(next.getStartedAtNanos() - endedAt));
+    if (PlaybackService.getInstance().startNext(finished, next)) {
+      position++;
+      current = next;
+      prefetchAhead();
+    } else {
+      current = null;
+    }
+  }
+
+  private void prefetchAhead() {
+    for (int i = position + 1; i <= position + prefetchDepth && i < songs.size(); i++) {
+      prefetch(songs.get(i));
+    }
+  }
+
+  /**
+   * Compiles a song into the cache and opens the synthesizers it needs on the prefetch thread.
+   * The compile runs outside the cache lock so lookups from playback are never held up by it.
+   *
+   * @param song The song to prepare.
+   * @return The pending prefetch.
+   */
+  Future<?> prefetch(Song song) {
+    return prefetcher.submit(() -> {
+      try {
+        CompiledSong compiled = cache.lookup(song);
+        if (compiled == null) {
+          MidiSequenceCompiler.Session session = new MidiSequenceCompiler().open(song, cache.getEventTable(song));
+          session.compileMeasures(session.getMeasureCount());
+          compiled = cache.store(song, session);
+        }
+        PlaybackService.getInstance().preparePorts(MidiChannelAllocator.portCount(compiled.getSequence()));
+      } catch (InvalidMidiDataException e) {
+        System.err.println("Could not prefetch " + song.getTitle() + ": " + e.getMessage());
+      } catch (MidiUnavailableException e) {
+        if (!devicesUnavailable) {
+          devicesUnavailable = true;
+          System.err.println("Could not open synthesizers for upcoming songs: " + e.getMessage());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+  }
+
+  private synchronized void recordGap(long gapNanos) {
+    transitions++;
+    lastGapNanos = gapNanos;
+    maxGapNanos = Math.max(maxGapNanos, gapNanos);
+    totalGapNanos += gapNanos;
+  }
+
+  /**
+   * Sets how many upcoming songs are compiled ahead of time.
+   *
+   * @param depth The number of songs to prefetch, 0 to compile each song only when it starts.
+   */
+  public synchronized void setPrefetchDepth(int depth) {
+    if (depth < 0) {
+      throw new IllegalArgumentException("Prefetch depth must not be negative: " + depth);
+    }
+    prefetchDepth = depth;
+    if (position >= 0) {
+      prefetchAhead();
+    }
+  }
+
+  public synchronized int getPrefetchDepth() {
+    return prefetchDepth;
+  }
+
+  public synchronized List<Song> getSongs() {
+    return new ArrayList<>(songs);
+  }
+
+  /**
+   * Gets the song the queue is playing.
+   *
+   * @return The current song, or null if the queue is not playing
+   */
+  public synchronized Song getCurrentSong() {
+    return current == null ? null : songs.get(position);
+  }
+
+  public synchronized PlaybackTask getCurrentTask() {
+    return current;
+  }
+
+  public synchronized int getPosition() {
+    return position;
+  }
+
+  public synchronized long getTransitionCount() {
+    return transitions;
+  }
+
+  /**
+   * Gets the silence between the end of the last song and the start of the one after it.
+   *
+   * @return The gap in nanoseconds, or -1 if no song followed another yet
+   */
+  public synchronized long getLastGapNanos() {
+    return lastGapNanos;
+  }
+
+  public synchronized long getMaxGapNanos() {
+    return maxGapNanos;
+  }
+
+  /**
+   * Gets the mean silence between songs.
+   *
+   * @return The mean gap in nanoseconds, or 0 if no song followed another yet
+   */
+  public synchronized double getAverageGapNanos() {
+    return transitions == 0 ? 0 : (double) totalGapNanos / transitions;
+  }
+}
@@ -0,0 +1,399 @@
+package com.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Track;
+import org.jfugue.pattern.Pattern;
+import org.jfugue.player.Player;
+
+/**
+ * Owns the MIDI devices used for playback so they are opened once per application instead of once per play.
+ * {@link #warmUp()} opens the synthesizer (loading its soundbank) and a sequencer wired to it on a background
+ * thread at startup; every {@link PlaybackTask} then reuses them. Playback runs on a single managed thread and
+ * only one session is active at a time: starting a task stops the one that was playing.
+ *
+ * <p>The sequencer sends to port 0 of a router. Songs whose staves {@link MidiChannelAllocator} spread over more
+ * than one port get another synthesizer per extra port, opened by {@link #preparePorts(int)} and kept open.
+ * Messages the sequencer makes up itself carry no port: controllers such as its all-notes-off reach every port,
+ * and the program changes it chases after a position change are replaced by the programs of the song's tracks.
+ *
+ * <p>Auditions of single elements play on a synthesizer of their own, opened by the warm-up as well, so they
+ * never take a channel or change a program of a song that is playing.
+ *
+ * <p>With {@link #setEventSchedulerEnabled(boolean)}, compiled songs are played by an {@link EventScheduler}
+ * sending to the same router instead of by the sequencer, and how late every event was sent is collected in
+ * {@link #getSchedulerJitter()}.
+ */
+public class PlaybackService {
+  public static final float MIN_TEMPO_FACTOR = 0.25f;
+  public static final float MAX_TEMPO_FACTOR = 2f;
+  private static final int ALL_NOTES_OFF = 123;
+  private static PlaybackService instance;
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "JFugue-Playback");
+    thread.setDaemon(true);             // JVM can exit even if music is still playing
+    return thread;
+  });
+  private final Player patternPlayer = new Player();
+  private CompletableFuture<Sequencer> devices;
+  private CompletableFuture<Synthesizer> auditionSynthesizer;
+  private Synthesizer synthesizer;
+  // Read without the monitor by the router, which is called from the sequencer and scheduler threads.
+  private final List<Receiver> portReceivers = new CopyOnWriteArrayList<>();
+  private final PortRouter router = new PortRouter();
+  private final JitterHistogram schedulerJitter = new JitterHistogram();
+  private boolean eventSchedulerEnabled;
+  private PlaybackTask activeTask;
+  private long warmUpNanos = -1;
+  private float tempoFactor = 1f;
+
+  private PlaybackService() {
+  }
+
+  /**
+   * Gets the singleton playback service.
+   *
+   * @return The singleton instance
+   */
+  public static synchronized PlaybackService getInstance() {
+    if (instance == null) {
+      instance = new PlaybackService();
+    }
+    return instance;
+  }
+
+  /**
+   * Starts opening the synthesizer and sequencer in the background if that has not been started yet.
+   */
+  public synchronized void warmUp() {
+    if (devices == null) {
+      devices = CompletableFuture.supplyAsync(this::openDevices);
+    }
+    getAuditionSynthesizer();
+  }
+
+  private Sequencer openDevices() {
+    long start = System.nanoTime();
+    try {
+      Synthesizer synth = MidiSystem.getSynthesizer();
+      synth.open();
+      Sequencer sequencer = MidiSystem.getSequencer(false);
+      sequencer.open();
+      portReceivers.add(synth.getReceiver());
+      sequencer.getTransmitter().setReceiver(router);
+      synchronized (this) {
+        synthesizer = synth;
+        warmUpNanos = System.nanoTime() - start;
+      }
+      return sequencer;
+    } catch (MidiUnavailableException e) {
+      throw new IllegalStateException("No MIDI synthesizer available: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Gets the shared sequencer, waiting for the warm-up to finish if it is still running.
+   *
+   * @return The open sequencer, connected to the shared synthesizer.
+   * @throws MidiUnavailableException if the MIDI devices could not be opened.
+   * @throws InterruptedException if the caller is interrupted while waiting.
+   */
+  Sequencer getSequencer() throws MidiUnavailableException, InterruptedException {
+    warmUp();
+    try {
+      return devices.get();
+    } catch (ExecutionException e) {
+      throw new MidiUnavailableException(e.getCause().getMessage());
+    }
+  }
+
+  /**
+   * Gets the synthesizer auditions are played on, starting to open it in the background if that has not been
+   * started yet. It is not used for playback.
+   *
+   * @return The synthesizer once it is open; completed exceptionally if it could not be opened.
+   */
+  synchronized CompletableFuture<Synthesizer> getAuditionSynthesizer() {
+    if (auditionSynthesizer == null) {
+      auditionSynthesizer = CompletableFuture.supplyAsync(() -> {
+        try {
+          Synthesizer synth = MidiSystem.getSynthesizer();
+          synth.open();
+          return synth;
+        } catch (MidiUnavailableException e) {
+          throw new IllegalStateException("No MIDI synthesizer available: " + e.getMessage(), e);
+        }
+      });
+    }
+    return auditionSynthesizer;
+  }
+
+  /**
+   * Makes sure a synthesizer is open for every port a sequence is played on.
+   *
+   * @param count The number of ports needed.
+   * @throws MidiUnavailableException if a synthesizer cannot be opened.
+   * @throws InterruptedException if the caller is interrupted while waiting for the warm-up.
+   */
+  void preparePorts(int count) throws MidiUnavailableException, InterruptedException {
+    getSequencer();
+    while (getPortCount() < count) {
+      Synthesizer synth = MidiSystem.getSynthesizer();
+      synth.open();
+      portReceivers.add(synth.getReceiver());
+    }
+  }
+
+  /**
+   * Gets the receiver that sends each message to the synthesizer of its port, waiting for the warm-up to
+   * finish if it is still running.
+   *
+   * @return The port router the sequencer sends to.
+   * @throws MidiUnavailableException if the MIDI devices could not be opened.
+   * @throws InterruptedException if the caller is interrupted while waiting.
+   */
+  Receiver getRouter() throws MidiUnavailableException, InterruptedException {
+    getSequencer();
+    return router;
+  }
+
+  public int getPortCount() {
+    return portReceivers.size();
+  }
+
+  /**
+   * Tells the router which song plays next, so program changes the sequencer chases for it go to the right
+   * ports.
+   *
+   * @param sequence The sequence about to be played.
+   */
+  void routePrograms(Sequence sequence) {
+    router.setPrograms(sequence);
+  }
+
+  /**
+   * Sends all-notes-off on every channel of every open port, so no note hangs after the sequencer stops or
+   * moves.
+   */
+  void allNotesOff() {
+    try {
+      for (int channel = 0; channel < MidiChannelAllocator.CHANNELS_PER_PORT; channel++) {
+        ShortMessage notesOff = new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, ALL_NOTES_OFF, 0);
+        for (Receiver receiver : portReceivers) {
+          receiver.send(notesOff, -1);
+        }
+      }
+    } catch (InvalidMidiDataException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Sends each sequencer message to the synthesizer of its port. Messages without a port go to port 0,
+   * as do messages for a port whose synthesizer is not open. It takes no lock, so it can be called by threads
+   * that hold one.
+   *
+   * <p>A compiled song on several ports sends every channel message of a port above 0 as a
+   * {@link MidiChannelAllocator.PortMessage} and writes no controllers on port 0, so a controller without a port
+   * comes from the sequencer and goes to every port. Program changes without a port are also sent by the
+   * sequencer when it chases them after a position change, but for every track onto port 0; for such a song,
+   * they are replaced by the program each track sets on that channel, on its own port.
+   */
+  private class PortRouter implements Receiver {
+    // The program change of each track by channel, for a song on several ports; empty otherwise.
+    private volatile Map<Integer, List<ShortMessage>> programs = Map.of();
+
+    void setPrograms(Sequence sequence) {
+      Map<Integer, List<ShortMessage>> byChannel = new HashMap<>();
+      if (MidiChannelAllocator.portCount(sequence) > 1) {
+        for (Track track : sequence.getTracks()) {
+          ShortMessage program = null;
+          for (int i = 0; i < track.size(); i++) {
+            MidiEvent event = track.get(i);
+            if (event.getMessage() instanceof ShortMessage message
+                && message.getCommand() == ShortMessage.PROGRAM_CHANGE) {
+              program = message;
+            }
+          }
+          if (program != null) {
+            byChannel.computeIfAbsent(program.getChannel(), channel -> new ArrayList<>()).add(program);
+          }
+        }
+      }
+      programs = byChannel;
+    }
+
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+      if (message instanceof MidiChannelAllocator.PortMessage portMessage) {
+        receiverOf(portMessage.getPort()).send(message, timeStamp);
+        return;
+      }
+      if (message instanceof ShortMessage plain && plain.getCommand() == ShortMessage.CONTROL_CHANGE) {
+        for (Receiver receiver : portReceivers) {
+          receiver.send(message, timeStamp);
+        }
+        return;
+      }
+      if (message instanceof ShortMessage plain && plain.getCommand() == ShortMessage.PROGRAM_CHANGE) {
+        List<ShortMessage> channelPrograms = programs.get(plain.getChannel());
+        if (channelPrograms != null) {
+          for (ShortMessage program : channelPrograms) {
+            int port = program instanceof MidiChannelAllocator.PortMessage portMessage ? portMessage.getPort() : 0;
+            receiverOf(port).send(program, timeStamp);
+          }
+          return;
+        }
+      }
+      receiverOf(0).send(message, timeStamp);
+    }
+
+    // Receivers are only ever added, so a port checked here is still there when it is read.
+    private Receiver receiverOf(int port) {
+      return portReceivers.get(port < portReceivers.size() ? port : 0);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /**
+   * Converts a JFugue pattern to a sequence with the shared JFugue player.
+   *
+   * @param pattern The pattern to convert.
+   * @return The sequence of the pattern.
+   */
+  Sequence getSequence(Pattern pattern) {
+    synchronized (patternPlayer) {
+      return patternPlayer.getSequence(pattern);
+    }
+  }
+
+  /**
+   * Makes the task the active playback session, stopping the session that was playing, and runs it
+   * on the playback thread.
+   *
+   * @param task The playback to start.
+   */
+  public synchronized void start(PlaybackTask task) {
+    stop();
+    activeTask = task;
+    executor.execute(task);
+  }
+
+  /**
+   * Starts the task that follows a session that played to its end. Nothing happens if another session was
+   * started in the meantime, so a queue cannot take over from a song the user chose.
+   *
+   * @param finished The session that ended.
+   * @param next The playback to start.
+   * @return true if the task was started.
+   */
+  public synchronized boolean startNext(PlaybackTask finished, PlaybackTask next) {
+    if (activeTask != finished) {
+      return false;
+    }
+    activeTask = next;
+    executor.execute(next);
+    return true;
+  }
+
+  /**
+   * Stops the active playback session, if any.
+   */
+  public synchronized void stop() {
+    if (activeTask != null) {
+      activeTask.stopPlayback();
+      activeTask = null;
+    }
+  }
+
+  /**
+   * Sets the speed of playback relative to the tempo the song was written at. The factor is applied to the
+   * running sequencer, which rescales its clock immediately, so a change is heard from the next event on
+   * without recompiling; it also applies to every later playback.
+   *
+   * @param factor The speed, clamped to {@link #MIN_TEMPO_FACTOR}..{@link #MAX_TEMPO_FACTOR}.
+   * @return The factor that was applied.
+   */
+  public float setTempoFactor(float factor) {
+    float applied;
+    PlaybackTask task;
+    synchronized (this) {
+      tempoFactor = Math.max(MIN_TEMPO_FACTOR, Math.min(MAX_TEMPO_FACTOR, factor));
+      if (devices != null && devices.isDone() && !devices.isCompletedExceptionally()) {
+        devices.join().setTempoFactor(tempoFactor);
+      }
+      applied = tempoFactor;
+      task = activeTask;
+    }
+    // Outside the monitor, as the event scheduler takes its own lock for it.
+    if (task != null) {
+      task.applyTempoFactor(applied);
+    }
+    return applied;
+  }
+
+  public synchronized float getTempoFactor() {
+    return tempoFactor;
+  }
+
+  /**
+   * Chooses how compiled songs are played from the next playback on: by the stock sequencer, or by an
+   * {@link EventScheduler} thread that measures its own timing.
+   *
+   * @param enabled true to play compiled songs with the event scheduler.
+   */
+  public synchronized void setEventSchedulerEnabled(boolean enabled) {
+    eventSchedulerEnabled = enabled;
+  }
+
+  public synchronized boolean isEventSchedulerEnabled() {
+    return eventSchedulerEnabled;
+  }
+
+  /**
+   * Gets how late the event scheduler sent events, over every song it played.
+   *
+   * @return The shared jitter histogram.
+   */
+  public JitterHistogram getSchedulerJitter() {
+    return schedulerJitter;
+  }
+
+  public synchronized PlaybackTask getActiveTask() {
+    return activeTask;
+  }
+
+  public synchronized boolean isWarm() {
+    return synthesizer != null;
+  }
+
+  /**
+   * Gets how long opening the synthesizer and sequencer took.
+   *
+   * @return The warm-up time in nanoseconds, or -1 if the devices are not open yet
+   */
+  public synchronized long getWarmUpNanos() {
+    return warmUpNanos;
+  }
+}
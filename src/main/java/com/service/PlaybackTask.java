@@ -1,29 +1,695 @@
 package com.service;
 
+import com.model.Song;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import javafx.concurrent.Task;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaEventListener;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
 import org.jfugue.pattern.Pattern;
-import org.jfugue.player.ManagedPlayer;
-import org.jfugue.player.Player;
 
 public class PlaybackTask extends Task<Void> {
-  private final Pattern pattern;
-  private final ManagedPlayer player = new ManagedPlayer(); // gives start/stop/pause controls
+  /** Measures compiled before a streamed song starts playing. */
+  public static final int INITIAL_WINDOW_MEASURES = 4;
+  /** Measures compiled per step while a streamed song is playing. */
+  public static final int WINDOW_MEASURES = 8;
+  /** How close the playhead gets to the end of what is compiled before the next window is, in ticks. */
+  public static final long COMPILE_LEAD_TICKS = MidiSequenceCompiler.toTicks(4);
+  /** How often a streamed song checks the playhead while it is far enough ahead. */
+  private static final long LEAD_POLL_MILLIS = 20;
+  private static final int MARKER_META_TYPE = 0x06;
+  private static final int END_OF_TRACK_META_TYPE = 0x2F;
 
-  public PlaybackTask(Pattern pattern) { this.pattern = pattern; }
+  private final Song song;
+  private final CompiledSongCache cache;
+  // Known from the start, or set once by prepare() on the playback thread for a task created from a song.
+  private Pattern pattern;
+  private Sequence sequence;
+  private volatile MidiSequenceCompiler.Session session;
+  private Consumer<MidiSequenceCompiler.Session> onCompiled;
+  private volatile MeasureTickIndex measureTickIndex;
+  private boolean prepared;
+  private volatile int startMeasure;
+  private final CountDownLatch ended = new CountDownLatch(1);
+  private volatile Sequencer sequencer;
+  private volatile EventScheduler scheduler;
+  private volatile boolean paused;
+  private volatile long startNanos = -1;
+  private volatile long startedAtNanos = -1;
+  private volatile long endedAtNanos = -1;
+  private volatile Runnable onStarted;
+  private volatile Runnable onFinished;
+  private volatile StaffMixer mixer = new StaffMixer();
+  private volatile int loopFirstMeasure = -1;
+  private volatile int loopLastMeasure = -1;
+  private volatile long compileLeadTicks = Long.MAX_VALUE;
+  private volatile long minCompileLeadTicks = Long.MAX_VALUE;
+
+  /** Plays a JFugue pattern; the pattern is turned into a sequence when the task runs. */
+  public PlaybackTask(Pattern pattern) {
+    this(pattern, null, null, null, null, 0);
+  }
+
+  /** Plays a sequence that was already compiled, e.g. by {@link MidiSequenceCompiler}. */
+  public PlaybackTask(Sequence sequence) {
+    this(null, sequence, null, null, null, 0);
+  }
+
+  /**
+   * Plays a compiled song starting at the given measure.
+   *
+   * @param compiled The compiled song.
+   * @param startMeasure The index of the measure to start at.
+   */
+  public PlaybackTask(CompiledSong compiled, int startMeasure) {
+    this(null, compiled.getSequence(), null, null, compiled.getMeasureTickIndex(), startMeasure);
+  }
+
+  /**
+   * Streams a song that is still being compiled: playback starts once the first
+   * {@link #INITIAL_WINDOW_MEASURES} measures from the start measure are compiled, and the rest is
+   * compiled while it plays.
+   *
+   * @param session The compilation to stream, nothing compiled yet.
+   * @param startMeasure The index of the measure to start at.
+   * @param onCompiled Called with the session once every measure is compiled, or null.
+   */
+  public PlaybackTask(MidiSequenceCompiler.Session session, int startMeasure,
+      Consumer<MidiSequenceCompiler.Session> onCompiled) {
+    this(null, null, session, onCompiled, session.getMeasureTickIndex(), startMeasure);
+  }
+
+  /**
+   * Plays a song from the cache, or streams it while it compiles on a miss. Looking the song up, which hashes
+   * it and may read the disk cache, building its event table and opening the compilation all happen when the
+   * task runs, on the playback thread, so creating the task costs nothing that grows with the song. A song
+   * that cannot be compiled is played from its JFugue pattern instead, from the start.
+   *
+   * <p>Seeks and loops asked for before the song is prepared are kept and applied when it starts.
+   *
+   * @param song The song to play.
+   * @param cache The cache to look the song up in, and to store it in once it is compiled.
+   * @param startMeasure The index of the measure to start at.
+   */
+  public PlaybackTask(Song song, CompiledSongCache cache, int startMeasure) {
+    this.song = song;
+    this.cache = cache;
+    this.startMeasure = startMeasure;
+  }
+
+  private PlaybackTask(Pattern pattern, Sequence sequence, MidiSequenceCompiler.Session session,
+      Consumer<MidiSequenceCompiler.Session> onCompiled, MeasureTickIndex measureTickIndex, int startMeasure) {
+    this.song = null;
+    this.cache = null;
+    this.pattern = pattern;
+    this.sequence = sequence;
+    this.session = session;
+    this.onCompiled = onCompiled;
+    this.measureTickIndex = measureTickIndex;
+    this.prepared = true;
+    this.startMeasure = startMeasure;
+  }
 
   @Override protected Void call() throws Exception {
-    // ManagedPlayer.start(*) is non-blocking; Player.play(*) is blocking –
-    // we want the latter so the Task completes when the song ends.
-    Sequence seq = new Player().getSequence(pattern);
-    player.start(seq);          // <- runs on this background thread
+    // The task blocks until the song ends or is stopped, so it keeps running while paused
+    // and the sequencer keeps its sequence and position.
+    long begin = System.nanoTime();
+    if (song != null) {
+      prepare();
+    }
+    Sequence seq;
+    if (measureTickIndex != null && PlaybackService.getInstance().isEventSchedulerEnabled()) {
+      // The scheduler merges every event up front, so a streamed song is compiled whole first.
+      if (session != null) {
+        session.compileMeasures(session.getMeasureCount());
+        if (onCompiled != null) {
+          onCompiled.accept(session);
+        }
+      }
+      playScheduled(session != null ? session.getSequence() : sequence, begin);
+      runFinished();
+      return null;
+    }
+    if (session != null) {
+      session.compileMeasures(Math.max(startMeasure + INITIAL_WINDOW_MEASURES, loopLastMeasure + 1));
+      seq = reserveLength(session.getSequence(), session.getTickLength());
+    } else {
+      seq = sequence != null ? sequence : PlaybackService.getInstance().getSequence(pattern);
+    }
+    Sequencer player = PlaybackService.getInstance().getSequencer();
+    PlaybackService.getInstance().preparePorts(MidiChannelAllocator.portCount(seq));
+    PlaybackService.getInstance().routePrograms(seq);
+    MetaEventListener endListener = meta -> {
+      if (meta.getType() == END_OF_TRACK_META_TYPE) {
+        endedAtNanos = System.nanoTime();
+        ended.countDown();
+      }
+    };
+    player.addMetaEventListener(endListener);
+    try {
+      player.setSequence(seq);
+      player.setTempoFactor(PlaybackService.getInstance().getTempoFactor());
+      player.setTickPosition(startMeasure > 0 ? measureTick(startMeasure) : 0);
+      if (measureTickIndex != null) {
+        mixer.attach(player, measureTickIndex.getStaffCount());
+      }
+      sequencer = player;
+      applyLoop(player);
+      if (isCancelled()) {
+        return null;
+      }
+      player.start();          // <- non-blocking, the sequencer plays on its own thread
+      startedAtNanos = System.nanoTime();
+      startNanos = startedAtNanos - begin;
+      Runnable started = onStarted;
+      if (started != null) {
+        started.run();
+      }
+      if (session != null) {
+        streamRemaining(seq);
+      }
+      ended.await();
+    } finally {
+      // The sequencer is shared, so it is stopped and left open for the next session.
+      sequencer = null;
+      mixer.detach();
+      player.stop();
+      PlaybackService.getInstance().allNotesOff();
+      player.setLoopCount(0);
+      player.removeMetaEventListener(endListener);
+    }
+    runFinished();
     return null;
   }
-  @Override protected void cancelled() { player.finish(); } // tidy up if user presses “Stop”
+
+  /**
+   * Plays a compiled song with an {@link EventScheduler} instead of the sequencer, until it ends or is stopped.
+   *
+   * @param seq The compiled sequence.
+   * @param begin When the task started running.
+   * @throws MidiUnavailableException if the MIDI devices could not be opened.
+   * @throws InterruptedException if the playback thread is interrupted.
+   */
+  private void playScheduled(Sequence seq, long begin) throws MidiUnavailableException, InterruptedException {
+    PlaybackService service = PlaybackService.getInstance();
+    service.preparePorts(MidiChannelAllocator.portCount(seq));
+    service.routePrograms(seq);
+    EventScheduler events = new EventScheduler(seq, measureTickIndex, service.getRouter(),
+        service.getSchedulerJitter());
+    StaffMixer mix = mixer;
+    int staves = measureTickIndex.getStaffCount();
+    int clickTrack = ClickTrack.indexOf(seq);
+    events.setTrackFilter(track -> mix.isTrackAudible(track, staves, clickTrack));
+    events.setTempoFactor(service.getTempoFactor());
+    events.setOnFinished(() -> {
+      endedAtNanos = System.nanoTime();
+      ended.countDown();
+    });
+    if (isCancelled()) {
+      return;
+    }
+    scheduler = events;
+    try {
+      events.start(startMeasure > 0 ? measureTick(startMeasure) : 0);
+      applyLoop(events);
+      startedAtNanos = System.nanoTime();
+      startNanos = startedAtNanos - begin;
+      Runnable started = onStarted;
+      if (started != null) {
+        started.run();
+      }
+      ended.await();
+    } finally {
+      scheduler = null;
+      events.stop();
+      events.join();
+    }
+  }
+
+  /**
+   * Finds the song in the cache, or opens its compilation on a miss, falling back to its JFugue pattern if it
+   * cannot be compiled. A song that needs more MIDI ports than a pattern has gets no fallback, and the task
+   * fails with the {@link IllegalArgumentException} of {@link SongPlayer#play(Song)}. A seek or loop asked for
+   * meanwhile is checked against the song's measures here.
+   * The work is done outside the task's lock, so seeking or looping from another thread never waits for it.
+   */
+  void prepare() {
+    CompiledSong cached = null;
+    MidiSequenceCompiler.Session opened = null;
+    Pattern fallback = null;
+    long version = song.getContentVersion();
+    try {
+      cached = cache.lookup(song);
+      if (cached == null) {
+        opened = new MidiSequenceCompiler().open(song, cache.getEventTable(song));
+      }
+    } catch (InvalidMidiDataException | RuntimeException e) {
+      System.err.println("Direct MIDI compile failed, using JFugue pattern: " + e.getMessage());
+      fallback = new SongPlayer().play(song);
+    }
+    publish(cached, opened, fallback, version);
+  }
+
+  private synchronized void publish(CompiledSong cached, MidiSequenceCompiler.Session opened, Pattern fallback,
+      long version) {
+    if (cached != null) {
+      sequence = cached.getSequence();
+      measureTickIndex = cached.getMeasureTickIndex();
+    } else if (opened != null) {
+      session = opened;
+      measureTickIndex = opened.getMeasureTickIndex();
+      onCompiled = compiled -> store(compiled, version);
+    } else {
+      pattern = fallback;
+    }
+    prepared = true;
+    if (measureTickIndex == null) {
+      if (startMeasure > 0 || loopFirstMeasure >= 0) {
+        System.err.println("Playing " + song.getTitle() + " from the start: a JFugue pattern has no measures");
+      }
+      startMeasure = 0;
+      loopFirstMeasure = -1;
+      loopLastMeasure = -1;
+    } else if (loopFirstMeasure >= 0 && !isLoopable(loopFirstMeasure, loopLastMeasure)) {
+      System.err.println("Not looping measures " + loopFirstMeasure + "-" + loopLastMeasure + ": outside the song");
+      loopFirstMeasure = -1;
+      loopLastMeasure = -1;
+    }
+  }
+
+  // Keeps a streamed song unless it was edited while it played.
+  private void store(MidiSequenceCompiler.Session compiled, long version) {
+    if (song.getContentVersion() != version) {
+      return;
+    }
+    try {
+      cache.store(song, compiled);
+    } catch (InvalidMidiDataException e) {
+      System.err.println("Could not cache streamed song: " + e.getMessage());
+    }
+  }
+
+  private boolean isLoopable(int firstMeasure, int lastMeasure) {
+    int measures = measureTickIndex.getStaffCount() == 0 ? 0 : measureTickIndex.getMeasureCount(0);
+    return lastMeasure < measures && lastMeasure >= firstMeasure
+        && measureTickIndex.getEndTick(0, lastMeasure) > measureTickIndex.getTick(0, firstMeasure);
+  }
+
+  private void runFinished() {
+    Runnable finished = onFinished;
+    if (finished != null && endedAtNanos >= 0 && !isCancelled()) {
+      finished.run();
+    }
+  }
+
+  /**
+   * Compiles the remaining measure windows while the sequencer plays the ones already written. Each window is
+   * compiled once the playhead comes within {@link #COMPILE_LEAD_TICKS} of the end of the compiled part, so the
+   * compiler works alongside playback instead of competing with it up front.
+   *
+   * @param seq The sequence being played.
+   * @throws InvalidMidiDataException if an element produces an invalid MIDI message.
+   * @throws InterruptedException if the playback thread is interrupted while waiting.
+   */
+  private void streamRemaining(Sequence seq) throws InvalidMidiDataException, InterruptedException {
+    boolean more = !session.isComplete();
+    while (more && !isCancelled()) {
+      if (session.getCompiledTick() - getTickPosition() > COMPILE_LEAD_TICKS) {
+        // Wakes early when the song is stopped.
+        if (ended.await(LEAD_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+        continue;
+      }
+      more = session.compileMeasures(WINDOW_MEASURES);
+      recordLead();
+    }
+    if (!more && onCompiled != null) {
+      onCompiled.accept(session);
+    }
+  }
+
+  private void recordLead() {
+    long lead = session.getCompiledTick() - getTickPosition();
+    compileLeadTicks = lead;
+    minCompileLeadTicks = Math.min(minCompileLeadTicks, lead);
+  }
+
+  /**
+   * Wraps a streamed sequence for the sequencer with an extra track holding a marker at the final length of
+   * the song, so the sequencer keeps running until the end even while later measures are still being appended.
+   * The wrapper shares the tracks of the sequence and so sees what is appended to them, while the sequence
+   * itself, which is cached once it is complete, is left as it was compiled.
+   */
+  static Sequence reserveLength(Sequence sequence, long tickLength) throws InvalidMidiDataException {
+    Sequence padded = new SharedTrackSequence(sequence);
+    padded.createTrack().add(new MidiEvent(new MetaMessage(MARKER_META_TYPE, new byte[0], 0), tickLength));
+    return padded;
+  }
+
+  // A sequence playing the track objects of another one.
+  private static class SharedTrackSequence extends Sequence {
+    SharedTrackSequence(Sequence sequence) throws InvalidMidiDataException {
+      super(sequence.getDivisionType(), sequence.getResolution());
+      tracks.addAll(Arrays.asList(sequence.getTracks()));
+    }
+  }
+
+  /**
+   * Moves the playhead to the start of a measure. A streamed song first compiles up to that measure
+   * if the background compilation has not got there yet. A song that has not started yet starts there.
+   *
+   * @param measure The index of the measure to seek to.
+   * @throws InvalidMidiDataException if an element produces an invalid MIDI message.
+   */
+  public void seekToMeasure(int measure) throws InvalidMidiDataException {
+    synchronized (this) {
+      if (!prepared) {
+        startMeasure = measure;
+        return;
+      }
+    }
+    measureTick(measure);
+    if (sequencer == null && scheduler == null) {
+      startMeasure = measure;
+    }
+    if (session != null && measure >= session.getCompiledMeasureCount()) {
+      session.compileMeasures(measure + INITIAL_WINDOW_MEASURES - session.getCompiledMeasureCount());
+    }
+    Sequencer player = sequencer;
+    if (player != null) {
+      PlaybackService.getInstance().allNotesOff();
+      player.setTickPosition(measureTick(measure));
+    }
+    EventScheduler events = scheduler;
+    if (events != null) {
+      events.seek(measureTick(measure));
+    }
+  }
+
+  /**
+   * Looks up the start tick of a measure on the first staff, which all other staves line up with.
+   *
+   * @param measure The index of the measure.
+   * @return The start tick of the measure.
+   */
+  private long measureTick(int measure) {
+    if (measureTickIndex == null) {
+      throw new IllegalStateException("Measure positions are not known for a JFugue pattern");
+    }
+    if (measureTickIndex.getStaffCount() == 0 || measure < 0 || measure >= measureTickIndex.getMeasureCount(0)) {
+      throw new IndexOutOfBoundsException("No measure " + measure + " in the song");
+    }
+    return measureTickIndex.getTick(0, measure);
+  }
+
+  /**
+   * Loops a range of measures until {@link #clearLoop()} is called, using the loop points of the sequencer or
+   * {@link EventScheduler} so every pass repeats the same ticks with no recompile or restart. A streamed song
+   * first compiles up to the end of the range. Playback outside the range jumps to its start. The range can be
+   * changed while playing, and one set before the song is prepared is checked and applied when it starts.
+   *
+   * @param firstMeasure The index of the first measure to loop.
+   * @param lastMeasure The index of the last measure to loop, inclusive.
+   * @throws InvalidMidiDataException if an element produces an invalid MIDI message.
+   */
+  public void setLoop(int firstMeasure, int lastMeasure) throws InvalidMidiDataException {
+    synchronized (this) {
+      if (!prepared) {
+        if (firstMeasure < 0 || lastMeasure < firstMeasure) {
+          throw new IllegalArgumentException("No music to loop in measures " + firstMeasure + "-" + lastMeasure);
+        }
+        loopFirstMeasure = firstMeasure;
+        loopLastMeasure = lastMeasure;
+        return;
+      }
+    }
+    measureTick(firstMeasure);
+    measureTick(lastMeasure);
+    if (lastMeasure < firstMeasure || measureTickIndex.getEndTick(0, lastMeasure) <= measureTick(firstMeasure)) {
+      throw new IllegalArgumentException("No music to loop in measures " + firstMeasure + "-" + lastMeasure);
+    }
+    if (session != null && lastMeasure >= session.getCompiledMeasureCount()) {
+      session.compileMeasures(lastMeasure + 1 - session.getCompiledMeasureCount());
+    }
+    loopFirstMeasure = firstMeasure;
+    loopLastMeasure = lastMeasure;
+    Sequencer player = sequencer;
+    if (player != null) {
+      applyLoop(player);
+    }
+    EventScheduler events = scheduler;
+    if (events != null) {
+      applyLoop(events);
+    }
+  }
+
+  /**
+   * Stops looping; playback continues from where it is to the end of the song.
+   */
+  public void clearLoop() {
+    loopFirstMeasure = -1;
+    loopLastMeasure = -1;
+    Sequencer player = sequencer;
+    if (player != null) {
+      applyLoop(player);
+    }
+    EventScheduler events = scheduler;
+    if (events != null) {
+      applyLoop(events);
+    }
+  }
+
+  private synchronized void applyLoop(Sequencer player) {
+    int first = loopFirstMeasure;
+    int last = loopLastMeasure;
+    if (first < 0) {
+      player.setLoopCount(0);
+      player.setLoopStartPoint(0);
+      player.setLoopEndPoint(-1);
+      return;
+    }
+    long start = measureTick(first);
+    long end = measureTickIndex.getEndTick(0, last);
+    // Widen the range before narrowing it, as the sequencer rejects a start after the current end.
+    player.setLoopEndPoint(-1);
+    player.setLoopStartPoint(start);
+    player.setLoopEndPoint(end);
+    player.setLoopCount(Sequencer.LOOP_CONTINUOUSLY);
+    long position = player.getTickPosition();
+    if (position < start || position >= end) {
+      player.setTickPosition(start);
+    }
+  }
+
+  private synchronized void applyLoop(EventScheduler events) {
+    int first = loopFirstMeasure;
+    int last = loopLastMeasure;
+    if (first < 0) {
+      events.clearLoop();
+      return;
+    }
+    long start = measureTick(first);
+    long end = measureTickIndex.getEndTick(0, last);
+    events.setLoop(start, end);
+    long position = events.getTickPosition();
+    if (position < start || position >= end) {
+      events.seek(start);
+    }
+  }
+
+  public boolean isLooping() {
+    return loopFirstMeasure >= 0;
+  }
+
+  /**
+   * Gets the measure positions of the song.
+   *
+   * @return The measure index, or null for a JFugue pattern or a song that is not prepared yet
+   */
+  public MeasureTickIndex getMeasureTickIndex() {
+    return measureTickIndex;
+  }
+
+  /**
+   * Tells whether the task can seek and loop by measure: every task can except one playing a JFugue pattern.
+   * A song that is not prepared yet counts as having measures, and keeps its seeks and loops until it starts.
+   *
+   * @return false if the task plays a JFugue pattern.
+   */
+  public synchronized boolean hasMeasures() {
+    return !prepared || measureTickIndex != null;
+  }
+
+  @Override protected void cancelled() { ended.countDown(); } // tidy up if user presses “Stop”
 
   public void stopPlayback() {
-    player.finish();
+    ended.countDown();
     cancel();
   }
-}
 
+  /**
+   * Stops the sequencer where it is, keeping the sequence loaded so {@link #resume()} continues instantly.
+   */
+  public void pause() {
+    Sequencer player = sequencer;
+    if (player != null && player.isRunning()) {
+      player.stop();
+      PlaybackService.getInstance().allNotesOff();
+      paused = true;
+    }
+    EventScheduler events = scheduler;
+    if (events != null && !paused) {
+      events.pause();
+      paused = true;
+    }
+  }
+
+  /**
+   * Continues playback from the position it was paused at.
+   */
+  public void resume() {
+    Sequencer player = sequencer;
+    if (player != null && paused) {
+      paused = false;
+      player.start();
+    }
+    EventScheduler events = scheduler;
+    if (events != null && paused) {
+      paused = false;
+      events.resume();
+    }
+  }
+
+  /**
+   * Applies a new tempo factor to playback by the event scheduler; the sequencer gets it from
+   * {@link PlaybackService} directly.
+   *
+   * @param factor The speed relative to the written tempo.
+   */
+  void applyTempoFactor(float factor) {
+    EventScheduler events = scheduler;
+    if (events != null) {
+      events.setTempoFactor(factor);
+    }
+  }
+
+  public boolean isPaused() {
+    return paused;
+  }
+
+  /**
+   * Sets an action run on the playback thread right after the sequencer starts.
+   *
+   * @param onStarted The action, or null for none.
+   */
+  public void setOnStarted(Runnable onStarted) {
+    this.onStarted = onStarted;
+  }
+
+  /**
+   * Sets an action run on the playback thread when the song plays to its end, but not when it is stopped.
+   * Starting the next song from here keeps the gap between songs to the time the sequencer needs to switch.
+   *
+   * @param onFinished The action, or null for none.
+   */
+  public void setOnFinished(Runnable onFinished) {
+    this.onFinished = onFinished;
+  }
+
+  /**
+   * Sets the mixer that mutes and solos the staves of the song. Only songs compiled by
+   * {@link MidiSequenceCompiler} have a track per staff; the mixer has no effect on other playback.
+   * Set it before the task runs.
+   *
+   * @param mixer The mixer, e.g. one kept for the song across plays.
+   */
+  public void setMixer(StaffMixer mixer) {
+    this.mixer = mixer;
+  }
+
+  public StaffMixer getMixer() {
+    return mixer;
+  }
+
+  /**
+   * Gets when the sequencer started playing.
+   *
+   * @return The {@link System#nanoTime()} of the start, or -1 if playback has not started
+   */
+  public long getStartedAtNanos() {
+    return startedAtNanos;
+  }
+
+  /**
+   * Gets when the song reached its end.
+   *
+   * @return The {@link System#nanoTime()} of the end of the sequence, or -1 if it has not ended
+   */
+  public long getEndedAtNanos() {
+    return endedAtNanos;
+  }
+
+  /**
+   * Gets the position of the playhead.
+   *
+   * @return The current tick, or 0 if the sequencer is not open
+   */
+  public long getTickPosition() {
+    EventScheduler events = scheduler;
+    if (events != null) {
+      return events.getTickPosition();
+    }
+    Sequencer player = sequencer;
+    return player == null ? 0 : player.getTickPosition();
+  }
+
+  /**
+   * Gets the position of the playhead as time from the start of the song.
+   *
+   * @return The current position in microseconds, or 0 if the sequencer is not open
+   */
+  public long getMicrosecondPosition() {
+    EventScheduler events = scheduler;
+    if (events != null) {
+      return events.getMicrosecondPosition();
+    }
+    Sequencer player = sequencer;
+    return player == null ? 0 : player.getMicrosecondPosition();
+  }
+
+  /**
+   * Gets the time from the task starting to the sequencer starting.
+   *
+   * @return The time to first note in nanoseconds, or -1 if playback has not started
+   */
+  public long getTimeToStartNanos() {
+    return startNanos;
+  }
+
+  /**
+   * Gets how far the compiled part of a streamed song was ahead of the playhead after the last window.
+   *
+   * @return The lead in ticks, or Long.MAX_VALUE if no window was compiled while playing
+   */
+  public long getCompileLeadTicks() {
+    return compileLeadTicks;
+  }
+
+  /**
+   * Gets the smallest lead of compilation over the playhead seen so far; a negative value means
+   * the playhead caught up with the compiler.
+   *
+   * @return The minimum lead in ticks, or Long.MAX_VALUE if no window was compiled while playing
+   */
+  public long getMinCompileLeadTicks() {
+    return minCompileLeadTicks;
+  }
+}
@@ -0,0 +1,152 @@
+package com.service;
+
+import com.model.Chord;
+import com.model.DataConstants;
+import com.model.Instrument;
+import com.model.Measure;
+import com.model.MusicElement;
+import com.model.Note;
+import com.model.Rest;
+import com.model.SheetMusic;
+import com.model.Song;
+import com.model.Staff;
+import com.model.Tuplet;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes structural hashes of song content.
+ * Two measures with the same key, time signature and music elements always hash to the same value,
+ * no matter which song, staff or position they belong to, so the hash can be used as a content address.
+ */
+public class SongContentHasher extends DataConstants {
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /**
+   * Returns the structural hash of a {@link Measure} as a lowercase hex string.
+   *
+   * @param measure The measure to hash.
+   * @return The SHA-256 hash of the measure's contents.
+   */
+  public static String hashMeasure(Measure measure) {
+    StringBuilder canonical = new StringBuilder();
+    appendMeasure(canonical, measure);
+    return sha256(canonical);
+  }
+
+  /**
+   * Returns a hash of everything in a {@link Song} that affects how it sounds: pickup, instruments,
+   * staff layout and every measure. Titles, genres and the publisher are left out.
+   *
+   * @param song The song to hash.
+   * @return The SHA-256 hash of the song's musical content.
+   */
+  public static String hashSong(Song song) {
+    StringBuilder canonical = new StringBuilder();
+    canonical.append("S|").append(song.getPickUp()).append('{');
+    for (SheetMusic sheetMusic : song.getSheetMusic()) {
+      // Sheet music without an instrument is played with the default program, and hashed with a marker of its own.
+      Instrument instrument = sheetMusic.getInstrument();
+      canonical.append(instrument == null ? "I-" : "I|" + instrument.getInstrumentName()).append('{');
+      for (Staff staff : sheetMusic.getStaves()) {
+        canonical.append("F{");
+        for (Measure measure : staff.getMeasures()) {
+          appendMeasure(canonical, measure);
+        }
+        canonical.append('}');
+      }
+      canonical.append('}');
+    }
+    canonical.append('}');
+    return sha256(canonical);
+  }
+
+  /**
+   * Writes a canonical text form of a measure. Field order is fixed so equal measures always produce equal text.
+   *
+   * @param canonical The builder to append to.
+   * @param measure The measure to describe.
+   */
+  static void appendMeasure(StringBuilder canonical, Measure measure) {
+    canonical.append("M|").append(measure.getKeySignature())
+        .append('|').append(measure.getTimeSignatureNumerator())
+        .append('|').append(measure.getTimeSignatureDenominator()).append('[');
+    for (MusicElement element : measure.getMusicElements()) {
+      appendElement(canonical, element);
+    }
+    canonical.append(']');
+  }
+
+  /**
+   * Writes a canonical text form of a single music element.
+   *
+   * @param canonical The builder to append to.
+   * @param element The element to describe.
+   */
+  private static void appendElement(StringBuilder canonical, MusicElement element) {
+    switch (element.getType()) {
+      case SONG_MUSIC_ELEMENT_NOTE -> {
+        Note note = (Note) element;
+        canonical.append("N|").append(note.getMidiNumber())
+            .append('|').append(note.getNoteName())
+            .append('|').append(note.getDuration())
+            .append('|').append(note.getDurationChar())
+            .append('|').append(note.getDotted())
+            .append('|').append(note.hasTie())
+            .append('|').append(note.getLyric())
+            .append('|').append(note.getTempo()).append(';');
+      }
+      case SONG_MUSIC_ELEMENT_REST -> {
+        Rest rest = (Rest) element;
+        canonical.append("R|").append(rest.getDuration())
+            .append('|').append(rest.getDurationChar())
+            .append('|').append(rest.getDotted())
+            .append('|').append(rest.hasTie())
+            .append('|').append(rest.getLyric())
+            .append('|').append(rest.getTempo()).append(';');
+      }
+      case SONG_MUSIC_ELEMENT_CHORD -> {
+        Chord chord = (Chord) element;
+        canonical.append("C|").append(chord.getLyric()).append('|').append(chord.getTempo()).append('(');
+        for (Note note : chord.getNotes()) {
+          appendElement(canonical, note);
+        }
+        canonical.append(");");
+      }
+      case SONG_MUSIC_ELEMENT_TUPLET -> {
+        Tuplet tuplet = (Tuplet) element;
+        canonical.append("T|").append(tuplet.getSubdivisions())
+            .append('|').append(tuplet.getImpliedDivision())
+            .append('|').append(tuplet.getDuration())
+            .append('|').append(tuplet.getTempo()).append('(');
+        for (MusicElement tupletElement : tuplet.getElements()) {
+          appendElement(canonical, tupletElement);
+        }
+        canonical.append(");");
+      }
+      default -> throw new IllegalArgumentException("Music element does not have a valid type!");
+    }
+  }
+
+  /**
+   * Hashes the given text with SHA-256.
+   *
+   * @param text The text to hash.
+   * @return The hash as a lowercase hex string.
+   */
+  static String sha256(CharSequence text) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] hash = digest.digest(text.toString().getBytes(StandardCharsets.UTF_8));
+      char[] hex = new char[hash.length * 2];
+      for (int i = 0; i < hash.length; i++) {
+        hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+        hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+      }
+      return new String(hex);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
@@ -0,0 +1,521 @@
+package com.service;
+
+import com.model.Chord;
+import com.model.DataConstants;
+import com.model.DurationElement;
+import com.model.Measure;
+import com.model.MusicElement;
+import com.model.Note;
+import com.model.SheetMusic;
+import com.model.Song;
+import com.model.Staff;
+import com.model.Tuplet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * The timed events of one version of a song, interpreted once and shared by everything that needs to know
+ * when a note sounds: the MIDI compiler, {@link SongPlayer}, the measure index, the score canvas and the
+ * exporters. Durations, tuplet scaling, ties and tempo are resolved here and nowhere else.
+ *
+ * <p>There is one event per note, chord note and rest, including the members of tuplets. Events are stored
+ * in parallel primitive arrays ordered by staff, then measure, then onset. Staves are numbered across all
+ * sheet music of the song in order. Rests have a MIDI number of -1.
+ *
+ * <p>A tied note continues into the next note of the same MIDI number on its staff that starts exactly where
+ * it ends, wherever that note is: in the next measure, inside a chord or inside a tuplet. The continuation is
+ * not struck again; the note that was struck sounds until the end of the last note tied into it, which is
+ * its sounding end.
+ *
+ * <p>The tempo map is read from one staff, the longest, which the metronome {@link ClickTrack} also follows;
+ * of staves that are equally long the first is used. Tempos written on the other staves are ignored, so
+ * staves that disagree never override each other. A table never changes after it is built;
+ * an edited song needs a new table, which {@link CompiledSongCache#getEventTable(Song)} builds when the
+ * song's content version changes.
+ */
+public final class SongEventTable extends DataConstants {
+  /** Flag of an event whose note is held into a later note of the same pitch that continues its tie. */
+  public static final byte TIED_TO_NEXT = 1;
+  /** Flag of an event whose note continues a tie from an earlier note, so it is not struck again. */
+  public static final byte TIED_FROM_PREVIOUS = 2;
+  public static final int REST_MIDI = -1;
+
+  private final Song song;
+  private final UUID songId;
+  private final long contentVersion;
+  private final int eventCount;
+  private final long[] onsetTicks;
+  private final long[] durationTicks;
+  private final long[] soundingEndTicks;
+  private final long[] onsetMicros;
+  private final int[] midiNumbers;
+  private final int[] staves;
+  private final int[] measures;
+  private final byte[] flags;
+  private final MusicElement[] elements;
+  // Per staff: the first event of every measure, plus the end of the staff's events.
+  private final int[][] measureFirstEvents;
+  private final long[][] measureTicks;
+  private final long[][] measureMicros;
+  private final long[] staffEndTicks;
+  private final long[] tempoTicks;
+  private final long[] tempoMicros;
+  private final int[] tempoMicrosPerQuarter;
+  private final long tickLength;
+  private final int longestStaff;
+
+  private SongEventTable(Builder builder, Song song) {
+    this.song = song;
+    this.songId = song.getId();
+    this.contentVersion = song.getContentVersion();
+    this.eventCount = builder.count;
+    this.onsetTicks = Arrays.copyOf(builder.onsetTicks, eventCount);
+    this.durationTicks = Arrays.copyOf(builder.durationTicks, eventCount);
+    this.soundingEndTicks = Arrays.copyOf(builder.soundingEndTicks, eventCount);
+    this.midiNumbers = Arrays.copyOf(builder.midiNumbers, eventCount);
+    this.staves = Arrays.copyOf(builder.staves, eventCount);
+    this.measures = Arrays.copyOf(builder.measures, eventCount);
+    this.flags = Arrays.copyOf(builder.flags, eventCount);
+    this.elements = Arrays.copyOf(builder.elements, eventCount);
+    this.measureFirstEvents = builder.measureFirstEvents;
+    this.measureTicks = builder.measureTicks;
+    this.staffEndTicks = builder.staffEndTicks;
+    this.tickLength = builder.tickLength;
+    int longest = -1;
+    for (int s = 0; s < staffEndTicks.length; ++s) {
+      if (measureTicks[s].length > 0 && (longest < 0 || staffEndTicks[s] > staffEndTicks[longest])) {
+        longest = s;
+      }
+    }
+    this.longestStaff = longest;
+
+    List<Long> ticks = new ArrayList<>();
+    List<Integer> tempos = new ArrayList<>();
+    TreeMap<Long, Integer> tempoChanges = longest < 0 ? new TreeMap<>() : builder.tempoChanges.get(longest);
+    if (tempoChanges.isEmpty() || tempoChanges.firstKey() > 0) {
+      tempoChanges.put(0L, MidiSequenceCompiler.DEFAULT_TEMPO);
+    }
+    int current = -1;
+    for (Map.Entry<Long, Integer> change : tempoChanges.entrySet()) {
+      if (change.getValue() != current) {
+        ticks.add(change.getKey());
+        tempos.add(60_000_000 / change.getValue());
+        current = change.getValue();
+      }
+    }
+    this.tempoTicks = new long[ticks.size()];
+    this.tempoMicros = new long[ticks.size()];
+    this.tempoMicrosPerQuarter = new int[ticks.size()];
+    for (int i = 0; i < tempoTicks.length; ++i) {
+      tempoTicks[i] = ticks.get(i);
+      tempoMicrosPerQuarter[i] = tempos.get(i);
+      tempoMicros[i] = i == 0 ? microsAt(tempoTicks[0], 0, 0, tempoMicrosPerQuarter[0])
+          : microsAt(tempoTicks[i], tempoTicks[i - 1], tempoMicros[i - 1], tempoMicrosPerQuarter[i - 1]);
+    }
+
+    this.onsetMicros = new long[eventCount];
+    for (int i = 0; i < eventCount; ++i) {
+      onsetMicros[i] = toMicros(onsetTicks[i]);
+    }
+    this.measureMicros = new long[measureTicks.length][];
+    for (int s = 0; s < measureTicks.length; ++s) {
+      measureMicros[s] = new long[measureTicks[s].length];
+      for (int m = 0; m < measureTicks[s].length; ++m) {
+        measureMicros[s][m] = toMicros(measureTicks[s][m]);
+      }
+    }
+  }
+
+  /**
+   * Interprets the current version of a song.
+   *
+   * @param song The song to interpret.
+   * @return The event table of the song.
+   */
+  public static SongEventTable build(Song song) {
+    List<Staff> songStaves = new ArrayList<>();
+    for (SheetMusic sheetMusic : song.getSheetMusic()) {
+      songStaves.addAll(sheetMusic.getStaves());
+    }
+    Builder builder = new Builder(songStaves.size());
+    for (int s = 0; s < songStaves.size(); ++s) {
+      builder.addStaff(s, songStaves.get(s).getMeasures());
+    }
+    return new SongEventTable(builder, song);
+  }
+
+  /**
+   * Converts a tick to the time it is played at, following the tempo map.
+   *
+   * @param tick The tick.
+   * @return The time in microseconds from the start of the song.
+   */
+  public long toMicros(long tick) {
+    int i = Arrays.binarySearch(tempoTicks, tick);
+    if (i < 0) {
+      i = -i - 2;
+    }
+    if (i < 0) {
+      return microsAt(tick, 0, 0, tempoMicrosPerQuarter[0]);
+    }
+    return microsAt(tick, tempoTicks[i], tempoMicros[i], tempoMicrosPerQuarter[i]);
+  }
+
+  /**
+   * Converts a time to the tick played at it, following the tempo map. Ticks between two microseconds round
+   * up, so a tick converted with {@link #toMicros(long)} converts back to itself.
+   *
+   * @param micros The time in microseconds from the start of the song.
+   * @return The tick.
+   */
+  public long toTick(long micros) {
+    int i = Arrays.binarySearch(tempoMicros, micros);
+    if (i < 0) {
+      i = -i - 2;
+    }
+    if (i < 0) {
+      return tickAt(micros, 0, 0, tempoMicrosPerQuarter[0]);
+    }
+    return tickAt(micros, tempoMicros[i], tempoTicks[i], tempoMicrosPerQuarter[i]);
+  }
+
+  private static long microsAt(long tick, long fromTick, long fromMicros, int microsPerQuarter) {
+    return fromMicros + (tick - fromTick) * microsPerQuarter / MidiSequenceCompiler.RESOLUTION;
+  }
+
+  private static long tickAt(long micros, long fromMicros, long fromTick, int microsPerQuarter) {
+    return fromTick - Math.floorDiv((fromMicros - micros) * MidiSequenceCompiler.RESOLUTION, microsPerQuarter);
+  }
+
+  /**
+   * Finds the event of a staff sounding at a tick.
+   *
+   * @param staff The staff index across all sheet music.
+   * @param tick The tick.
+   * @return The last event of the staff starting at or before the tick, or -1 if there is none.
+   */
+  public int eventAt(int staff, long tick) {
+    int from = measureFirstEvents[staff][0];
+    int to = measureFirstEvents[staff][measureFirstEvents[staff].length - 1];
+    int i = Arrays.binarySearch(onsetTicks, from, to, tick);
+    if (i < 0) {
+      return -i - 2 >= from ? -i - 2 : -1;
+    }
+    // Chord notes share their onset; report the last of them.
+    while (i + 1 < to && onsetTicks[i + 1] == tick) {
+      i++;
+    }
+    return i;
+  }
+
+  public UUID getSongId() {
+    return songId;
+  }
+
+  public long getContentVersion() {
+    return contentVersion;
+  }
+
+  /**
+   * Tells whether the table was built from this song object at its current version. A song rebuilt with the
+   * same ID, e.g. by {@link SongRevisionHistory#reconstruct}, counts its versions from its own start, so the
+   * ID and version alone could match a table built from different content.
+   *
+   * @param song The song to check.
+   * @return true if the table holds the song's current events.
+   */
+  public boolean isOf(Song song) {
+    return this.song == song && contentVersion == song.getContentVersion();
+  }
+
+  public int getEventCount() {
+    return eventCount;
+  }
+
+  public long getOnsetTick(int event) {
+    return onsetTicks[event];
+  }
+
+  public long getDurationTicks(int event) {
+    return durationTicks[event];
+  }
+
+  public long getEndTick(int event) {
+    return onsetTicks[event] + durationTicks[event];
+  }
+
+  /**
+   * Gets the tick a struck note stops sounding at, after every note tied into it.
+   *
+   * @param event The event index.
+   * @return The end of the last note of the tie chain the event starts, or the event's own end tick if it is
+   *         not held into a later note
+   */
+  public long getSoundingEndTick(int event) {
+    return soundingEndTicks[event];
+  }
+
+  public long getOnsetMicros(int event) {
+    return onsetMicros[event];
+  }
+
+  /**
+   * Gets the MIDI number of an event.
+   *
+   * @param event The event index.
+   * @return The MIDI number, or {@link #REST_MIDI} for a rest
+   */
+  public int getMidi(int event) {
+    return midiNumbers[event];
+  }
+
+  public int getStaff(int event) {
+    return staves[event];
+  }
+
+  public int getMeasure(int event) {
+    return measures[event];
+  }
+
+  public boolean isTiedToNext(int event) {
+    return (flags[event] & TIED_TO_NEXT) != 0;
+  }
+
+  public boolean isTiedFromPrevious(int event) {
+    return (flags[event] & TIED_FROM_PREVIOUS) != 0;
+  }
+
+  /**
+   * Gets the element an event came from: the note itself, or a note of a chord, or a rest.
+   *
+   * @param event The event index.
+   * @return The source element.
+   */
+  public MusicElement getElement(int event) {
+    return elements[event];
+  }
+
+  public int getStaffCount() {
+    return measureTicks.length;
+  }
+
+  public int getMeasureCount(int staff) {
+    return measureTicks[staff].length;
+  }
+
+  /**
+   * Gets the first event of a measure. The events of the measure run up to the first event of the next one.
+   *
+   * @param staff The staff index across all sheet music.
+   * @param measure The measure index in the staff, or the measure count for the end of the staff.
+   * @return The index of the first event.
+   */
+  public int getFirstEvent(int staff, int measure) {
+    return measureFirstEvents[staff][measure];
+  }
+
+  public long getMeasureTick(int staff, int measure) {
+    return measureTicks[staff][measure];
+  }
+
+  public long getMeasureMicros(int staff, int measure) {
+    return measureMicros[staff][measure];
+  }
+
+  /**
+   * Gets the tick a staff ends at, after its last measure.
+   *
+   * @param staff The staff index across all sheet music.
+   * @return The length of the staff in ticks.
+   */
+  public long getStaffEndTick(int staff) {
+    return staffEndTicks[staff];
+  }
+
+  /**
+   * Gets the length of the longest staff.
+   *
+   * @return The length in ticks.
+   */
+  public long getTickLength() {
+    return tickLength;
+  }
+
+  /**
+   * Gets the staff the tempo map is read from: the longest staff with measures, the first of them if several
+   * are as long.
+   *
+   * @return The staff index across all sheet music, or -1 if no staff has measures.
+   */
+  public int getLongestStaff() {
+    return longestStaff;
+  }
+
+  public int getTempoCount() {
+    return tempoTicks.length;
+  }
+
+  public long getTempoTick(int change) {
+    return tempoTicks[change];
+  }
+
+  /**
+   * Gets the tempo set by a tempo change.
+   *
+   * @param change The index of the change in tick order.
+   * @return The tempo in quarter-note beats per minute.
+   */
+  public int getTempoBpm(int change) {
+    return 60_000_000 / tempoMicrosPerQuarter[change];
+  }
+
+  public int getTempoMicrosPerQuarter(int change) {
+    return tempoMicrosPerQuarter[change];
+  }
+
+  /**
+   * Collects the events of a song staff by staff, growing its arrays as needed, and resolves the ties of each
+   * staff in the same pass. Open ties are kept in arrays indexed by MIDI number, so the pass stays linear.
+   */
+  private static class Builder {
+    private int count;
+    private long[] onsetTicks = new long[64];
+    private long[] durationTicks = new long[64];
+    private long[] soundingEndTicks = new long[64];
+    private int[] midiNumbers = new int[64];
+    private int[] staves = new int[64];
+    private int[] measures = new int[64];
+    private byte[] flags = new byte[64];
+    private MusicElement[] elements = new MusicElement[64];
+    private final int[][] measureFirstEvents;
+    private final long[][] measureTicks;
+    private final long[] staffEndTicks;
+    // The tempo changes of every staff; only those of the longest are used.
+    private final List<TreeMap<Long, Integer>> tempoChanges = new ArrayList<>();
+    private long tickLength;
+
+    private int staff;
+    private int measure;
+    private double position;
+    private int lastTempo;
+    // The open tie of every MIDI number: where it ends, its last note and the note that was struck.
+    private final long[] tieEnds = new long[128];
+    private final int[] tieNotes = new int[128];
+    private final int[] tieStruck = new int[128];
+
+    Builder(int staffCount) {
+      measureFirstEvents = new int[staffCount][];
+      measureTicks = new long[staffCount][];
+      staffEndTicks = new long[staffCount];
+    }
+
+    void addStaff(int staffIndex, List<Measure> staffMeasures) {
+      staff = staffIndex;
+      position = 0;
+      lastTempo = -1;
+      Arrays.fill(tieEnds, -1);
+      tempoChanges.add(new TreeMap<>());
+      measureFirstEvents[staff] = new int[staffMeasures.size() + 1];
+      measureTicks[staff] = new long[staffMeasures.size()];
+      for (measure = 0; measure < staffMeasures.size(); ++measure) {
+        measureFirstEvents[staff][measure] = count;
+        measureTicks[staff][measure] = MidiSequenceCompiler.toTicks(position);
+        for (MusicElement element : staffMeasures.get(measure).getMusicElements()) {
+          add(element, 1.0);
+        }
+      }
+      measureFirstEvents[staff][staffMeasures.size()] = count;
+      staffEndTicks[staff] = MidiSequenceCompiler.toTicks(position);
+      tickLength = Math.max(tickLength, staffEndTicks[staff]);
+    }
+
+    /**
+     * Adds the events of an element scaled by the enclosing tuplet ratio and advances the position.
+     */
+    private void add(MusicElement element, double scale) {
+      long onset = MidiSequenceCompiler.toTicks(position);
+      int tempo = (int) Math.round(element.getTempo());
+      if (tempo > 0 && tempo != lastTempo) {
+        tempoChanges.get(staff).put(onset, tempo);
+        lastTempo = tempo;
+      }
+      switch (element.getType()) {
+        case SONG_MUSIC_ELEMENT_NOTE -> {
+          Note note = (Note) element;
+          double length = note.getDuration() * scale;
+          addEvent(note, note.getMidiNumber(), onset, length, note.hasTie());
+          position += length;
+        }
+        case SONG_MUSIC_ELEMENT_CHORD -> {
+          double length = 0;
+          for (Note note : ((Chord) element).getNotes()) {
+            length = Math.max(length, note.getDuration() * scale);
+            addEvent(note, note.getMidiNumber(), onset, note.getDuration() * scale, note.hasTie());
+          }
+          position += length;
+        }
+        case SONG_MUSIC_ELEMENT_REST -> {
+          double length = ((DurationElement) element).getDuration() * scale;
+          addEvent(element, REST_MIDI, onset, length, false);
+          position += length;
+        }
+        case SONG_MUSIC_ELEMENT_TUPLET -> {
+          Tuplet tuplet = (Tuplet) element;
+          double ratio = MidiSequenceCompiler.tupletRatio(tuplet);
+          for (MusicElement inner : tuplet.getElements()) {
+            add(inner, scale * ratio);
+          }
+        }
+        default -> throw new IllegalArgumentException("Music element does not have a valid type!");
+      }
+    }
+
+    private void addEvent(MusicElement element, int midi, long onset, double length, boolean tied) {
+      if (count == onsetTicks.length) {
+        int capacity = count * 2;
+        onsetTicks = Arrays.copyOf(onsetTicks, capacity);
+        durationTicks = Arrays.copyOf(durationTicks, capacity);
+        soundingEndTicks = Arrays.copyOf(soundingEndTicks, capacity);
+        midiNumbers = Arrays.copyOf(midiNumbers, capacity);
+        staves = Arrays.copyOf(staves, capacity);
+        measures = Arrays.copyOf(measures, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        elements = Arrays.copyOf(elements, capacity);
+      }
+      long end = MidiSequenceCompiler.toTicks(position + length);
+      onsetTicks[count] = onset;
+      durationTicks[count] = end - onset;
+      soundingEndTicks[count] = end;
+      midiNumbers[count] = midi;
+      staves[count] = staff;
+      measures[count] = measure;
+      flags[count] = 0;
+      elements[count] = element;
+      if (midi >= 0 && midi <= 127) {
+        resolveTie(midi, onset, end, tied);
+      }
+      count++;
+    }
+
+    private void resolveTie(int midi, long onset, long end, boolean tied) {
+      int struck = count;
+      if (tieEnds[midi] == onset) {
+        flags[tieNotes[midi]] |= TIED_TO_NEXT;
+        flags[count] |= TIED_FROM_PREVIOUS;
+        struck = tieStruck[midi];
+        soundingEndTicks[struck] = end;
+      }
+      if (tied) {
+        tieEnds[midi] = end;
+        tieNotes[midi] = count;
+        tieStruck[midi] = struck;
+      } else {
+        tieEnds[midi] = -1;
+      }
+    }
+  }
+}
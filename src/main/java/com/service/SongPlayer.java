@@ -7,7 +7,6 @@ import com.model.Instrument;
 import com.model.Measure;
 import com.model.MusicElement;
 import com.model.Note;
-import com.model.ProcessedMusicElement;
 import com.model.Rest;
 import com.model.SheetMusic;
 import com.model.Song;
@@ -16,6 +15,8 @@ import com.model.Tuplet;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import org.jfugue.player.Player;
 import org.jfugue.pattern.Pattern;
 import org.json.simple.parser.ParseException;
@@ -24,335 +25,223 @@ import org.json.simple.parser.ParseException;
  * This class is responsible for playing a {@link Song} using JFugue patterns.
  * It converts musical elements into a format that can be interpreted and played by the JFugue library.
  * It processes various musical components such as notes, chords, rests, and tuplets.
+ *
+ * <p>Unlike {@link MidiSequenceCompiler}, it still walks the measures and elements of each staff rather than
+ * the events of the {@link SongEventTable}. A JFugue voice places every token right after the previous one, so
+ * the tokens must keep the written structure the table flattens away: the notes of a chord joined with "+",
+ * tuplet members with their ratio, and written durations with their dots. Only the ties, which need the whole
+ * staff, are taken from the table, whose events it visits in step with the elements.
  */
 public class SongPlayer extends DataConstants {
 
+  private static final int MAX_LAYERS = 16;
+
+  private PatternOptimizer optimizer = new PatternOptimizer();
+
   /**
    * Plays the given {@link Song} by converting it into a JFugue pattern.
+   * Each staff's tokens go through a {@link PatternOptimizer} before they are added, and staves
+   * with nothing to play are left out. Staves are voiced on the channels chosen by {@link MidiChannelAllocator};
+   * staves sharing a channel become layers of that voice. Each voice is set to the General MIDI program of its
+   * staff's instrument.
+   *
+   * <p>A pattern has a single port, so a song the allocator spreads over several ports cannot be played as
+   * one: its staves would share the voices of port 0 and the last program would win. Neither can a voice
+   * with more staves than it has layers.
    *
    * @param song The song to be played.
+   * @throws IllegalArgumentException if the song needs more than one port, or more layers than a voice has.
    */
   public Pattern play(Song song) {
+    MidiChannelAllocator.Allocation allocation = new MidiChannelAllocator().allocate(song);
+    if (allocation.getPortCount() > 1) {
+      throw new IllegalArgumentException(song.getTitle() + " needs " + allocation.getPortCount()
+          + " MIDI ports, a JFugue pattern has one");
+    }
     List<Staff> staves = new ArrayList<>();
     Pattern fullSong = new Pattern();
+    optimizer = new PatternOptimizer();
 
     for (SheetMusic sheetMusic : song.getSheetMusic()) {
       staves.addAll(sheetMusic.getStaves());
     }
+    // Staves are independent until they become voices, so each one is compiled as its own fork-join task
+    // and the results are joined in staff order to keep the voice numbers stable.
+    PatternOptimizer staffOptimizer = optimizer;
+    SongEventTable events = SongEventTable.build(song);
+    List<ForkJoinTask<List<String>>> compiled = new ArrayList<>();
     for (int i = 0; i < staves.size(); ++i) {
-      Pattern pattern = new Pattern("V" + i + " R " + staffToJFuguePattern(staves.get(i)));
+      Staff staff = staves.get(i);
+      int firstEvent = events.getFirstEvent(i, 0);
+      compiled.add(ForkJoinPool.commonPool().submit(
+          () -> staffOptimizer.optimize(staffToJFugueTokens(staff, events, firstEvent))));
+    }
+    int[] layers = new int[MidiChannelAllocator.CHANNELS_PER_PORT];
+    for (int i = 0; i < staves.size(); ++i) {
+      List<String> tokens = compiled.get(i).join();
+      if (tokens.isEmpty()) {
+        continue;
+      }
+      int channel = allocation.getChannel(i);
+      int layer = layers[channel]++;
+      if (layer == MAX_LAYERS) {
+        throw new IllegalArgumentException(song.getTitle() + " has more than " + MAX_LAYERS + " staves on channel "
+            + channel + ", a JFugue voice has " + MAX_LAYERS + " layers");
+      }
+      String voice = layer == 0 ? "V" + channel : "V" + channel + " L" + layer;
+      int program = allocation.getProgram(i);
+      if (program != MidiChannelAllocator.NO_PROGRAM) {
+        voice += " I" + program;
+      }
+      Pattern pattern = new Pattern(voice + " R " + String.join(" ", tokens));
       fullSong.add(pattern);
     }
     return fullSong;
   }
 
   /**
-   * Converts a {@link Staff} into a JFugue {@link Pattern} by processing each measure.
+   * Gets the number of staccato events generated for the last song before optimization.
    *
-   * @param staff The staff to convert.
-   * @return A JFugue Pattern representing the staff.
+   * @return The event count before optimization
    */
-  private Pattern staffToJFuguePattern(Staff staff) {
-    Pattern pattern = new Pattern();
-    for (Measure measure : staff.getMeasures()) {
-      measureToJFuguePattern(measure, pattern);
-    }
-    System.out.println(pattern);
-    return pattern;
+  public long getEventsBeforeOptimization() {
+    return optimizer.getEventsBefore();
   }
 
   /**
-   * Processes a {@link Measure} and appends its musical content to the given JFugue {@link Pattern}.
-   * Iterates over the measure's music elements by index so the "next" element can be used for tie detection.
+   * Gets the number of staccato events left for the last song after optimization.
    *
-   * @param measure The measure to process.
-   * @param pattern The pattern to which the measure's content is added.
+   * @return The event count after optimization
    */
-  private void measureToJFuguePattern(Measure measure, Pattern pattern) {
-    List<MusicElement> elements = measure.getMusicElements();
-    List<MusicElement> previousTiedElements = new ArrayList<>();
-    for (int i = 0; i < elements.size(); i++) {
-      MusicElement current = elements.get(i);
-      MusicElement next = (i < elements.size() - 1) ? elements.get(i + 1) : null;
-      ProcessedMusicElement processed = processMusicElement(current, previousTiedElements, next);
-      previousTiedElements.clear();
-      previousTiedElements.addAll(processed.tiedElements());
-      pattern.add("T" + (int) Math.round(elements.get(i).getTempo()) + " " + processed.elementJFugueString());
-    }
+  public long getEventsAfterOptimization() {
+    return optimizer.getEventsAfter();
   }
 
   /**
-   * Processes a {@link MusicElement} by determining its type and converting it into a JFugue string.
-   * Also accepts a nextElement to help determine trailing ties.
+   * Converts a {@link Staff} into staccato tokens by processing each measure.
+   * Ties come from the song's {@link SongEventTable}, which resolves them across barlines.
    *
-   * @param musicElement The musical element to process.
-   * @param previousTiedElements The list of previously tied musical elements.
-   * @param nextElement The upcoming music element in the measure (or null).
-   * @return A {@link ProcessedMusicElement} containing the JFugue string and any tied elements.
-   */
-  private ProcessedMusicElement processMusicElement(MusicElement musicElement, List<MusicElement> previousTiedElements, MusicElement nextElement) {
-    return switch (musicElement.getType()) {
-      case SONG_MUSIC_ELEMENT_NOTE ->
-          noteToJFugueString(musicElement, previousTiedElements, nextElement);
-      case SONG_MUSIC_ELEMENT_CHORD ->
-          chordToJFugueString(musicElement, previousTiedElements, nextElement);
-      case SONG_MUSIC_ELEMENT_REST ->
-          restToJFugueString(musicElement, previousTiedElements, nextElement);
-      case SONG_MUSIC_ELEMENT_TUPLET ->
-          tupletToJFugueString(musicElement, previousTiedElements, nextElement);
-      default -> throw new IllegalArgumentException("Music element does not have a valid type!");
-    };
-  }
-
-  /**
-   * Converts a note {@link MusicElement} to a JFugue string.
-   * The trailing tie marker is added only if there is an upcoming tie.
-   *
-   * @param element The note element to convert.
-   * @param previousTiedElements The list of previously tied elements.
-   * @param nextElement The upcoming music element (or null).
-   * @return A {@link ProcessedMusicElement} containing the JFugue string and tied elements.
+   * @param staff The staff to convert.
+   * @param events The event table of the song.
+   * @param firstEvent The first event of the staff in the table.
+   * @return The tokens of the staff in playing order.
    */
-  private ProcessedMusicElement noteToJFugueString(MusicElement element, List<MusicElement> previousTiedElements, MusicElement nextElement) {
-    Note note = (Note) element;
-    List<MusicElement> tiedElements = new ArrayList<>();
-    String stringPart = note.getNoteName() + elementToJFugueDurationString(element, previousTiedElements, nextElement);
-    if (note.hasTie() && hasUpcomingTie(element, nextElement)) {
-      tiedElements.add(note);
+  private List<String> staffToJFugueTokens(Staff staff, SongEventTable events, int firstEvent) {
+    StaffConverter converter = new StaffConverter(events, firstEvent);
+    for (Measure measure : staff.getMeasures()) {
+      converter.measureToJFugueTokens(measure);
     }
-    return new ProcessedMusicElement(stringPart, tiedElements);
+    return converter.tokens;
   }
 
   /**
-   * Converts a rest {@link MusicElement} to a JFugue string.
-   *
-   * @param element The rest element to convert.
-   * @param previousTiedElements The list of previously tied elements.
-   * @param nextElement The upcoming music element (or null).
-   * @return A {@link ProcessedMusicElement} containing the JFugue string and tied elements.
+   * Converts the elements of one staff, stepping through its events in the table alongside them, one per
+   * note, chord note and rest, to look up the tie markers of each note.
    */
-  private ProcessedMusicElement restToJFugueString(MusicElement element, List<MusicElement> previousTiedElements, MusicElement nextElement) {
-    Rest rest = (Rest) element;
-    List<MusicElement> tiedElements = new ArrayList<>();
-    String stringPart = "R" + elementToJFugueDurationString(element, previousTiedElements, nextElement);
-    if (rest.hasTie() && hasUpcomingTie(element, nextElement)) {
-      tiedElements.add(rest);
+  private static class StaffConverter {
+    private final SongEventTable events;
+    private final List<String> tokens = new ArrayList<>();
+    private int event;
+
+    StaffConverter(SongEventTable events, int firstEvent) {
+      this.events = events;
+      this.event = firstEvent;
     }
-    return new ProcessedMusicElement(stringPart, tiedElements);
-  }
 
-  /**
-   * Converts a chord {@link MusicElement} into a JFugue string by processing each note.
-   * For chord notes, the next element is not passed (handled as a unit).
-   *
-   * @param element The chord element to convert.
-   * @param previousTiedElements The list of previously tied elements.
-   * @param nextElement Unused for chords; can be null.
-   * @return A {@link ProcessedMusicElement} containing the chord's JFugue string and tied elements.
-   */
-  private ProcessedMusicElement chordToJFugueString(MusicElement element, List<MusicElement> previousTiedElements, MusicElement nextElement) {
-    Chord chord = (Chord) element;
-    StringBuilder chordString = new StringBuilder();
-    for (Note note : chord.getNotes()) {
-      // For chord notes, pass null for next element.
-      chordString.append(noteToJFugueString(note, previousTiedElements, null).elementJFugueString()).append("+");
-      if (note.hasTie()) {
-        previousTiedElements.add(note);
+    /**
+     * Processes a {@link Measure} and appends its musical content to the tokens, each element
+     * preceded by its tempo.
+     *
+     * @param measure The measure to process.
+     */
+    void measureToJFugueTokens(Measure measure) {
+      for (MusicElement element : measure.getMusicElements()) {
+        tokens.add("T" + (int) Math.round(element.getTempo()));
+        for (String token : processMusicElement(element).trim().split("\\s+")) {
+          if (!token.isEmpty()) {
+            tokens.add(token);
+          }
+        }
       }
     }
-    chordString.deleteCharAt(chordString.length() - 1);
-    return new ProcessedMusicElement(chordString.toString(), previousTiedElements);
-  }
 
-  /**
-   * Converts a tuplet {@link MusicElement} into a JFugue string by processing its constituent elements.
-   * For elements within the tuplet, the next element is determined from the tuplet's internal list.
-   *
-   * @param element The tuplet element to convert.
-   * @param previousTiedElements The list of previously tied elements.
-   * @param nextElement The upcoming music element outside the tuplet (unused here).
-   * @return A {@link ProcessedMusicElement} containing the tuplet's JFugue string and tied elements.
-   */
-  private ProcessedMusicElement tupletToJFugueString(MusicElement element, List<MusicElement> previousTiedElements, MusicElement nextElement) {
-    Tuplet tuplet = (Tuplet) element;
-    StringBuilder tupletString = new StringBuilder();
-    List<MusicElement> elems = tuplet.getElements();
-    for (int i = 0; i < elems.size(); i++) {
-      MusicElement current = elems.get(i);
-      MusicElement nextInTuplet = (i < elems.size() - 1) ? elems.get(i + 1) : null;
-      ProcessedMusicElement processed = processMusicElement(current, previousTiedElements, nextInTuplet);
-      tupletString.append(processed.elementJFugueString())
-          .append("*").append(tuplet.getSubdivisions()).append(":").append(tuplet.getImpliedDivision()).append(" ");
-      previousTiedElements = processed.tiedElements();
+    /**
+     * Processes a {@link MusicElement} by determining its type and converting it into a JFugue string.
+     *
+     * @param musicElement The musical element to process.
+     * @return The JFugue string of the element.
+     */
+    private String processMusicElement(MusicElement musicElement) {
+      return switch (musicElement.getType()) {
+        case SONG_MUSIC_ELEMENT_NOTE -> noteToJFugueString((Note) musicElement);
+        case SONG_MUSIC_ELEMENT_CHORD -> chordToJFugueString((Chord) musicElement);
+        case SONG_MUSIC_ELEMENT_REST -> {
+          event++;
+          yield "R" + durationString((Rest) musicElement, false, false);
+        }
+        case SONG_MUSIC_ELEMENT_TUPLET -> tupletToJFugueString((Tuplet) musicElement);
+        default -> throw new IllegalArgumentException("Music element does not have a valid type!");
+      };
     }
-    return new ProcessedMusicElement(tupletString.toString(), previousTiedElements);
-  }
-
-  /**
-   * Converts a musical element's duration into a JFugue-compatible duration string.
-   * It prefixes a "-" if the element is tied from a previous element and appends a "-" only if there is an upcoming tie.
-   *
-   * @param element The musical element whose duration is to be converted.
-   * @param previousTiedElements The list of previously tied elements.
-   * @param nextElement The upcoming music element (or null).
-   * @return A string representing the duration in JFugue format.
-   */
-  private String elementToJFugueDurationString(MusicElement element, List<MusicElement> previousTiedElements, MusicElement nextElement) {
-    DurationElement durationElement = (DurationElement) element;
-    String prefix = previousTiedToCurrent(element, previousTiedElements) ? "-" : "";
-    String suffix = hasUpcomingTie(element, nextElement) ? "-" : "";
-    return prefix + durationElement.getDurationChar() + suffix + ".".repeat(Math.max(0, durationElement.getDotted()));
-  }
 
-  /**
-   * Checks whether the current musical element is tied to a previous element.
-   * For Notes, it compares pitch; for Chords it checks each note; for Tuplets it checks the last element; for Rests it compares durationChar.
-   *
-   * @param current The current musical element.
-   * @param previousTiedElements The list of previously tied elements.
-   * @return true if current is tied to a previous element; false otherwise.
-   */
-  private boolean previousTiedToCurrent(MusicElement current, List<MusicElement> previousTiedElements) {
-    if (previousTiedElements == null || previousTiedElements.isEmpty()) {
-      return false;
+    /**
+     * Converts a note to a JFugue string with the tie markers the event table resolved for it.
+     *
+     * @param note The note to convert.
+     * @return The JFugue string of the note.
+     */
+    private String noteToJFugueString(Note note) {
+      int index = event++;
+      return note.getNoteName()
+          + durationString(note, events.isTiedFromPrevious(index), events.isTiedToNext(index));
     }
-    MusicElement prev = previousTiedElements.get(previousTiedElements.size() - 1);
-    String currentType = current.getType();
-    String prevType = prev.getType();
 
-    // For Note: check if current note has tie and same pitch as previous.
-    if (currentType.equals(SONG_MUSIC_ELEMENT_NOTE)) {
-      Note currentNote = (Note) current;
-      if (!currentNote.hasTie()) return false;
-      if (prevType.equals(SONG_MUSIC_ELEMENT_NOTE)) {
-        return currentNote.getNoteName().equals(((Note) prev).getNoteName());
-      } else if (prevType.equals(SONG_MUSIC_ELEMENT_CHORD)) {
-        Chord prevChord = (Chord) prev;
-        for (Note n : prevChord.getNotes()) {
-          if (n.hasTie() && currentNote.getNoteName().equals(n.getNoteName())) {
-            return true;
-          }
-        }
-        return false;
-      } else if (prevType.equals(SONG_MUSIC_ELEMENT_TUPLET)) {
-        Tuplet prevTuplet = (Tuplet) prev;
-        List<MusicElement> tupElements = prevTuplet.getElements();
-        if (!tupElements.isEmpty()) {
-          MusicElement lastInTuplet = tupElements.get(tupElements.size() - 1);
-          return previousTiedToCurrent(current, List.of(lastInTuplet));
-        }
-        return false;
-      } else if (prevType.equals(SONG_MUSIC_ELEMENT_REST)) {
-        return false;
-      }
-    }
-    // For Chord: check each tied note.
-    else if (currentType.equals(SONG_MUSIC_ELEMENT_CHORD)) {
-      Chord currentChord = (Chord) current;
-      for (Note currNote : currentChord.getNotes()) {
-        if (!currNote.hasTie()) continue;
-        if (prevType.equals(SONG_MUSIC_ELEMENT_NOTE)) {
-          if (currNote.getNoteName().equals(((Note) prev).getNoteName())) {
-            return true;
-          }
-        } else if (prevType.equals(SONG_MUSIC_ELEMENT_CHORD)) {
-          Chord prevChord = (Chord) prev;
-          for (Note prevNote : prevChord.getNotes()) {
-            if (prevNote.hasTie() && currNote.getNoteName().equals(prevNote.getNoteName())) {
-              return true;
-            }
-          }
-        } else if (prevType.equals(SONG_MUSIC_ELEMENT_TUPLET)) {
-          Tuplet prevTuplet = (Tuplet) prev;
-          List<MusicElement> tupElements = prevTuplet.getElements();
-          if (!tupElements.isEmpty()) {
-            MusicElement lastInTuplet = tupElements.get(tupElements.size() - 1);
-            if (previousTiedToCurrent(currNote, List.of(lastInTuplet))) {
-              return true;
-            }
-          }
+    /**
+     * Converts a chord into a JFugue string by joining its notes with "+".
+     *
+     * @param chord The chord to convert.
+     * @return The JFugue string of the chord.
+     */
+    private String chordToJFugueString(Chord chord) {
+      StringBuilder chordString = new StringBuilder();
+      for (Note note : chord.getNotes()) {
+        if (chordString.length() > 0) {
+          chordString.append("+");
         }
+        chordString.append(noteToJFugueString(note));
       }
-      return false;
-    }
-    // For Tuplet: only check the first element.
-    else if (currentType.equals(SONG_MUSIC_ELEMENT_TUPLET)) {
-      Tuplet currentTuplet = (Tuplet) current;
-      List<MusicElement> currentElements = currentTuplet.getElements();
-      if (!currentElements.isEmpty()) {
-        MusicElement firstInTuplet = currentElements.get(0);
-        return previousTiedToCurrent(firstInTuplet, previousTiedElements);
-      }
-      return false;
+      return chordString.toString();
     }
-    // For Rest: check that previous is also a Rest with same duration.
-    else if (currentType.equals(SONG_MUSIC_ELEMENT_REST)) {
-      Rest currentRest = (Rest) current;
-      if (!currentRest.hasTie()) return false;
-      if (prevType.equals(SONG_MUSIC_ELEMENT_REST)) {
-        Rest prevRest = (Rest) prev;
-        return currentRest.getDurationChar() == (prevRest.getDurationChar());
+
+    /**
+     * Converts a tuplet into a JFugue string by processing its constituent elements, each followed
+     * by the tuplet ratio.
+     *
+     * @param tuplet The tuplet to convert.
+     * @return The JFugue string of the tuplet.
+     */
+    private String tupletToJFugueString(Tuplet tuplet) {
+      StringBuilder tupletString = new StringBuilder();
+      for (MusicElement element : tuplet.getElements()) {
+        tupletString.append(processMusicElement(element))
+            .append("*").append(tuplet.getSubdivisions()).append(":").append(tuplet.getImpliedDivision()).append(" ");
       }
-      return false;
+      return tupletString.toString();
     }
-    return false;
-  }
 
-  /**
-   * Returns true if the current element has an upcoming tie connecting it to the next element.
-   * For a Note, if the next element (note or chord) has a matching pitch;
-   * for a Chord, if any note within is tied and matches a note in the next element;
-   * for a Rest, if the next rest has the same duration; for a Tuplet, check its last element.
-   *
-   * @param current The current musical element.
-   * @param next The upcoming musical element (or null).
-   * @return true if there is an upcoming tie; false otherwise.
-   */
-  private boolean hasUpcomingTie(MusicElement current, MusicElement next) {
-    if (next == null) return false;
-    String currentType = current.getType();
-    if (currentType.equals(SONG_MUSIC_ELEMENT_NOTE)) {
-      Note currNote = (Note) current;
-      if (!currNote.hasTie()) return false;
-      if (next.getType().equals(SONG_MUSIC_ELEMENT_NOTE)) {
-        Note nextNote = (Note) next;
-        return currNote.getNoteName().equals(nextNote.getNoteName());
-      } else if (next.getType().equals(SONG_MUSIC_ELEMENT_CHORD)) {
-        Chord nextChord = (Chord) next;
-        for (Note n : nextChord.getNotes()) {
-          if (currNote.getNoteName().equals(n.getNoteName())) return true;
-        }
-      }
-    } else if (currentType.equals(SONG_MUSIC_ELEMENT_CHORD)) {
-      Chord currChord = (Chord) current;
-      if (next.getType().equals(SONG_MUSIC_ELEMENT_CHORD)) {
-        Chord nextChord = (Chord) next;
-        for (Note currNote : currChord.getNotes()) {
-          if (!currNote.hasTie()) continue;
-          for (Note nextNote : nextChord.getNotes()) {
-            if (currNote.getNoteName().equals(nextNote.getNoteName())) return true;
-          }
-        }
-      } else if (next.getType().equals(SONG_MUSIC_ELEMENT_NOTE)) {
-        Note nextNote = (Note) next;
-        for (Note currNote : currChord.getNotes()) {
-          if (currNote.hasTie() && currNote.getNoteName().equals(nextNote.getNoteName())) return true;
-        }
-      }
-    } else if (currentType.equals(SONG_MUSIC_ELEMENT_REST)) {
-      if (next.getType().equals(SONG_MUSIC_ELEMENT_REST)) {
-        Rest currRest = (Rest) current;
-        Rest nextRest = (Rest) next;
-        return currRest.hasTie() && nextRest.hasTie() && currRest.getDurationChar() == (nextRest.getDurationChar());
-      }
-    } else if (currentType.equals(SONG_MUSIC_ELEMENT_TUPLET)) {
-      Tuplet currTuplet = (Tuplet) current;
-      if (!currTuplet.getElements().isEmpty()) {
-        MusicElement lastInTuplet = currTuplet.getElements().get(currTuplet.getElements().size() - 1);
-        return hasUpcomingTie(lastInTuplet, next);
-      }
+    /**
+     * Converts an element's duration into a JFugue duration string, prefixed with "-" if it continues a tie
+     * and followed by "-" if it is held into the next note.
+     *
+     * @param element The element whose duration is to be converted.
+     * @param tiedFromPrevious Whether the element continues a tie.
+     * @param tiedToNext Whether the element is held into a later note.
+     * @return A string representing the duration in JFugue format.
+     */
+    private static String durationString(DurationElement element, boolean tiedFromPrevious, boolean tiedToNext) {
+      return (tiedFromPrevious ? "-" : "") + element.getDurationChar() + (tiedToNext ? "-" : "")
+          + ".".repeat(Math.max(0, element.getDotted()));
     }
-    return false;
   }
 
   /**
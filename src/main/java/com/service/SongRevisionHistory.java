@@ -0,0 +1,491 @@
+package com.service;
+
+import com.data.SongJsonParser;
+import com.model.DataConstants;
+import com.model.Instrument;
+import com.model.Measure;
+import com.model.SheetMusic;
+import com.model.Song;
+import com.model.SongRevision;
+import com.model.Staff;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Records a revision every time a song is saved and rebuilds any earlier revision on request.
+ *
+ * <p>Each song has an append-only log in {@link DataConstants#REVISION_DIRECTORY} with one JSON object per line.
+ * A revision lists only the measure positions whose structural hash (see {@link SongContentHasher}) changed since
+ * the previous revision, and the contents of a measure are stored once per distinct hash since the last checkpoint.
+ * Every {@link #CHECKPOINT_INTERVAL} revisions a checkpoint lists the hash and the contents of every position, so it
+ * stands on its own: rebuilding a revision only parses and replays the revisions from the nearest checkpoint at or
+ * before it.
+ */
+@SuppressWarnings("unchecked")
+public class SongRevisionHistory extends DataConstants {
+  public static final int CHECKPOINT_INTERVAL = 16;
+  private static SongRevisionHistory instance;
+
+  private final Path directory;
+  private final Map<UUID, RevisionState> latestStates = new HashMap<>();
+
+  /**
+   * Latest known revision of a song: its number, header, measure hash grid and the hashes stored since the last
+   * checkpoint.
+   */
+  private static class RevisionState {
+    private int revision = -1;
+    private String header = "";
+    private List<List<List<String>>> grid = new ArrayList<>();
+    private final Set<String> storedHashes = new HashSet<>();
+  }
+
+  /**
+   * Creates a revision history stored in the given directory.
+   *
+   * @param directory The directory holding one revision log per song.
+   */
+  public SongRevisionHistory(String directory) {
+    this.directory = Paths.get(directory);
+  }
+
+  /**
+   * Gets the singleton revision history stored in the default revision directory.
+   *
+   * @return The singleton instance
+   */
+  public static SongRevisionHistory getInstance() {
+    if (instance == null) {
+      instance = new SongRevisionHistory(REVISION_DIRECTORY);
+    }
+    return instance;
+  }
+
+  /**
+   * Records a revision for every song in the list. Songs that did not change since their last revision are skipped.
+   *
+   * @param songs The songs that were just saved.
+   * @return True if every revision was written, false if any write failed.
+   */
+  public boolean recordRevisions(List<Song> songs) {
+    boolean success = true;
+    for (Song song : songs) {
+      try {
+        recordRevision(song);
+      } catch (IOException | ParseException e) {
+        System.err.println("Failed to record revision for song \"" + song.getTitle() + "\": " + e.getMessage());
+        success = false;
+      }
+    }
+    return success;
+  }
+
+  /**
+   * Records a new revision of the song holding only the measures that changed since the previous revision.
+   *
+   * @param song The song to record.
+   * @return The new revision number, or -1 if nothing changed since the last revision.
+   * @throws IOException if the revision log cannot be read or written.
+   * @throws ParseException if the existing revision log is malformed.
+   */
+  public synchronized int recordRevision(Song song) throws IOException, ParseException {
+    RevisionState state = getLatestState(song.getId());
+    List<List<List<String>>> grid = hashGrid(song);
+    JSONObject header = getHeaderJSON(song);
+    String headerString = header.toJSONString();
+
+    JSONArray changes = new JSONArray();
+    JSONObject measures = new JSONObject();
+    collectChanges(song, grid, state.grid, state.storedHashes, changes, measures);
+    if (state.revision >= 0 && changes.isEmpty() && headerString.equals(state.header)) {
+      return -1;
+    }
+    int revision = state.revision + 1;
+    boolean checkpoint = revision % CHECKPOINT_INTERVAL == 0;
+    if (checkpoint) {
+      changes.clear();
+      measures.clear();
+      collectChanges(song, grid, null, Set.of(), changes, measures);
+    }
+
+    JSONObject revisionJSON = new JSONObject();
+    revisionJSON.put(REVISION_NUMBER, revision);
+    revisionJSON.put(REVISION_TIMESTAMP, System.currentTimeMillis());
+    revisionJSON.put(REVISION_CHECKPOINT, checkpoint);
+    revisionJSON.put(REVISION_HEADER, header);
+    revisionJSON.put(REVISION_CHANGES, changes);
+    revisionJSON.put(REVISION_MEASURES, measures);
+
+    Files.createDirectories(directory);
+    Files.writeString(logPath(song.getId()), revisionJSON.toJSONString() + System.lineSeparator(),
+        StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+    state.revision = revision;
+    state.header = headerString;
+    state.grid = grid;
+    if (checkpoint) {
+      state.storedHashes.clear();
+    }
+    state.storedHashes.addAll(measures.keySet());
+    return revision;
+  }
+
+  /**
+   * Lists the measure positions whose hash differs from an earlier grid, with the contents of every listed hash
+   * that is not stored yet.
+   *
+   * @param song The song being recorded.
+   * @param grid The measure hashes of the song.
+   * @param previous The measure hashes of the previous revision, or null to list every position.
+   * @param stored The hashes whose contents are already stored.
+   * @param changes Receives the changed positions.
+   * @param measures Receives the contents of new hashes, keyed by hash.
+   */
+  private static void collectChanges(Song song, List<List<List<String>>> grid, List<List<List<String>>> previous,
+      Set<String> stored, JSONArray changes, JSONObject measures) {
+    for (int sheet = 0; sheet < grid.size(); sheet++) {
+      for (int staff = 0; staff < grid.get(sheet).size(); staff++) {
+        List<String> hashes = grid.get(sheet).get(staff);
+        for (int measure = 0; measure < hashes.size(); measure++) {
+          String hash = hashes.get(measure);
+          if (previous != null && hash.equals(hashAt(previous, sheet, staff, measure))) {
+            continue;
+          }
+          changes.add(getChangeJSON(sheet, staff, measure, hash));
+          if (!stored.contains(hash) && !measures.containsKey(hash)) {
+            Measure changed = song.getSheetMusic().get(sheet).getStaves().get(staff).getMeasures().get(measure);
+            measures.put(hash, DataWriter.getMeasureJSON(changed));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Lists the stored revisions of a song, oldest first.
+   *
+   * @param songId The ID of the song.
+   * @return The revisions, or an empty list if the song has no history.
+   * @throws IOException if the revision log cannot be read.
+   * @throws ParseException if the revision log is malformed.
+   */
+  public synchronized List<SongRevision> getRevisions(UUID songId) throws IOException, ParseException {
+    List<SongRevision> revisions = new ArrayList<>();
+    for (JSONObject revisionJSON : readLog(songId, Integer.MAX_VALUE)) {
+      revisions.add(new SongRevision(
+          ((Number) revisionJSON.get(REVISION_NUMBER)).intValue(),
+          ((Number) revisionJSON.get(REVISION_TIMESTAMP)).longValue(),
+          (Boolean) revisionJSON.get(REVISION_CHECKPOINT),
+          ((JSONArray) revisionJSON.get(REVISION_CHANGES)).size()));
+    }
+    return revisions;
+  }
+
+  /**
+   * Rebuilds a song exactly as it was at the given revision.
+   * The publisher is not part of the revision log, so the rebuilt song has none.
+   *
+   * @param songId The ID of the song.
+   * @param revision The revision number to rebuild.
+   * @return The song at that revision.
+   * @throws IOException if the revision log cannot be read.
+   * @throws ParseException if the revision log is malformed.
+   * @throws IllegalArgumentException if the revision does not exist.
+   */
+  public synchronized Song reconstruct(UUID songId, int revision) throws IOException, ParseException {
+    List<JSONObject> log = revision < 0 ? List.of() : readFromCheckpoint(songId, revision);
+    if (log.isEmpty() || revisionNumber(log.get(log.size() - 1)) != revision) {
+      throw new IllegalArgumentException("Song " + songId + " has no revision " + revision);
+    }
+
+    Map<String, JSONObject> measureJSON = new HashMap<>();
+    for (JSONObject revisionJSON : log) {
+      measureJSON.putAll((JSONObject) revisionJSON.get(REVISION_MEASURES));
+    }
+    List<List<List<String>>> grid = replay(log);
+
+    JSONObject header = (JSONObject) log.get(log.size() - 1).get(REVISION_HEADER);
+    SongJsonParser parser = new SongJsonParser();
+    List<SheetMusic> sheetMusic = new ArrayList<>();
+    JSONArray sheetMusicJSON = (JSONArray) header.get(SONG_SHEET_MUSIC);
+    for (int sheet = 0; sheet < sheetMusicJSON.size(); sheet++) {
+      JSONObject sheetJSON = (JSONObject) sheetMusicJSON.get(sheet);
+      JSONObject instrumentJSON = (JSONObject) sheetJSON.get(SONG_INSTRUMENT);
+      List<String> clefTypes = new ArrayList<>((JSONArray) instrumentJSON.get(SONG_INSTRUMENT_CLEF_TYPES));
+      Instrument instrument = new Instrument(clefTypes, (String) instrumentJSON.get(SONG_INSTRUMENT_NAME));
+
+      List<Staff> staves = new ArrayList<>();
+      JSONArray stavesJSON = (JSONArray) sheetJSON.get(SONG_STAVES);
+      for (int staff = 0; staff < stavesJSON.size(); staff++) {
+        List<Measure> measures = new ArrayList<>();
+        for (String hash : grid.get(sheet).get(staff)) {
+          measures.add(parser.getMeasure(measureJSON.get(hash)));
+        }
+        staves.add(new Staff((String) ((JSONObject) stavesJSON.get(staff)).get(SONG_STAFF_CLEF_TYPE), measures));
+      }
+      sheetMusic.add(new SheetMusic(instrument, staves));
+    }
+
+    Song song = new Song(songId, (String) header.get(SONG_TITLE), (String) header.get(SONG_COMPOSER),
+        ((Number) header.get(SONG_PICK_UP)).intValue(), sheetMusic);
+    song.setGenres(new ArrayList<>((JSONArray) header.get(SONG_GENRE)));
+    return song;
+  }
+
+  /**
+   * Gets the latest revision state of a song, replaying its log the first time the song is seen.
+   *
+   * @param songId The ID of the song.
+   * @return The latest state, with revision -1 if the song has no history.
+   * @throws IOException if the revision log cannot be read.
+   * @throws ParseException if the revision log is malformed.
+   */
+  private RevisionState getLatestState(UUID songId) throws IOException, ParseException {
+    RevisionState state = latestStates.get(songId);
+    if (state != null) {
+      return state;
+    }
+    state = new RevisionState();
+    List<JSONObject> log = readFromCheckpoint(songId, Integer.MAX_VALUE);
+    if (!log.isEmpty()) {
+      state.revision = revisionNumber(log.get(log.size() - 1));
+      state.header = ((JSONObject) log.get(log.size() - 1).get(REVISION_HEADER)).toJSONString();
+      state.grid = replay(log);
+      for (JSONObject revisionJSON : log) {
+        state.storedHashes.addAll(((JSONObject) revisionJSON.get(REVISION_MEASURES)).keySet());
+      }
+    }
+    latestStates.put(songId, state);
+    return state;
+  }
+
+  /**
+   * Replays the deltas from the last checkpoint in the log to the end of the log.
+   *
+   * @param log The revisions to replay, oldest first.
+   * @return The measure hash grid of the last revision in the log.
+   */
+  private List<List<List<String>>> replay(List<JSONObject> log) {
+    int start = log.size() - 1;
+    while (start > 0 && !(Boolean) log.get(start).get(REVISION_CHECKPOINT)) {
+      start--;
+    }
+    List<List<List<String>>> grid = new ArrayList<>();
+    for (int i = start; i < log.size(); i++) {
+      reshape(grid, (JSONObject) log.get(i).get(REVISION_HEADER));
+      for (Object changeObject : (JSONArray) log.get(i).get(REVISION_CHANGES)) {
+        JSONObject change = (JSONObject) changeObject;
+        grid.get(((Number) change.get(REVISION_CHANGE_SHEET)).intValue())
+            .get(((Number) change.get(REVISION_CHANGE_STAFF)).intValue())
+            .set(((Number) change.get(REVISION_CHANGE_MEASURE)).intValue(), (String) change.get(REVISION_CHANGE_HASH));
+      }
+    }
+    return grid;
+  }
+
+  /**
+   * Grows or shrinks the hash grid to the sheet, staff and measure counts described by a revision header.
+   *
+   * @param grid The grid to reshape in place.
+   * @param header The revision header.
+   */
+  private void reshape(List<List<List<String>>> grid, JSONObject header) {
+    JSONArray sheetMusicJSON = (JSONArray) header.get(SONG_SHEET_MUSIC);
+    resize(grid, sheetMusicJSON.size(), ArrayList::new);
+    for (int sheet = 0; sheet < sheetMusicJSON.size(); sheet++) {
+      JSONArray stavesJSON = (JSONArray) ((JSONObject) sheetMusicJSON.get(sheet)).get(SONG_STAVES);
+      List<List<String>> staves = grid.get(sheet);
+      resize(staves, stavesJSON.size(), ArrayList::new);
+      for (int staff = 0; staff < stavesJSON.size(); staff++) {
+        int measureCount = ((Number) ((JSONObject) stavesJSON.get(staff)).get(REVISION_MEASURE_COUNT)).intValue();
+        resize(staves.get(staff), measureCount, () -> null);
+      }
+    }
+  }
+
+  private static <T> void resize(List<T> list, int size, Supplier<T> filler) {
+    while (list.size() > size) {
+      list.remove(list.size() - 1);
+    }
+    while (list.size() < size) {
+      list.add(filler.get());
+    }
+  }
+
+  /**
+   * Reads the revision log of a song up to and including the given revision.
+   *
+   * @param songId The ID of the song.
+   * @param lastRevision The last revision to read.
+   * @return The parsed revisions, oldest first.
+   * @throws IOException if the revision log cannot be read.
+   * @throws ParseException if the revision log is malformed.
+   */
+  private List<JSONObject> readLog(UUID songId, int lastRevision) throws IOException, ParseException {
+    List<JSONObject> log = new ArrayList<>();
+    JSONParser parser = new JSONParser();
+    for (String line : readLines(songId, lastRevision)) {
+      log.add((JSONObject) parser.parse(line));
+    }
+    return log;
+  }
+
+  /**
+   * Reads the revisions of a song from the last checkpoint at or before the given revision up to that revision.
+   * The lines before the checkpoint are not parsed.
+   *
+   * @param songId The ID of the song.
+   * @param lastRevision The last revision to read.
+   * @return The parsed revisions, oldest first, starting with a checkpoint.
+   * @throws IOException if the revision log cannot be read.
+   * @throws ParseException if the revision log is malformed.
+   */
+  private List<JSONObject> readFromCheckpoint(UUID songId, int lastRevision) throws IOException, ParseException {
+    List<String> lines = readLines(songId, lastRevision);
+    JSONParser parser = new JSONParser();
+    int start = lines.size();
+    List<JSONObject> reversed = new ArrayList<>();
+    while (start > 0) {
+      JSONObject revisionJSON = (JSONObject) parser.parse(lines.get(--start));
+      reversed.add(revisionJSON);
+      if ((Boolean) revisionJSON.get(REVISION_CHECKPOINT)) {
+        break;
+      }
+    }
+    List<JSONObject> log = new ArrayList<>(reversed.size());
+    for (int i = reversed.size() - 1; i >= 0; i--) {
+      log.add(reversed.get(i));
+    }
+    return log;
+  }
+
+  /**
+   * Reads the lines of the revision log of a song up to and including the given revision, without parsing them.
+   *
+   * @param songId The ID of the song.
+   * @param lastRevision The last revision to read.
+   * @return One line per revision, oldest first.
+   * @throws IOException if the revision log cannot be read.
+   */
+  private List<String> readLines(UUID songId, int lastRevision) throws IOException {
+    List<String> lines = new ArrayList<>();
+    Path path = logPath(songId);
+    if (!Files.exists(path)) {
+      return lines;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      String line;
+      while (lines.size() <= lastRevision && (line = reader.readLine()) != null) {
+        if (!line.isBlank()) {
+          lines.add(line);
+        }
+      }
+    }
+    return lines;
+  }
+
+  private static int revisionNumber(JSONObject revisionJSON) {
+    return ((Number) revisionJSON.get(REVISION_NUMBER)).intValue();
+  }
+
+  /**
+   * Hashes every measure of the song.
+   *
+   * @param song The song to hash.
+   * @return Measure hashes indexed by sheet music, staff and measure.
+   */
+  private List<List<List<String>>> hashGrid(Song song) {
+    List<List<List<String>>> grid = new ArrayList<>();
+    for (SheetMusic sheetMusic : song.getSheetMusic()) {
+      List<List<String>> staves = new ArrayList<>();
+      for (Staff staff : sheetMusic.getStaves()) {
+        List<String> hashes = new ArrayList<>();
+        for (Measure measure : staff.getMeasures()) {
+          hashes.add(SongContentHasher.hashMeasure(measure));
+        }
+        staves.add(hashes);
+      }
+      grid.add(staves);
+    }
+    return grid;
+  }
+
+  private static String hashAt(List<List<List<String>>> grid, int sheet, int staff, int measure) {
+    if (sheet >= grid.size() || staff >= grid.get(sheet).size() || measure >= grid.get(sheet).get(staff).size()) {
+      return null;
+    }
+    return grid.get(sheet).get(staff).get(measure);
+  }
+
+  /**
+   * Builds the revision header: song details plus the shape of every staff, without measure contents.
+   *
+   * @param song The song to describe.
+   * @return A JSONObject describing the song.
+   */
+  private JSONObject getHeaderJSON(Song song) {
+    JSONObject header = new JSONObject();
+    header.put(SONG_TITLE, song.getTitle());
+    header.put(SONG_COMPOSER, song.getComposer());
+    header.put(SONG_PICK_UP, song.getPickUp());
+    JSONArray genres = new JSONArray();
+    if (song.getGenres() != null) {
+      genres.addAll(song.getGenres());
+    }
+    header.put(SONG_GENRE, genres);
+
+    JSONArray sheetMusicJSON = new JSONArray();
+    for (SheetMusic sheetMusic : song.getSheetMusic()) {
+      JSONObject instrumentJSON = new JSONObject();
+      instrumentJSON.put(SONG_INSTRUMENT_NAME, sheetMusic.getInstrument().getInstrumentName());
+      JSONArray clefTypes = new JSONArray();
+      clefTypes.addAll(sheetMusic.getInstrument().getClefTypes());
+      instrumentJSON.put(SONG_INSTRUMENT_CLEF_TYPES, clefTypes);
+
+      JSONArray stavesJSON = new JSONArray();
+      for (Staff staff : sheetMusic.getStaves()) {
+        JSONObject staffJSON = new JSONObject();
+        staffJSON.put(SONG_STAFF_CLEF_TYPE, staff.getClefType());
+        staffJSON.put(REVISION_MEASURE_COUNT, staff.getMeasures().size());
+        stavesJSON.add(staffJSON);
+      }
+
+      JSONObject sheetJSON = new JSONObject();
+      sheetJSON.put(SONG_INSTRUMENT, instrumentJSON);
+      sheetJSON.put(SONG_STAVES, stavesJSON);
+      sheetMusicJSON.add(sheetJSON);
+    }
+    header.put(SONG_SHEET_MUSIC, sheetMusicJSON);
+    return header;
+  }
+
+  private static JSONObject getChangeJSON(int sheet, int staff, int measure, String hash) {
+    JSONObject change = new JSONObject();
+    change.put(REVISION_CHANGE_SHEET, sheet);
+    change.put(REVISION_CHANGE_STAFF, staff);
+    change.put(REVISION_CHANGE_MEASURE, measure);
+    change.put(REVISION_CHANGE_HASH, hash);
+    return change;
+  }
+
+  private Path logPath(UUID songId) {
+    return directory.resolve(songId + ".jsonl");
+  }
+}
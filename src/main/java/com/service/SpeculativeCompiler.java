@@ -0,0 +1,244 @@
+package com.service;
+
+import com.model.Song;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.InvalidMidiDataException;
+
+/**
+ * Prepares the song a user is looking at before they open it: builds its event table, which the score layout
+ * and playback both read, and compiles it into the {@link CompiledSongCache}. Audio devices are left to the
+ * play and prefetch paths, so browsing never opens a synthesizer. Jobs run on low-priority background threads and compile a window of measures at a time, so a job whose song
+ * is no longer selected stops at the next window. Only {@link #getMaxConcurrent()} jobs run at once, counting
+ * cancelled jobs until they stop; a song selected while the cap is reached is held and started as soon as a job
+ * ends, and a song selected after it replaces it, so only the latest selection waits. At most
+ * {@link #MAX_READY} prepared songs are remembered.
+ *
+ * <p>Every play is checked against the songs speculated on, giving the hit rate: the share of plays of a
+ * speculated song that found it already compiled.
+ */
+public class SpeculativeCompiler {
+  public static final int DEFAULT_MAX_CONCURRENT = 1;
+  /** The most prepared songs remembered for the hit rate; the least recently prepared are forgotten first. */
+  public static final int MAX_READY = 32;
+  private static final int WINDOW_MEASURES = 16;
+
+  private final CompiledSongCache cache;
+  private final int maxConcurrent;
+  private final ThreadPoolExecutor executor;
+  // Each speculated song and the content version it was compiled at, until it is played.
+  private final Map<UUID, Prepared> ready = new LinkedHashMap<>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<UUID, Prepared> eldest) {
+      return size() > MAX_READY;
+    }
+  };
+  private Song current;
+  private Future<?> job;
+  // The latest song selected while the cap was reached, started when a job ends.
+  private Song pending;
+  private int running;
+  private long started;
+  private long completed;
+  private long cancelled;
+  private long deferred;
+  private long hits;
+  private long misses;
+
+  /**
+   * Creates a speculative compiler running {@link #DEFAULT_MAX_CONCURRENT} job at a time.
+   *
+   * @param cache The cache songs are compiled into.
+   */
+  public SpeculativeCompiler(CompiledSongCache cache) {
+    this(cache, DEFAULT_MAX_CONCURRENT);
+  }
+
+  /**
+   * Creates a speculative compiler.
+   *
+   * @param cache The cache songs are compiled into.
+   * @param maxConcurrent The most jobs that may run at once, including cancelled ones still winding down
+   *     to their next window; a song selected meanwhile waits for one of them to end.
+   */
+  public SpeculativeCompiler(CompiledSongCache cache, int maxConcurrent) {
+    if (maxConcurrent < 1) {
+      throw new IllegalArgumentException("At least one speculative job must be allowed: " + maxConcurrent);
+    }
+    this.cache = cache;
+    this.maxConcurrent = maxConcurrent;
+    this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(), r -> {
+          Thread thread = new Thread(r, "Speculative-Compile");
+          thread.setDaemon(true);
+          thread.setPriority(Thread.MIN_PRIORITY);
+          return thread;
+        });
+  }
+
+  /**
+   * Starts preparing a song that was selected or hovered, cancelling the job for the song selected before.
+   * Nothing happens if the song is already being prepared, waiting to be, or compiled. If the job cap is
+   * reached, the song is held and started once a job ends.
+   *
+   * @param song The song to prepare, or null to cancel the current job.
+   * @return The job, or null if none was started now.
+   */
+  public synchronized Future<?> speculate(Song song) {
+    if (song != null && (song == pending || (song == current && job != null && !job.isDone()))) {
+      return null;
+    }
+    cancel();
+    if (song == null || isReady(song)) {
+      return null;
+    }
+    current = song;
+    if (running >= maxConcurrent) {
+      pending = song;
+      deferred++;
+      return null;
+    }
+    return submit(song);
+  }
+
+  // Must hold the lock.
+  private Future<?> submit(Song song) {
+    started++;
+    job = executor.submit(() -> prepare(song));
+    return job;
+  }
+
+  /**
+   * Cancels the job of the current song, if one is running, or forgets it if it is waiting to start.
+   */
+  public synchronized void cancel() {
+    if (job != null && !job.isDone() && job.cancel(true)) {
+      cancelled++;
+    }
+    job = null;
+    current = null;
+    pending = null;
+  }
+
+  private void prepare(Song song) {
+    synchronized (this) {
+      running++;
+    }
+    try {
+      long version = song.getContentVersion();
+      SongEventTable events = cache.getEventTable(song);
+      MidiSequenceCompiler.Session session = new MidiSequenceCompiler().open(song, events);
+      while (session.compileMeasures(WINDOW_MEASURES)) {
+        if (Thread.currentThread().isInterrupted()) {
+          return;
+        }
+      }
+      // A cancelled job whose song fit in one window stops here, so it is neither stored nor counted.
+      if (Thread.currentThread().isInterrupted() || song.getContentVersion() != version) {
+        return;
+      }
+      cache.store(song, session);
+      synchronized (this) {
+        ready.put(song.getId(), new Prepared(song, version));
+        completed++;
+      }
+    } catch (InvalidMidiDataException e) {
+      System.err.println("Could not precompile " + song.getTitle() + ": " + e.getMessage());
+    } finally {
+      synchronized (this) {
+        running--;
+        if (pending != null && running < maxConcurrent) {
+          Song next = pending;
+          pending = null;
+          submit(next);
+        }
+      }
+    }
+  }
+
+  // Another song object with the same ID, e.g. one rebuilt from its revisions, is not ready at any version.
+  private boolean isReady(Song song) {
+    Prepared prepared = ready.get(song.getId());
+    return prepared != null && prepared.song() == song && prepared.version() == song.getContentVersion();
+  }
+
+  private record Prepared(Song song, long version) {
+  }
+
+  /**
+   * Records that a song is played, counting a hit if it was speculated on and is compiled, or a miss if
+   * its speculation had not finished.
+   *
+   * @param song The song being played.
+   */
+  public synchronized void recordPlay(Song song) {
+    if (isReady(song)) {
+      hits++;
+      ready.remove(song.getId());
+    } else if (song == current) {
+      misses++;
+    } else {
+      return;
+    }
+    // Later plays of the song are not down to speculation.
+    if (song == current) {
+      current = null;
+    }
+  }
+
+  public int getMaxConcurrent() {
+    return maxConcurrent;
+  }
+
+  public synchronized int getRunningCount() {
+    return running;
+  }
+
+  public synchronized long getStartedCount() {
+    return started;
+  }
+
+  public synchronized long getCompletedCount() {
+    return completed;
+  }
+
+  public synchronized long getCancelledCount() {
+    return cancelled;
+  }
+
+  /**
+   * Gets how many selections had to wait for a job to end before they could start.
+   *
+   * @return The number of deferred selections
+   */
+  public synchronized long getDeferredCount() {
+    return deferred;
+  }
+
+  public synchronized int getReadyCount() {
+    return ready.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  /**
+   * Gets the share of plays of a speculated song that found it compiled.
+   *
+   * @return The hit rate from 0 to 1, or 0 if no speculated song was played yet
+   */
+  public synchronized double getHitRate() {
+    long plays = hits + misses;
+    return plays == 0 ? 0 : (double) hits / plays;
+  }
+}
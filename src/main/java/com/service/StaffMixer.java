@@ -0,0 +1,155 @@
+package com.service;
+
+import java.util.BitSet;
+import javax.sound.midi.Sequencer;
+
+/**
+ * Mutes and solos the staves of a compiled song while it plays. {@link MidiSequenceCompiler} writes staff
+ * {@code i} to track {@code i + 1}, so muting or soloing a staff is a single track mute or solo on the running
+ * sequencer: it is heard from the next event on, without recompiling or restarting playback.
+ *
+ * <p>The mixer also mutes the metronome {@link ClickTrack} the compiler writes after the staves, unless the
+ * click is turned on.
+ *
+ * <p>The mixer keeps its settings between plays. A {@link PlaybackTask} attaches it to the sequencer once the
+ * sequence is loaded, which applies every setting, and detaches it when playback ends.
+ */
+public class StaffMixer {
+  private final BitSet muted = new BitSet();
+  private final BitSet soloed = new BitSet();
+  private boolean clickEnabled;
+  private Sequencer sequencer;
+  private int staffCount;
+  private int clickTrack = -1;
+
+  /**
+   * Mutes or unmutes a staff.
+   *
+   * @param staff The staff index across all sheet music.
+   * @param mute true to silence the staff.
+   */
+  public synchronized void setMuted(int staff, boolean mute) {
+    checkStaff(staff);
+    muted.set(staff, mute);
+    if (sequencer != null && staff < staffCount) {
+      sequencer.setTrackMute(staff + 1, mute);
+    }
+  }
+
+  /**
+   * Solos a staff or takes it out of the solo. While any staff is soloed only the soloed staves are heard.
+   *
+   * @param staff The staff index across all sheet music.
+   * @param solo true to solo the staff.
+   */
+  public synchronized void setSolo(int staff, boolean solo) {
+    checkStaff(staff);
+    boolean wasSoloing = !soloed.isEmpty();
+    soloed.set(staff, solo);
+    if (sequencer != null && staff < staffCount) {
+      sequencer.setTrackSolo(staff + 1, solo);
+      // The conductor track carries the tempo map, so it stays in the solo whenever one is active.
+      if (wasSoloing != !soloed.isEmpty()) {
+        sequencer.setTrackSolo(0, !soloed.isEmpty());
+      }
+    }
+  }
+
+  /**
+   * Turns the metronome click of the song on or off.
+   *
+   * @param enabled true to hear the {@link ClickTrack}.
+   */
+  public synchronized void setClickEnabled(boolean enabled) {
+    clickEnabled = enabled;
+    if (sequencer != null && clickTrack >= 0) {
+      sequencer.setTrackMute(clickTrack, !enabled);
+    }
+  }
+
+  public synchronized boolean isClickEnabled() {
+    return clickEnabled;
+  }
+
+  public synchronized boolean isMuted(int staff) {
+    return muted.get(staff);
+  }
+
+  public synchronized boolean isSolo(int staff) {
+    return soloed.get(staff);
+  }
+
+  /**
+   * Tells whether a staff is heard with the current settings.
+   *
+   * @param staff The staff index across all sheet music.
+   * @return true if the staff is not muted and either soloed or no staff is soloed.
+   */
+  public synchronized boolean isAudible(int staff) {
+    return !muted.get(staff) && (soloed.isEmpty() || soloed.get(staff));
+  }
+
+  /**
+   * Tells whether a track of a compiled song is heard with the current settings, for playback that sends the
+   * events itself instead of through the sequencer.
+   *
+   * @param track The track index in the sequence.
+   * @param staves The number of staves of the song.
+   * @param clickTrack The index of the click track, or -1 if there is none.
+   * @return true if the notes of the track should be played.
+   */
+  synchronized boolean isTrackAudible(int track, int staves, int clickTrack) {
+    int staff = track - 1;
+    if (staff >= 0 && staff < staves) {
+      return isAudible(staff);
+    }
+    return track != clickTrack || clickEnabled;
+  }
+
+  /**
+   * Unmutes and unsolos every staff. The click stays as it is.
+   */
+  public synchronized void clear() {
+    muted.clear();
+    soloed.clear();
+    if (sequencer != null) {
+      apply();
+    }
+  }
+
+  /**
+   * Applies every setting to a sequencer that has a compiled song loaded, and keeps applying later changes
+   * to it until {@link #detach()}.
+   *
+   * @param player The sequencer, with a sequence laid out by {@link MidiSequenceCompiler}.
+   * @param staves The number of staves of the song.
+   */
+  synchronized void attach(Sequencer player, int staves) {
+    sequencer = player;
+    staffCount = staves;
+    clickTrack = player.getSequence() == null ? -1 : ClickTrack.indexOf(player.getSequence());
+    apply();
+  }
+
+  synchronized void detach() {
+    sequencer = null;
+  }
+
+  // The sequencer keeps mute and solo flags across sequences, so every track is set, not just the changed ones.
+  private void apply() {
+    int tracks = sequencer.getSequence() == null ? staffCount + 1 : sequencer.getSequence().getTracks().length;
+    boolean soloing = !soloed.isEmpty();
+    for (int track = 0; track < tracks; ++track) {
+      int staff = track - 1;
+      boolean isStaff = staff >= 0 && staff < staffCount;
+      sequencer.setTrackMute(track, isStaff ? muted.get(staff) : track == clickTrack && !clickEnabled);
+      sequencer.setTrackSolo(track, soloing && (!isStaff || soloed.get(staff)));
+    }
+  }
+
+  private static void checkStaff(int staff) {
+    if (staff < 0) {
+      throw new IndexOutOfBoundsException("Staff " + staff + " does not exist");
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package com.service;
+
+import com.model.Song;
+import com.sun.media.sound.AudioSynthesizer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Renders songs to PCM WAV files offline with the JDK's software synthesizer.
+ * Instead of playing through the real-time sequencer, every event is sent to the synthesizer up front with
+ * its timestamp and the synthesizer's audio stream is read as fast as it can be computed, so rendering
+ * needs no sound device and runs faster than real time. The same sequence and format always give the same
+ * samples.
+ *
+ * <p>A song whose staves {@link MidiChannelAllocator} spread over several MIDI ports is rendered with a
+ * synthesizer per port, as it is played, and the streams of the synthesizers are summed sample by sample,
+ * clipping at full scale. A song on one port is the stream of its single synthesizer unchanged.
+ *
+ * <p>A renderer owns its synthesizers and is not thread-safe; use one renderer per thread.
+ * Needs {@code --add-exports java.desktop/com.sun.media.sound=music.application} to compile and run.
+ */
+public class WavRenderer {
+  public static final float DEFAULT_SAMPLE_RATE = 44100f;
+  public static final int DEFAULT_CHANNELS = 2;
+  /** Time rendered after the last event so released notes can ring out. */
+  public static final long TAIL_MICROS = 1_000_000;
+  private static final int SAMPLE_BITS = 16;
+  private static final int TEMPO_META_TYPE = 0x51;
+
+  private final AudioFormat format;
+  private final MidiSequenceCompiler compiler = new MidiSequenceCompiler();
+  private final List<AudioSynthesizer> synthesizers = new ArrayList<>();
+
+  /**
+   * Creates a renderer producing 16-bit stereo audio at 44.1 kHz.
+   */
+  public WavRenderer() {
+    this(DEFAULT_SAMPLE_RATE, DEFAULT_CHANNELS);
+  }
+
+  /**
+   * Creates a renderer producing 16-bit audio in the given format.
+   *
+   * @param sampleRate The sample rate in Hz.
+   * @param channels The number of channels, 1 for mono or 2 for stereo.
+   */
+  public WavRenderer(float sampleRate, int channels) {
+    if (sampleRate <= 0 || channels < 1 || channels > 2) {
+      throw new IllegalArgumentException("Unsupported audio format: " + sampleRate + " Hz, " + channels + " channels");
+    }
+    this.format = new AudioFormat(sampleRate, SAMPLE_BITS, channels, true, false);
+  }
+
+  /**
+   * Compiles a song and renders it to a WAV file.
+   *
+   * @param song The song to render.
+   * @param output The WAV file to write.
+   * @return The number of sample frames written.
+   * @throws InvalidMidiDataException if the song cannot be compiled.
+   * @throws MidiUnavailableException if no software synthesizer is available.
+   * @throws IOException if the file cannot be written.
+   */
+  public long render(Song song, File output) throws InvalidMidiDataException, MidiUnavailableException, IOException {
+    return render(compiler.compile(song), output);
+  }
+
+  /**
+   * Renders a compiled sequence to a WAV file.
+   *
+   * @param sequence The PPQ sequence to render.
+   * @param output The WAV file to write.
+   * @return The number of sample frames written.
+   * @throws MidiUnavailableException if no software synthesizer is available.
+   * @throws IOException if the file cannot be written.
+   */
+  public long render(Sequence sequence, File output) throws MidiUnavailableException, IOException {
+    int ports = MidiChannelAllocator.portCount(sequence);
+    List<AudioSynthesizer> open = new ArrayList<>();
+    try {
+      List<AudioInputStream> streams = new ArrayList<>();
+      List<Receiver> receivers = new ArrayList<>();
+      for (int port = 0; port < ports; port++) {
+        AudioSynthesizer synth = synthesizer(port);
+        streams.add(synth.openStream(format, null));
+        open.add(synth);
+        receivers.add(synth.getReceiver());
+      }
+      long endMicros = sendEvents(sequence, receivers);
+      long frames = (long) Math.ceil((endMicros + TAIL_MICROS) * (double) format.getFrameRate() / 1_000_000);
+      InputStream audio = ports == 1 ? streams.get(0) : new MixingStream(streams);
+      AudioSystem.write(new AudioInputStream(audio, format, frames), AudioFileFormat.Type.WAVE, output);
+      return frames;
+    } finally {
+      for (AudioSynthesizer synth : open) {
+        synth.close();
+      }
+    }
+  }
+
+  /**
+   * Sends every channel event of the sequence except the metronome click to the synthesizer of its track's
+   * port, stamped with the time it is played at. Tracks are merged in tick order and ticks are converted to
+   * time by following the tempo changes.
+   *
+   * @param sequence The sequence to send.
+   * @param receivers The receiver of the synthesizer of every port.
+   * @return The time of the last event in microseconds.
+   */
+  private static long sendEvents(Sequence sequence, List<Receiver> receivers) {
+    List<PortEvent> events = new ArrayList<>();
+    for (Track track : sequence.getTracks()) {
+      if (ClickTrack.isClickTrack(track)) {
+        continue;
+      }
+      int port = MidiChannelAllocator.portOf(track);
+      for (int i = 0; i < track.size(); i++) {
+        events.add(new PortEvent(track.get(i), port));
+      }
+    }
+    events.sort(Comparator.comparingLong(event -> event.event().getTick()));
+
+    int resolution = sequence.getResolution();
+    long microsPerQuarter = 60_000_000 / MidiSequenceCompiler.DEFAULT_TEMPO;
+    long lastTick = 0;
+    long micros = 0;
+    for (PortEvent routed : events) {
+      MidiEvent event = routed.event();
+      micros += (event.getTick() - lastTick) * microsPerQuarter / resolution;
+      lastTick = event.getTick();
+      if (event.getMessage() instanceof MetaMessage meta) {
+        if (meta.getType() == TEMPO_META_TYPE) {
+          byte[] data = meta.getData();
+          microsPerQuarter = ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+        }
+        continue;
+      }
+      receivers.get(routed.port()).send(event.getMessage(), micros);
+    }
+    return micros;
+  }
+
+  private AudioSynthesizer synthesizer(int port) throws MidiUnavailableException {
+    while (synthesizers.size() <= port) {
+      Synthesizer synth = MidiSystem.getSynthesizer();
+      if (!(synth instanceof AudioSynthesizer audioSynthesizer)) {
+        throw new MidiUnavailableException("The default synthesizer cannot render offline: " + synth.getDeviceInfo());
+      }
+      synthesizers.add(audioSynthesizer);
+    }
+    return synthesizers.get(port);
+  }
+
+  private record PortEvent(MidiEvent event, int port) {
+  }
+
+  /**
+   * Sums the 16-bit little-endian streams of several synthesizers sample by sample, clipping at full scale.
+   * The synthesizer streams never end; the length of the result is set by the stream wrapping this one.
+   */
+  private static class MixingStream extends InputStream {
+    private final List<AudioInputStream> sources;
+    private byte[] buffer = new byte[0];
+    private int[] sums = new int[0];
+
+    MixingStream(List<AudioInputStream> sources) {
+      this.sources = sources;
+    }
+
+    @Override
+    public int read() throws IOException {
+      throw new IOException("Mixed audio is read a whole frame at a time");
+    }
+
+    // Called with whole frames by the AudioInputStream around this one.
+    @Override
+    public int read(byte[] target, int offset, int length) throws IOException {
+      if (buffer.length < length) {
+        buffer = new byte[length];
+        sums = new int[length / 2];
+      }
+      Arrays.fill(sums, 0, length / 2, 0);
+      int read = 0;
+      for (AudioInputStream source : sources) {
+        int count = source.readNBytes(buffer, 0, length);
+        read = Math.max(read, count);
+        for (int i = 0; i < count / 2; i++) {
+          sums[i] += (short) ((buffer[2 * i] & 0xFF) | (buffer[2 * i + 1] << 8));
+        }
+      }
+      if (read == 0 && length > 0) {
+        return -1;
+      }
+      for (int i = 0; i < read / 2; i++) {
+        int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sums[i]));
+        target[offset + 2 * i] = (byte) sample;
+        target[offset + 2 * i + 1] = (byte) (sample >> 8);
+      }
+      return read;
+    }
+  }
+
+  public AudioFormat getFormat() {
+    return format;
+  }
+}
@@ -0,0 +1,109 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import static com.service.MidiSequenceCompilerTest.note;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import com.model.*;
+
+public class AuditionEngineTest {
+
+    /** Records the command, first data byte, timestamp and channel of every message it receives. */
+    private static class RecordingReceiver implements Receiver {
+        final List<long[]> messages = new ArrayList<>();
+
+        @Override
+        public synchronized void send(MidiMessage message, long timeStamp) {
+            ShortMessage shortMessage = (ShortMessage) message;
+            messages.add(new long[] {shortMessage.getCommand(), shortMessage.getData1(), timeStamp,
+                    shortMessage.getChannel()});
+        }
+
+        synchronized List<long[]> notes() {
+            return messages.stream().filter(m -> m[0] != ShortMessage.PROGRAM_CHANGE).toList();
+        }
+
+        synchronized List<long[]> snapshot() {
+            return new ArrayList<>(messages);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testChordNotesStartTogetherAndStopAtTheirLength() {
+        RecordingReceiver receiver = new RecordingReceiver();
+        AuditionEngine engine = new AuditionEngine(receiver, () -> 1000);
+        List<Note> notes = new ArrayList<>();
+        notes.add(note(60, 0.25, false, 120));
+        notes.add(note(64, 0.25, false, 120));
+        engine.audition(new Chord("", notes, 120));
+
+        // A quarter note at 120 bpm lasts half a second.
+        List<long[]> sent = receiver.notes();
+        assertEquals(4, sent.size());
+        for (long[] message : sent) {
+            boolean on = message[0] == ShortMessage.NOTE_ON;
+            assertEquals(on ? 1000 : 501_000, message[2]);
+        }
+        assertEquals(2, sent.stream().filter(m -> m[0] == ShortMessage.NOTE_OFF).count());
+        assertEquals(1, engine.getAuditionCount());
+    }
+
+    @Test
+    public void testOverlappingAuditionsReleaseOnce() {
+        RecordingReceiver receiver = new RecordingReceiver();
+        long[] now = {0};
+        AuditionEngine engine = new AuditionEngine(receiver, () -> now[0]);
+        engine.audition(note(60, 0.25, false, 120));
+        now[0] = 200_000;
+        engine.audition(note(60, 0.25, false, 120));
+
+        List<long[]> sent = receiver.notes();
+        assertEquals(2, sent.stream().filter(m -> m[0] == ShortMessage.NOTE_ON).count());
+        assertEquals(1, sent.stream().filter(m -> m[0] == ShortMessage.NOTE_OFF).count());
+
+        now[0] = 500_000;
+        engine.audition(note(60, 0.25, false, 120));
+        assertEquals(ShortMessage.NOTE_OFF, receiver.notes().get(4)[0]);
+        assertEquals(1_000_000, receiver.notes().get(4)[2]);
+    }
+
+    @Test
+    public void testProgramOfTheInstrumentIsSentOnceBeforeItsNotes() {
+        RecordingReceiver receiver = new RecordingReceiver();
+        AuditionEngine engine = new AuditionEngine(receiver, () -> 0);
+        engine.audition(note(0, 0.25, false, 120), "Violin");
+        engine.audition(note(62, 0.25, false, 120), "Violin");
+
+        List<long[]> sent = receiver.snapshot();
+        assertEquals(ShortMessage.PROGRAM_CHANGE, sent.get(0)[0]);
+        assertEquals(InstrumentPrograms.programOf("Violin"), sent.get(0)[1]);
+        assertEquals(1, sent.stream().filter(m -> m[0] == ShortMessage.PROGRAM_CHANGE).count());
+        // MIDI note 0 is a real pitch.
+        assertEquals(ShortMessage.NOTE_ON, sent.get(1)[0]);
+        assertEquals(0, sent.get(1)[1]);
+        assertEquals(AuditionEngine.AUDITION_CHANNEL, sent.get(1)[3]);
+    }
+
+    @Test
+    public void testPercussionPlaysOnThePercussionChannel() {
+        RecordingReceiver receiver = new RecordingReceiver();
+        AuditionEngine engine = new AuditionEngine(receiver, () -> 0);
+        engine.audition(note(38, 0.25, false, 120), "Drums");
+
+        List<long[]> sent = receiver.snapshot();
+        assertEquals(2, sent.size());
+        assertEquals(MidiChannelAllocator.PERCUSSION_CHANNEL, sent.get(0)[3]);
+    }
+}
@@ -0,0 +1,76 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import static com.service.MidiSequenceCompilerTest.note;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import com.model.*;
+
+public class ClickTrackTest {
+    private static final int QUARTER = MidiSequenceCompiler.RESOLUTION;
+
+    private static Measure quarters(int numerator, int count) {
+        List<MusicElement> elements = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            elements.add(note(60, 0.25, false));
+        }
+        return new Measure(0, numerator, 4, elements);
+    }
+
+    private static Song song(int pickUp, Measure... measures) {
+        List<Staff> staves = new ArrayList<>();
+        staves.add(new Staff("treble", new ArrayList<>(List.of(measures))));
+        List<SheetMusic> sheetMusic = new ArrayList<>();
+        sheetMusic.add(new SheetMusic(new Instrument(new ArrayList<>(List.of("treble")), "Piano"), staves));
+        return new Song(UUID.randomUUID(), "Test", "Composer", pickUp, sheetMusic);
+    }
+
+    // Tick and key of every click.
+    private static List<long[]> clicks(Song song) throws Exception {
+        Track track = new MidiSequenceCompiler().compile(song).getTracks()[2];
+        assertTrue(ClickTrack.isClickTrack(track));
+        List<long[]> clicks = new ArrayList<>();
+        for (int i = 0; i < track.size(); i++) {
+            MidiEvent event = track.get(i);
+            if (event.getMessage() instanceof ShortMessage message && message.getCommand() == ShortMessage.NOTE_ON) {
+                assertEquals(MidiChannelAllocator.PERCUSSION_CHANNEL, message.getChannel());
+                clicks.add(new long[] {event.getTick(), message.getData1()});
+            }
+        }
+        return clicks;
+    }
+
+    @Test
+    public void testBeatsFollowTimeSignatureWithAccentedDownbeats() throws Exception {
+        List<long[]> clicks = clicks(song(0, quarters(4, 4), quarters(3, 3)));
+        assertEquals(7, clicks.size());
+        assertArrayEquals(new long[] {0, ClickTrack.ACCENT_NOTE}, clicks.get(0));
+        assertArrayEquals(new long[] {QUARTER, ClickTrack.BEAT_NOTE}, clicks.get(1));
+        assertArrayEquals(new long[] {4 * QUARTER, ClickTrack.ACCENT_NOTE}, clicks.get(4));
+        assertArrayEquals(new long[] {6 * QUARTER, ClickTrack.BEAT_NOTE}, clicks.get(6));
+    }
+
+    @Test
+    public void testPickUpClicksOnlyTheLastBeats() throws Exception {
+        List<long[]> clicks = clicks(song(1, quarters(4, 1), quarters(4, 4)));
+        assertEquals(5, clicks.size());
+        assertArrayEquals(new long[] {0, ClickTrack.BEAT_NOTE}, clicks.get(0));
+        assertArrayEquals(new long[] {QUARTER, ClickTrack.ACCENT_NOTE}, clicks.get(1));
+    }
+
+    @Test
+    public void testClicksStopAtTheEndOfShortMeasures() throws Exception {
+        List<long[]> clicks = clicks(song(0, quarters(4, 2), quarters(4, 1)));
+        assertEquals(3, clicks.size());
+        assertArrayEquals(new long[] {2 * QUARTER, ClickTrack.ACCENT_NOTE}, clicks.get(2));
+    }
+}
@@ -0,0 +1,93 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import static com.service.MidiSequenceCompilerTest.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.model.SheetMusic;
+import com.model.Song;
+
+public class CompiledSongCacheTest {
+
+    @Test
+    public void testReplayHitsCache() throws Exception {
+        CompiledSongCache cache = new CompiledSongCache(CompiledSongCache.DEFAULT_MAX_EVENTS);
+        Song song = songOf(measure(note(60, 0.25, false)));
+        CompiledSong first = cache.getOrCompile(song);
+        assertSame(first, cache.getOrCompile(song));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testEditRecompiles() throws Exception {
+        CompiledSongCache cache = new CompiledSongCache(CompiledSongCache.DEFAULT_MAX_EVENTS);
+        Song song = songOf(measure(note(60, 0.25, false)));
+        CompiledSong first = cache.getOrCompile(song);
+        song.getSheetMusic().get(0).getStaves().get(0).getMeasures().get(0).addMusicElement(note(62, 0.25, false));
+        song.markModified();
+        CompiledSong second = cache.getOrCompile(song);
+        assertNotSame(first, second);
+        assertTrue(second.getEventCount() > first.getEventCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testRebuiltSongWithSameIdRecompiles() throws Exception {
+        CompiledSongCache cache = new CompiledSongCache(CompiledSongCache.DEFAULT_MAX_EVENTS);
+        Song song = songOf(measure(note(60, 0.25, false)));
+        CompiledSong first = cache.getOrCompile(song);
+        Song rebuilt = new Song(song.getId(), song.getTitle(), song.getComposer(), 0,
+                songOf(measure(note(60, 0.25, false), note(62, 0.25, false))).getSheetMusic());
+        assertEquals(song.getContentVersion(), rebuilt.getContentVersion());
+        CompiledSong second = cache.getOrCompile(rebuilt);
+        assertNotSame(first, second);
+        assertTrue(second.getEventCount() > first.getEventCount());
+        assertNotSame(cache.getEventTable(song), cache.getEventTable(rebuilt));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testSongWithoutInstrumentIsCached() throws Exception {
+        CompiledSongCache cache = new CompiledSongCache(CompiledSongCache.DEFAULT_MAX_EVENTS);
+        List<SheetMusic> sheetMusic = new ArrayList<>();
+        sheetMusic.add(new SheetMusic(null, songOf(measure(note(60, 0.25, false))).getSheetMusic().get(0).getStaves()));
+        Song song = new Song(UUID.randomUUID(), "Test", "Composer", 0, sheetMusic);
+        CompiledSong first = cache.getOrCompile(song);
+        assertSame(first, cache.getOrCompile(song));
+        Song piano = songOf(measure(note(60, 0.25, false)));
+        assertNotEquals(SongContentHasher.hashSong(piano), SongContentHasher.hashSong(song));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedWhenOverBudget() throws Exception {
+        Song a = songOf(measure(note(60, 0.25, false)));
+        Song b = songOf(measure(note(62, 0.25, false)));
+        Song c = songOf(measure(note(64, 0.25, false)));
+        int perSong = new CompiledSongCache(Integer.MAX_VALUE).getOrCompile(a).getEventCount();
+        CompiledSongCache cache = new CompiledSongCache(perSong * 2);
+        cache.getOrCompile(a);
+        cache.getOrCompile(b);
+        cache.getOrCompile(a);
+        cache.getOrCompile(c);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        cache.getOrCompile(a);
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testInvalidateFreesBudget() throws Exception {
+        CompiledSongCache cache = new CompiledSongCache(CompiledSongCache.DEFAULT_MAX_EVENTS);
+        Song song = songOf(measure(note(60, 0.25, false)));
+        cache.getOrCompile(song);
+        cache.invalidate(song);
+        assertEquals(0, cache.getCachedEventCount());
+        assertEquals(0, cache.size());
+    }
+}
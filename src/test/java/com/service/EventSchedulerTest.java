@@ -0,0 +1,203 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import static com.service.MidiSequenceCompilerTest.measure;
+import static com.service.MidiSequenceCompilerTest.note;
+import static com.service.MidiSequenceCompilerTest.songOf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import com.model.*;
+
+public class EventSchedulerTest {
+    private static final int ALL_NOTES_OFF = 123;
+
+    // Collects the note messages sent, ignoring the all-notes-off sent when playback ends.
+    private static class RecordingReceiver implements Receiver {
+        private final List<ShortMessage> notes = new ArrayList<>();
+
+        @Override
+        public synchronized void send(MidiMessage message, long timeStamp) {
+            if (message instanceof ShortMessage shortMessage && !(shortMessage.getCommand() == ShortMessage.CONTROL_CHANGE
+                    && shortMessage.getData1() == ALL_NOTES_OFF)) {
+                notes.add(shortMessage);
+            }
+        }
+
+        synchronized List<ShortMessage> notes() {
+            return new ArrayList<>(notes);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Two quarter notes at 960 BPM, one per measure, so the song lasts 125 ms.
+    private static MidiSequenceCompiler.Session fastSong() throws Exception {
+        Song song = songOf(measure(note(60, 0.25, false, 960)), measure(note(62, 0.25, false, 960)));
+        MidiSequenceCompiler.Session session = new MidiSequenceCompiler().open(song);
+        session.compileMeasures(session.getMeasureCount());
+        return session;
+    }
+
+    @Test
+    public void testSendsEveryEventInOrderAndRecordsJitter() throws Exception {
+        MidiSequenceCompiler.Session session = fastSong();
+        RecordingReceiver receiver = new RecordingReceiver();
+        JitterHistogram jitter = new JitterHistogram();
+        EventScheduler scheduler = new EventScheduler(session.getSequence(), session.getMeasureTickIndex(), receiver,
+                jitter);
+        int clickTrack = ClickTrack.indexOf(session.getSequence());
+        scheduler.setTrackFilter(track -> track != clickTrack);
+        AtomicBoolean finished = new AtomicBoolean();
+        scheduler.setOnFinished(() -> finished.set(true));
+        scheduler.start(0);
+        scheduler.join();
+
+        assertTrue(finished.get());
+        assertTrue(scheduler.isFinished());
+        List<ShortMessage> notes = receiver.notes();
+        assertEquals(ShortMessage.PROGRAM_CHANGE, notes.get(0).getCommand());
+        List<Integer> onsets = new ArrayList<>();
+        for (ShortMessage message : notes) {
+            if (message.getCommand() == ShortMessage.NOTE_ON) {
+                // The click track is filtered out, so only its note-offs are sent.
+                assertNotEquals(MidiChannelAllocator.PERCUSSION_CHANNEL, message.getChannel());
+                onsets.add(message.getData1());
+            }
+        }
+        assertEquals(List.of(60, 62), onsets);
+        assertEquals(notes.size(), jitter.getCount());
+        assertTrue(jitter.getMaxNanos() >= jitter.getP50Nanos());
+    }
+
+    @Test
+    public void testStopDoesNotFinish() throws Exception {
+        MidiSequenceCompiler.Session session = fastSong();
+        AtomicBoolean finished = new AtomicBoolean();
+        EventScheduler scheduler = new EventScheduler(session.getSequence(), session.getMeasureTickIndex(),
+                new RecordingReceiver(), new JitterHistogram());
+        scheduler.setOnFinished(() -> finished.set(true));
+        scheduler.setTempoFactor(0.25f);
+        scheduler.start(0);
+        scheduler.stop();
+        scheduler.join();
+        assertFalse(finished.get());
+        assertFalse(scheduler.isFinished());
+    }
+
+    @Test
+    public void testSeekMovesToTheFirstEventAtTheTick() throws Exception {
+        MidiSequenceCompiler.Session session = fastSong();
+        EventScheduler scheduler = new EventScheduler(session.getSequence(), session.getMeasureTickIndex(),
+                new RecordingReceiver(), new JitterHistogram());
+        long second = session.getMeasureTickIndex().getTick(0, 1);
+        scheduler.seek(second);
+        assertEquals(second, scheduler.getTickPosition());
+    }
+
+    @Test
+    public void testPlayheadFollowsTheClockBetweenEvents() throws Exception {
+        MidiSequenceCompiler.Session session = fastSong();
+        EventScheduler scheduler = new EventScheduler(session.getSequence(), session.getMeasureTickIndex(),
+                new RecordingReceiver(), new JitterHistogram());
+        scheduler.seek(1);
+        assertEquals(1, scheduler.getTickPosition());
+        scheduler.setTempoFactor(0.25f);
+        scheduler.start(0);
+        Thread.sleep(50);
+        long tick = scheduler.getTickPosition();
+        scheduler.stop();
+        scheduler.join();
+        // A quarter of 960 BPM is 62.5 ms, at a quarter speed 250 ms, so no event after the first was due.
+        assertTrue(tick > 0 && tick < MidiSequenceCompiler.RESOLUTION);
+    }
+
+    @Test
+    public void testFilteredTrackKeepsItsProgramAndNoteOffs() throws Exception {
+        MidiSequenceCompiler.Session session = fastSong();
+        RecordingReceiver receiver = new RecordingReceiver();
+        EventScheduler scheduler = new EventScheduler(session.getSequence(), session.getMeasureTickIndex(), receiver,
+                new JitterHistogram());
+        scheduler.setTrackFilter(track -> track != 1);
+        scheduler.start(0);
+        scheduler.join();
+
+        List<Integer> staffCommands = new ArrayList<>();
+        for (ShortMessage message : receiver.notes()) {
+            if (message.getChannel() != MidiChannelAllocator.PERCUSSION_CHANNEL) {
+                staffCommands.add(message.getCommand());
+            }
+        }
+        assertEquals(List.of(ShortMessage.PROGRAM_CHANGE, ShortMessage.NOTE_OFF, ShortMessage.NOTE_OFF), staffCommands);
+    }
+
+    @Test
+    public void testSeekChasesTheProgramChange() throws Exception {
+        MidiSequenceCompiler.Session session = fastSong();
+        RecordingReceiver receiver = new RecordingReceiver();
+        EventScheduler scheduler = new EventScheduler(session.getSequence(), session.getMeasureTickIndex(), receiver,
+                new JitterHistogram());
+        scheduler.seek(session.getMeasureTickIndex().getTick(0, 1));
+        List<ShortMessage> chased = receiver.notes();
+        assertFalse(chased.isEmpty());
+        for (ShortMessage message : chased) {
+            assertEquals(ShortMessage.PROGRAM_CHANGE, message.getCommand());
+        }
+    }
+
+    @Test
+    public void testLoopRepeatsUntilCleared() throws Exception {
+        MidiSequenceCompiler.Session session = fastSong();
+        RecordingReceiver receiver = new RecordingReceiver();
+        EventScheduler scheduler = new EventScheduler(session.getSequence(), session.getMeasureTickIndex(), receiver,
+                new JitterHistogram());
+        MeasureTickIndex index = session.getMeasureTickIndex();
+        scheduler.setLoop(index.getTick(0, 0), index.getEndTick(0, 0));
+        scheduler.start(0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (countOnsets(receiver, 60) < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, countOnsets(receiver, 62));
+        scheduler.clearLoop();
+        scheduler.join();
+        assertTrue(countOnsets(receiver, 60) >= 3);
+        assertEquals(1, countOnsets(receiver, 62));
+        assertTrue(scheduler.isFinished());
+    }
+
+    @Test
+    public void testPlaybackPastTheLoopPlaysOn() throws Exception {
+        MidiSequenceCompiler.Session session = fastSong();
+        RecordingReceiver receiver = new RecordingReceiver();
+        EventScheduler scheduler = new EventScheduler(session.getSequence(), session.getMeasureTickIndex(), receiver,
+                new JitterHistogram());
+        MeasureTickIndex index = session.getMeasureTickIndex();
+        scheduler.setLoop(index.getTick(0, 0), index.getEndTick(0, 0));
+        scheduler.start(index.getTick(0, 1));
+        scheduler.join();
+        assertEquals(0, countOnsets(receiver, 60));
+        assertEquals(1, countOnsets(receiver, 62));
+        assertTrue(scheduler.isFinished());
+    }
+
+    private static int countOnsets(RecordingReceiver receiver, int midi) {
+        int count = 0;
+        for (ShortMessage message : receiver.notes()) {
+            if (message.getCommand() == ShortMessage.NOTE_ON && message.getData1() == midi) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
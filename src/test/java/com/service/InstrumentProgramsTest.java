@@ -0,0 +1,40 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.List;
+
+public class InstrumentProgramsTest {
+
+    @Test
+    public void testMusicXmlPartNames() {
+        assertEquals(0, InstrumentPrograms.programOf("Piano"));
+        assertEquals(24, InstrumentPrograms.programOf("Acoustic Guitar"));
+        assertEquals(40, InstrumentPrograms.programOf("Violin I"));
+        assertEquals(73, InstrumentPrograms.programOf("Flute 2"));
+        assertEquals(60, InstrumentPrograms.programOf("Horn in F"));
+        assertEquals(65, InstrumentPrograms.programOf("Alto Sax"));
+        assertEquals(52, InstrumentPrograms.programOf("Soprano"));
+    }
+
+    @Test
+    public void testJFugueNames() {
+        assertEquals(33, InstrumentPrograms.programOf("ELECTRIC_BASS_FINGER"));
+        assertEquals(42, InstrumentPrograms.programOf("CELLO"));
+    }
+
+    @Test
+    public void testUnknownNamesUseDefaultProgram() {
+        assertEquals(InstrumentPrograms.DEFAULT_PROGRAM, InstrumentPrograms.programOf("Theremin"));
+        assertEquals(InstrumentPrograms.DEFAULT_PROGRAM, InstrumentPrograms.programOf(""));
+        assertEquals(InstrumentPrograms.DEFAULT_PROGRAM, InstrumentPrograms.programOf(null));
+    }
+
+    @Test
+    public void testPercussionStavesHaveNoProgram() {
+        MidiChannelAllocator.Allocation allocation = new MidiChannelAllocator().allocate(List.of("Drums", "Trumpet"));
+        assertEquals(MidiChannelAllocator.NO_PROGRAM, allocation.getProgram(0));
+        assertEquals(56, allocation.getProgram(1));
+    }
+}
@@ -0,0 +1,44 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class JitterHistogramTest {
+
+    @Test
+    public void testPercentilesOfMicrosecondDelays() {
+        JitterHistogram jitter = new JitterHistogram();
+        for (int i = 1; i <= 100; i++) {
+            jitter.record(i * 1000L);
+        }
+        assertEquals(100, jitter.getCount());
+        assertEquals(51_000, jitter.getP50Nanos());
+        assertEquals(100_000, jitter.getP99Nanos());
+        assertEquals(100_000, jitter.getMaxNanos());
+        assertEquals(50_500, jitter.getMeanNanos(), 0.001);
+    }
+
+    @Test
+    public void testLongDelaysAreKeptToTheMillisecond() {
+        JitterHistogram jitter = new JitterHistogram();
+        jitter.record(10);
+        jitter.record(25_400_000);
+        jitter.record(3_000_000_000L);
+        assertEquals(1000, jitter.getPercentileNanos(0.3));
+        assertEquals(26_000_000, jitter.getPercentileNanos(0.6));
+        assertEquals(3_000_000_000L, jitter.getMaxNanos());
+        assertTrue(jitter.getPercentileNanos(1) <= jitter.getMaxNanos());
+    }
+
+    @Test
+    public void testResetAndEmptyHistogram() {
+        JitterHistogram jitter = new JitterHistogram();
+        assertEquals(0, jitter.getP99Nanos());
+        jitter.record(-5);
+        assertEquals(0, jitter.getMaxNanos());
+        jitter.record(5000);
+        jitter.reset();
+        assertEquals(0, jitter.getCount());
+        assertEquals(0, jitter.getMaxNanos());
+    }
+}
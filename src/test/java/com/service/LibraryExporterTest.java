@@ -0,0 +1,46 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.service.MidiSequenceCompilerTest.measure;
+import static com.service.MidiSequenceCompilerTest.note;
+import static com.service.MidiSequenceCompilerTest.songOf;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.sound.midi.MidiSystem;
+
+import com.model.*;
+
+public class LibraryExporterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testExportsMidiAndResumes() throws Exception {
+        File out = folder.newFolder("export");
+        List<Song> songs = List.of(songOf(measure(note(60, 0.25, false))), songOf(measure(note(62, 0.25, false))));
+        LibraryExporter exporter = new LibraryExporter(out.getPath(), true, false, 2);
+
+        assertEquals(2, exporter.export(songs));
+        File midi = new File(out, songs.get(0).getId() + ".mid");
+        assertEquals(1, MidiSystem.getMidiFileFormat(midi).getType());
+        assertEquals(3, Files.readAllLines(new File(out, LibraryExporter.TIMING_FILE).toPath()).size());
+
+        assertEquals(0, exporter.export(songs));
+    }
+
+    @Test
+    public void testFilterByGenre() {
+        Song jazz = songOf(measure(note(60, 0.25, false)));
+        jazz.addGenre("Jazz");
+        Song other = songOf(measure(note(60, 0.25, false)));
+        assertEquals(List.of(jazz), LibraryExporter.filter(List.of(jazz, other), "jazz", null));
+        assertEquals(2, LibraryExporter.filter(List.of(jazz, other), null, null).size());
+    }
+}
@@ -0,0 +1,50 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import static com.service.MidiSequenceCompilerTest.measure;
+import static com.service.MidiSequenceCompilerTest.note;
+import static com.service.MidiSequenceCompilerTest.songOf;
+
+import com.model.*;
+
+public class MeasureTickIndexTest {
+    private static final int QUARTER = MidiSequenceCompiler.RESOLUTION;
+
+    private static Song tempoChangeSong() {
+        return songOf(measure(note(60, 0.25, false, 120)), measure(note(62, 0.25, false, 60)),
+                measure(note(64, 0.25, false, 60)));
+    }
+
+    @Test
+    public void testIndexBuiltWhileCompiling() throws Exception {
+        MidiSequenceCompiler.Session session = new MidiSequenceCompiler().open(tempoChangeSong());
+        session.compileMeasures(session.getMeasureCount());
+        MeasureTickIndex index = session.getMeasureTickIndex();
+        assertEquals(3, index.getMeasureCount(0));
+        assertEquals(2 * QUARTER, index.getTick(0, 2));
+        assertEquals(500_000, index.getMicros(0, 1));
+        assertEquals(1_500_000, index.getMicros(0, 2));
+    }
+
+    @Test
+    public void testIndexRebuiltFromEventTableMatches() throws Exception {
+        Song song = tempoChangeSong();
+        MidiSequenceCompiler.Session session = new MidiSequenceCompiler().open(song);
+        session.compileMeasures(session.getMeasureCount());
+        MeasureTickIndex rebuilt = MeasureTickIndex.of(SongEventTable.build(song));
+        for (int m = 0; m < 3; m++) {
+            assertEquals(session.getMeasureTickIndex().getTick(0, m), rebuilt.getTick(0, m));
+            assertEquals(session.getMeasureTickIndex().getMicros(0, m), rebuilt.getMicros(0, m));
+        }
+    }
+
+    @Test
+    public void testMeasureAtTick() throws Exception {
+        MeasureTickIndex index = MeasureTickIndex.of(SongEventTable.build(tempoChangeSong()));
+        assertEquals(0, index.measureAt(0, 0));
+        assertEquals(1, index.measureAt(0, QUARTER + 10));
+        assertEquals(2, index.measureAt(0, 10 * QUARTER));
+    }
+}
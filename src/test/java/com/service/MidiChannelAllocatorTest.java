@@ -0,0 +1,107 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import static com.service.MidiSequenceCompilerTest.measure;
+import static com.service.MidiSequenceCompilerTest.note;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+import com.model.*;
+
+public class MidiChannelAllocatorTest {
+
+    private static List<String> instruments(int count, String... names) {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            list.add(names[i % names.length]);
+        }
+        return list;
+    }
+
+    @Test
+    public void testSmallSongGetsOneChannelPerStaffSkippingPercussion() {
+        MidiChannelAllocator.Allocation allocation = new MidiChannelAllocator().allocate(instruments(15, "Piano"));
+        for (int i = 0; i < 15; i++) {
+            assertEquals(0, allocation.getPort(i));
+            assertNotEquals(MidiChannelAllocator.PERCUSSION_CHANNEL, allocation.getChannel(i));
+        }
+        assertEquals(8, allocation.getChannel(8));
+        assertEquals(10, allocation.getChannel(9));
+        assertEquals(15, allocation.getChannel(14));
+    }
+
+    @Test
+    public void testLargeSongPacksStavesByInstrument() {
+        MidiChannelAllocator.Allocation allocation =
+            new MidiChannelAllocator().allocate(instruments(24, "Violin", "Viola", "Cello"));
+        assertEquals(1, allocation.getPortCount());
+        assertEquals(allocation.getChannel(0), allocation.getChannel(3));
+        assertEquals(allocation.getChannel(1), allocation.getChannel(22));
+        assertNotEquals(allocation.getChannel(0), allocation.getChannel(1));
+    }
+
+    @Test
+    public void testManyInstrumentsSpillOntoAnotherPort() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            names.add("Instrument " + i);
+        }
+        MidiChannelAllocator.Allocation allocation = new MidiChannelAllocator().allocate(names);
+        assertEquals(2, allocation.getPortCount());
+        assertEquals(0, allocation.getPort(14));
+        assertEquals(1, allocation.getPort(15));
+        assertEquals(0, allocation.getChannel(15));
+        assertTrue(allocation.toString().contains("staff 15 (Instrument 15) -> port 1, channel 0"));
+    }
+
+    @Test
+    public void testPercussionUsesChannelNine() {
+        MidiChannelAllocator.Allocation allocation =
+            new MidiChannelAllocator().allocate(List.of("Piano", "Drum Set", "Bass"));
+        assertEquals(0, allocation.getChannel(0));
+        assertEquals(MidiChannelAllocator.PERCUSSION_CHANNEL, allocation.getChannel(1));
+        assertEquals(1, allocation.getChannel(2));
+    }
+
+    @Test
+    public void testCompiledPortsSurviveAMidiFile() throws Exception {
+        List<SheetMusic> sheetMusic = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            List<Staff> staves = new ArrayList<>();
+            staves.add(new Staff("treble", new ArrayList<>(List.of(measure(note(60 + i, 0.25, false))))));
+            sheetMusic.add(new SheetMusic(new Instrument(new ArrayList<>(Collections.singletonList("treble")),
+                "Instrument " + i), staves));
+        }
+        Song song = new Song(UUID.randomUUID(), "Orchestra", "Composer", 0, sheetMusic);
+        Sequence sequence = new MidiSequenceCompiler().compile(song);
+        Track last = sequence.getTracks()[16];
+        assertEquals(1, MidiChannelAllocator.portOf(last));
+        assertEquals(2, MidiChannelAllocator.portCount(sequence));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiSystem.write(sequence, 1, out);
+        Sequence read = MidiSystem.getSequence(new ByteArrayInputStream(out.toByteArray()));
+        MidiChannelAllocator.restorePorts(read);
+        Track restored = read.getTracks()[16];
+        int portMessages = 0;
+        for (int i = 0; i < restored.size(); i++) {
+            if (restored.get(i).getMessage() instanceof MidiChannelAllocator.PortMessage message) {
+                assertEquals(1, message.getPort());
+                portMessages++;
+            }
+        }
+        // The program change and the note on and off.
+        assertEquals(3, portMessages);
+    }
+}
@@ -0,0 +1,81 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import static com.service.MidiSequenceCompilerTest.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import javax.sound.midi.Sequence;
+
+import com.model.Song;
+
+public class MidiDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoredSequenceLoadsAfterRestart() throws Exception {
+        Song song = songOf(measure(note(60, 0.25, false), note(64, 0.5, true)), measure(note(64, 0.25, false)));
+        String hash = SongContentHasher.hashSong(song);
+        MidiDiskCache cache = new MidiDiskCache(folder.getRoot().getPath(), MidiDiskCache.DEFAULT_MAX_BYTES);
+        assertNull(cache.load(hash));
+        cache.storeAsync(hash, new MidiSequenceCompiler().compile(song));
+        cache.flush();
+
+        MidiDiskCache reopened = new MidiDiskCache(folder.getRoot().getPath(), MidiDiskCache.DEFAULT_MAX_BYTES);
+        Sequence loaded = reopened.load(hash);
+        assertNotNull(loaded);
+        assertEquals(noteSpans(new MidiSequenceCompiler().compile(song).getTracks()[1]).size(),
+            noteSpans(loaded.getTracks()[1]).size());
+        assertEquals(1, reopened.getHitCount());
+    }
+
+    @Test
+    public void testStoringLeavesTheSequenceUnchanged() throws Exception {
+        Song song = songOf(measure(note(60, 0.25, false)));
+        String hash = SongContentHasher.hashSong(song);
+        Sequence sequence = new MidiSequenceCompiler().compile(song);
+        int conductorEvents = sequence.getTracks()[0].size();
+        MidiDiskCache cache = new MidiDiskCache(folder.getRoot().getPath(), MidiDiskCache.DEFAULT_MAX_BYTES);
+        cache.storeAsync(hash, sequence);
+        cache.flush();
+        assertEquals(conductorEvents, sequence.getTracks()[0].size());
+        assertNotNull(cache.load(hash));
+    }
+
+    @Test
+    public void testFileWithWrongHashIsRejected() throws Exception {
+        Song song = songOf(measure(note(60, 0.25, false)));
+        String hash = SongContentHasher.hashSong(song);
+        MidiDiskCache cache = new MidiDiskCache(folder.getRoot().getPath(), MidiDiskCache.DEFAULT_MAX_BYTES);
+        cache.storeAsync(hash, new MidiSequenceCompiler().compile(song));
+        cache.flush();
+        File stored = new File(folder.getRoot(), hash + ".mid");
+        File renamed = new File(folder.getRoot(), "0000.mid");
+        Files.move(stored.toPath(), renamed.toPath());
+        assertNull(cache.load("0000"));
+        assertFalse(renamed.exists());
+    }
+
+    @Test
+    public void testEvictsOldestFilesOverBudget() throws Exception {
+        MidiDiskCache cache = new MidiDiskCache(folder.getRoot().getPath(), 1);
+        Song song = songOf(measure(note(60, 0.25, false)));
+        cache.storeAsync("a", new MidiSequenceCompiler().compile(song));
+        cache.flush();
+        assertEquals(0, folder.getRoot().listFiles((dir, name) -> name.endsWith(".mid")).length);
+    }
+
+    @Test
+    public void testEditChangesSongHash() {
+        Song song = songOf(measure(note(60, 0.25, false)));
+        String before = SongContentHasher.hashSong(song);
+        song.getSheetMusic().get(0).getStaves().get(0).getMeasures().get(0).addMusicElement(note(62, 0.25, false));
+        assertNotEquals(before, SongContentHasher.hashSong(song));
+    }
+}
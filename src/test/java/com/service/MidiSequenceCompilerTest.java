@@ -0,0 +1,167 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import com.model.*;
+
+public class MidiSequenceCompilerTest {
+    private static final int QUARTER = MidiSequenceCompiler.RESOLUTION;
+
+    @Test
+    public void testConductorTrackPlusOneTrackPerStaffAndClick() throws Exception {
+        Song song = songOf(measure(note(60, 0.25, false)), measure(note(64, 0.25, false)));
+        Sequence sequence = new MidiSequenceCompiler().compile(song);
+        assertEquals(3, sequence.getTracks().length);
+        assertEquals(2, ClickTrack.indexOf(sequence));
+        assertEquals(Sequence.PPQ, sequence.getDivisionType(), 0.0);
+    }
+
+    @Test
+    public void testNotesAdvanceByDuration() throws Exception {
+        Song song = songOf(measure(note(60, 0.25, false), note(62, 0.5, false)));
+        List<long[]> notes = noteSpans(new MidiSequenceCompiler().compile(song).getTracks()[1]);
+        assertArrayEquals(new long[] {60, 0, QUARTER}, notes.get(0));
+        assertArrayEquals(new long[] {62, QUARTER, 3 * QUARTER}, notes.get(1));
+    }
+
+    @Test
+    public void testTieAcrossBarlineIsOneSustainedNote() throws Exception {
+        Song song = songOf(measure(note(60, 0.25, true)), measure(note(60, 0.25, false)));
+        List<long[]> notes = noteSpans(new MidiSequenceCompiler().compile(song).getTracks()[1]);
+        assertEquals(1, notes.size());
+        assertArrayEquals(new long[] {60, 0, 2 * QUARTER}, notes.get(0));
+    }
+
+    @Test
+    public void testLowestMidiNoteIsPlayedAndTied() throws Exception {
+        Song song = songOf(measure(note(0, 0.25, true)), measure(note(0, 0.25, false)));
+        List<long[]> notes = noteSpans(new MidiSequenceCompiler().compile(song).getTracks()[1]);
+        assertEquals(1, notes.size());
+        assertArrayEquals(new long[] {0, 0, 2 * QUARTER}, notes.get(0));
+    }
+
+    @Test
+    public void testTupletScalesDurations() throws Exception {
+        List<MusicElement> inner = new ArrayList<>();
+        inner.add(note(60, 0.125, false));
+        inner.add(note(62, 0.125, false));
+        inner.add(note(64, 0.125, false));
+        Tuplet triplet = new Tuplet(3, 2, 0.375, inner, 120);
+        Song song = songOf(measure(triplet, note(65, 0.25, false)));
+        List<long[]> notes = noteSpans(new MidiSequenceCompiler().compile(song).getTracks()[1]);
+        assertEquals(QUARTER / 3, notes.get(1)[1]);
+        assertEquals(QUARTER, notes.get(3)[1]);
+    }
+
+    @Test
+    public void testTempoChangesOnlyWhenTempoChanges() throws Exception {
+        Song song = songOf(measure(note(60, 0.25, false, 100), note(60, 0.25, false, 100), note(60, 0.25, false, 90)));
+        Track conductor = new MidiSequenceCompiler().compile(song).getTracks()[0];
+        int tempoEvents = 0;
+        for (int i = 0; i < conductor.size(); i++) {
+            if (conductor.get(i).getMessage() instanceof MetaMessage meta && meta.getType() == 0x51) {
+                tempoEvents++;
+            }
+        }
+        assertEquals(2, tempoEvents);
+    }
+
+    @Test
+    public void testSessionCompilesInWindowsLikeOnePass() throws Exception {
+        Song song = songOf(measure(note(60, 0.25, false, 100)), measure(note(62, 0.25, true, 90)),
+                measure(note(62, 0.25, false, 90)), measure(note(64, 0.25, false, 80)));
+        MidiSequenceCompiler.Session session = new MidiSequenceCompiler().open(song);
+        assertEquals(4 * QUARTER, session.getTickLength());
+
+        assertTrue(session.compileMeasures(2));
+        assertEquals(2 * QUARTER, session.getCompiledTick());
+        assertTrue(session.compileMeasures(1));
+        assertFalse(session.compileMeasures(1));
+        assertTrue(session.isComplete());
+
+        Sequence whole = new MidiSequenceCompiler().compile(song);
+        Sequence streamed = session.getSequence();
+        List<long[]> expected = noteSpans(whole.getTracks()[1]);
+        List<long[]> actual = noteSpans(streamed.getTracks()[1]);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i));
+        }
+        assertEquals(whole.getTracks()[0].size(), streamed.getTracks()[0].size());
+    }
+
+    /** Returns {midi, onTick, offTick} for every note in the track, in note-on order. */
+    @Test
+    public void testEachStaffTrackHasOneProgramChange() throws Exception {
+        Song song = songOf(measure(note(60, 0.25, false)), measure(note(62, 0.25, false)));
+        List<Staff> strings = new ArrayList<>(List.of(new Staff("treble", new ArrayList<>(List.of(
+                measure(note(67, 0.25, false)), measure(note(69, 0.25, false)))))));
+        song.getSheetMusic().add(new SheetMusic(new Instrument(new ArrayList<>(List.of("treble")), "Violin I"),
+                strings));
+        Sequence sequence = new MidiSequenceCompiler().compile(song);
+        int[] expected = {0, 40};
+        for (int staff = 0; staff < expected.length; staff++) {
+            Track track = sequence.getTracks()[staff + 1];
+            List<Integer> programs = new ArrayList<>();
+            for (int i = 0; i < track.size(); i++) {
+                if (track.get(i).getMessage() instanceof ShortMessage message
+                        && message.getCommand() == ShortMessage.PROGRAM_CHANGE) {
+                    programs.add(message.getData1());
+                    assertEquals(0, track.get(i).getTick());
+                }
+            }
+            assertEquals(List.of(expected[staff]), programs);
+        }
+    }
+
+    static List<long[]> noteSpans(Track track) {
+        List<long[]> spans = new ArrayList<>();
+        for (int i = 0; i < track.size(); i++) {
+            MidiEvent event = track.get(i);
+            if (event.getMessage() instanceof ShortMessage message) {
+                if (message.getCommand() == ShortMessage.NOTE_ON) {
+                    spans.add(new long[] {message.getData1(), event.getTick(), -1});
+                } else if (message.getCommand() == ShortMessage.NOTE_OFF) {
+                    for (long[] span : spans) {
+                        if (span[0] == message.getData1() && span[2] < 0) {
+                            span[2] = event.getTick();
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return spans;
+    }
+
+    static Note note(int midi, double duration, boolean tied) {
+        return note(midi, duration, tied, 120);
+    }
+
+    static Note note(int midi, double duration, boolean tied, double tempo) {
+        return new Note(0, midi, "C4", duration, 'q', 0, tied, "", tempo);
+    }
+
+    static Measure measure(MusicElement... elements) {
+        return new Measure(0, 4, 4, new ArrayList<>(List.of(elements)));
+    }
+
+    static Song songOf(Measure... measures) {
+        List<Staff> staves = new ArrayList<>();
+        staves.add(new Staff("treble", new ArrayList<>(List.of(measures))));
+        List<SheetMusic> sheetMusic = new ArrayList<>();
+        sheetMusic.add(new SheetMusic(new Instrument(new ArrayList<>(List.of("treble")), "Piano"), staves));
+        return new Song(UUID.randomUUID(), "Test", "Composer", 0, sheetMusic);
+    }
+}
@@ -0,0 +1,41 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.List;
+
+public class PatternOptimizerTest {
+
+    @Test
+    public void testRepeatedTemposAreDropped() {
+        List<String> optimized = new PatternOptimizer().optimize(List.of("T120", "C4q", "T120", "D4q", "T90", "E4q"));
+        assertEquals(List.of("T120", "C4q", "D4q", "T90", "E4q"), optimized);
+    }
+
+    @Test
+    public void testTiedNotesAreMerged() {
+        List<String> optimized = new PatternOptimizer().optimize(List.of("T120", "C4q-", "T120", "C4-q", "D4i-", "D4-q"));
+        assertEquals(List.of("T120", "C4h", "D4q."), optimized);
+    }
+
+    @Test
+    public void testUnevenTieUsesNumericDuration() {
+        List<String> optimized = new PatternOptimizer().optimize(List.of("C4h-", "C4-s"));
+        assertEquals(List.of("C4/0.5625"), optimized);
+    }
+
+    @Test
+    public void testTrailingRestsAndEmptyVoicesAreDropped() {
+        assertEquals(List.of("C4q"), new PatternOptimizer().optimize(List.of("C4q", "Rq", "T90", "Rh")));
+        assertTrue(new PatternOptimizer().optimize(List.of("T120", "Rw", "Rw")).isEmpty());
+    }
+
+    @Test
+    public void testCountsEventsBeforeAndAfter() {
+        PatternOptimizer optimizer = new PatternOptimizer();
+        optimizer.optimize(List.of("T120", "C4q", "T120", "D4q", "Rq"));
+        assertEquals(5, optimizer.getEventsBefore());
+        assertEquals(3, optimizer.getEventsAfter());
+    }
+}
@@ -0,0 +1,135 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import static com.service.MidiSequenceCompilerTest.measure;
+import static com.service.MidiSequenceCompilerTest.note;
+import static com.service.MidiSequenceCompilerTest.songOf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.model.*;
+import org.jfugue.pattern.Pattern;
+
+public class PlaybackQueueTest {
+
+    // Never plays. Task k reports starting at k microseconds and ending 900 ns later, so every gap is 100 ns.
+    private static class StubTask extends PlaybackTask {
+        private final long startedAt;
+        private Runnable onStarted;
+
+        StubTask(int index) {
+            super(new Pattern());
+            startedAt = index * 1000L;
+        }
+
+        @Override protected Void call() {
+            return null;
+        }
+
+        @Override public void stopPlayback() {
+        }
+
+        @Override public void setOnStarted(Runnable onStarted) {
+            this.onStarted = onStarted;
+        }
+
+        @Override public long getStartedAtNanos() {
+            return startedAt;
+        }
+
+        @Override public long getEndedAtNanos() {
+            return startedAt + 900;
+        }
+    }
+
+    @Test
+    public void testPrefetchCompilesIntoCache() throws Exception {
+        CompiledSongCache cache = new CompiledSongCache(100_000);
+        PlaybackQueue queue = new PlaybackQueue(cache, song -> null);
+        Song song = songOf(measure(note(60, 0.25, false)), measure(note(62, 0.25, false)));
+        queue.prefetch(song).get();
+        CompiledSong compiled = cache.lookup(song);
+        assertNotNull(compiled);
+        assertEquals(song.getContentVersion(), compiled.getContentVersion());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testPrefetchSkipsSongsAlreadyCached() throws Exception {
+        CompiledSongCache cache = new CompiledSongCache(100_000);
+        Song song = songOf(measure(note(60, 0.25, false)));
+        CompiledSong compiled = cache.getOrCompile(song);
+        new PlaybackQueue(cache, s -> null).prefetch(song).get();
+        assertSame(compiled, cache.lookup(song));
+    }
+
+    @Test
+    public void testFinishedSongStartsTheNextAndRecordsTheGap() {
+        List<StubTask> tasks = new ArrayList<>();
+        PlaybackQueue queue = new PlaybackQueue(new CompiledSongCache(1000), song -> {
+            StubTask task = new StubTask(tasks.size());
+            tasks.add(task);
+            return task;
+        });
+        queue.setPrefetchDepth(0);
+        Song first = songOf(measure(note(60, 0.25, false)));
+        Song second = songOf(measure(note(62, 0.25, false)));
+        queue.play(List.of(first, second));
+
+        queue.advance(tasks.get(0));
+        assertSame(tasks.get(1), queue.getCurrentTask());
+        assertSame(second, queue.getCurrentSong());
+        tasks.get(1).onStarted.run();
+        assertEquals(1, queue.getTransitionCount());
+        assertEquals(100, queue.getLastGapNanos());
+        assertEquals(100, queue.getAverageGapNanos(), 0);
+
+        // A session that already handed over does not advance again.
+        queue.advance(tasks.get(0));
+        assertEquals(2, tasks.size());
+        assertEquals(1, queue.getPosition());
+
+        queue.advance(tasks.get(1));
+        assertNull(queue.getCurrentTask());
+        assertEquals(2, tasks.size());
+        PlaybackService.getInstance().stop();
+    }
+
+    @Test
+    public void testSongStartedElsewhereIsNotTakenOver() {
+        List<StubTask> tasks = new ArrayList<>();
+        PlaybackQueue queue = new PlaybackQueue(new CompiledSongCache(1000), song -> {
+            StubTask task = new StubTask(tasks.size());
+            tasks.add(task);
+            return task;
+        });
+        queue.setPrefetchDepth(0);
+        queue.play(List.of(songOf(measure(note(60, 0.25, false))), songOf(measure(note(62, 0.25, false)))));
+        PlaybackService.getInstance().start(new StubTask(9));
+
+        queue.advance(tasks.get(0));
+        assertNull(queue.getCurrentTask());
+        assertEquals(0, queue.getPosition());
+        assertEquals(0, queue.getTransitionCount());
+        PlaybackService.getInstance().stop();
+    }
+
+    @Test
+    public void testEnqueueDoesNotStartPlayback() {
+        PlaybackQueue queue = new PlaybackQueue(new CompiledSongCache(1000), song -> null);
+        queue.enqueue(songOf(measure(note(60, 0.25, false))));
+        assertEquals(1, queue.getSongs().size());
+        assertNull(queue.getCurrentSong());
+        assertEquals(-1, queue.getLastGapNanos());
+        assertEquals(0, queue.getAverageGapNanos(), 0);
+        assertEquals(PlaybackQueue.DEFAULT_PREFETCH_DEPTH, queue.getPrefetchDepth());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativePrefetchDepthIsRejected() {
+        new PlaybackQueue(new CompiledSongCache(1000), song -> null).setPrefetchDepth(-1);
+    }
+}
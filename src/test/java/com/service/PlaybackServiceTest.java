@@ -0,0 +1,25 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+public class PlaybackServiceTest {
+
+    @After
+    public void resetTempo() {
+        PlaybackService.getInstance().setTempoFactor(1f);
+    }
+
+    @Test
+    public void testTempoFactorIsKept() {
+        assertEquals(0.5f, PlaybackService.getInstance().setTempoFactor(0.5f), 0);
+        assertEquals(0.5f, PlaybackService.getInstance().getTempoFactor(), 0);
+    }
+
+    @Test
+    public void testTempoFactorIsClamped() {
+        assertEquals(PlaybackService.MIN_TEMPO_FACTOR, PlaybackService.getInstance().setTempoFactor(0.1f), 0);
+        assertEquals(PlaybackService.MAX_TEMPO_FACTOR, PlaybackService.getInstance().setTempoFactor(5f), 0);
+    }
+}
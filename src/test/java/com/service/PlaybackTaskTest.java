@@ -0,0 +1,95 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import static com.service.MidiSequenceCompilerTest.measure;
+import static com.service.MidiSequenceCompilerTest.note;
+import static com.service.MidiSequenceCompilerTest.songOf;
+
+import javax.sound.midi.Sequence;
+
+import com.model.*;
+
+public class PlaybackTaskTest {
+
+    private static Song eightMeasures() {
+        Measure[] measures = new Measure[8];
+        for (int i = 0; i < measures.length; i++) {
+            measures[i] = measure(note(60 + i, 0.25, false));
+        }
+        return songOf(measures);
+    }
+
+    @Test
+    public void testLoopCompilesStreamedSongUpToRange() throws Exception {
+        MidiSequenceCompiler.Session session = new MidiSequenceCompiler().open(eightMeasures());
+        PlaybackTask task = new PlaybackTask(session, 0, null);
+        task.setLoop(2, 6);
+        assertTrue(task.isLooping());
+        assertTrue(session.getCompiledMeasureCount() >= 7);
+        task.clearLoop();
+        assertFalse(task.isLooping());
+    }
+
+    @Test
+    public void testLoopEndIsMeasureEnd() throws Exception {
+        MidiSequenceCompiler.Session session = new MidiSequenceCompiler().open(eightMeasures());
+        MeasureTickIndex index = session.getMeasureTickIndex();
+        assertEquals(index.getTick(0, 4), index.getEndTick(0, 3));
+        assertEquals(8 * MidiSequenceCompiler.RESOLUTION, index.getEndTick(0, 7));
+    }
+
+    @Test
+    public void testSongTaskPreparesOnlyWhenItRuns() throws Exception {
+        CompiledSongCache cache = new CompiledSongCache(100_000);
+        Song song = eightMeasures();
+        PlaybackTask task = new PlaybackTask(song, cache, 0);
+        task.setLoop(2, 6);
+        task.seekToMeasure(3);
+        assertTrue(task.hasMeasures());
+        assertNull(task.getMeasureTickIndex());
+        assertEquals(0, cache.getHitCount() + cache.getMissCount());
+
+        task.prepare();
+        assertNotNull(task.getMeasureTickIndex());
+        assertEquals(1, cache.getMissCount());
+        assertTrue(task.isLooping());
+    }
+
+    @Test
+    public void testLoopOutsidePreparedSongIsDropped() throws Exception {
+        PlaybackTask task = new PlaybackTask(eightMeasures(), new CompiledSongCache(100_000), 0);
+        task.setLoop(2, 8);
+        assertTrue(task.isLooping());
+        task.prepare();
+        assertFalse(task.isLooping());
+    }
+
+    @Test
+    public void testReservedLengthLeavesTheStreamedSequenceAlone() throws Exception {
+        MidiSequenceCompiler.Session session = new MidiSequenceCompiler().open(eightMeasures());
+        session.compileMeasures(PlaybackTask.INITIAL_WINDOW_MEASURES);
+        Sequence compiled = session.getSequence();
+        int tracks = compiled.getTracks().length;
+        long compiledLength = compiled.getTickLength();
+        Sequence played = PlaybackTask.reserveLength(compiled, session.getTickLength());
+
+        assertEquals(session.getTickLength(), played.getTickLength());
+        assertEquals(tracks, compiled.getTracks().length);
+        assertEquals(compiledLength, compiled.getTickLength());
+        // Measures compiled later reach the played sequence through the shared tracks.
+        session.compileMeasures(session.getMeasureCount());
+        assertSame(compiled.getTracks()[1], played.getTracks()[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReversedLoopIsRejected() throws Exception {
+        new PlaybackTask(new MidiSequenceCompiler().open(eightMeasures()), 0, null).setLoop(5, 2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testLoopOutsideSongIsRejected() throws Exception {
+        new PlaybackTask(new MidiSequenceCompiler().open(eightMeasures()), 0, null).setLoop(2, 8);
+    }
+}
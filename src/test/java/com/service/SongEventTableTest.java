@@ -0,0 +1,130 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import static com.service.MidiSequenceCompilerTest.measure;
+import static com.service.MidiSequenceCompilerTest.note;
+import static com.service.MidiSequenceCompilerTest.songOf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.model.*;
+
+public class SongEventTableTest {
+    private static final int QUARTER = MidiSequenceCompiler.RESOLUTION;
+
+    @Test
+    public void testEventsOfChordsRestsAndTuplets() {
+        List<Note> chordNotes = new ArrayList<>(List.of(note(60, 0.25, false), note(64, 0.5, false)));
+        List<MusicElement> inner = new ArrayList<>(List.of(note(67, 0.125, false), note(69, 0.125, false),
+                note(71, 0.125, false)));
+        Song song = songOf(measure(new Chord("", chordNotes, 120), new Rest(0.25, 'q', 0, false, "", 120),
+                new Tuplet(3, 2, 0.375, inner, 120)));
+        SongEventTable events = SongEventTable.build(song);
+
+        assertEquals(6, events.getEventCount());
+        assertEquals(0, events.getOnsetTick(1));
+        assertEquals(2 * QUARTER, events.getDurationTicks(1));
+        assertEquals(SongEventTable.REST_MIDI, events.getMidi(2));
+        assertEquals(2 * QUARTER, events.getOnsetTick(2));
+        assertEquals(3 * QUARTER, events.getOnsetTick(3));
+        assertEquals(QUARTER / 3, events.getDurationTicks(3), 1);
+        assertSame(chordNotes.get(1), events.getElement(1));
+        assertEquals(0, events.getFirstEvent(0, 0));
+        assertEquals(6, events.getFirstEvent(0, 1));
+    }
+
+    @Test
+    public void testMicrosFollowTempoChanges() {
+        SongEventTable events = SongEventTable.build(songOf(measure(note(60, 0.25, false, 120)),
+                measure(note(62, 0.25, false, 60)), measure(note(64, 0.25, true, 60))));
+        assertEquals(2, events.getTempoCount());
+        assertEquals(500_000, events.getOnsetMicros(1));
+        assertEquals(1_500_000, events.getOnsetMicros(2));
+        assertEquals(1_500_000, events.getMeasureMicros(0, 2));
+        // Nothing continues the tie, so the note is not held.
+        assertFalse(events.isTiedToNext(2));
+        assertEquals(3 * QUARTER, events.getSoundingEndTick(2));
+        assertEquals(3 * QUARTER, events.getTickLength());
+    }
+
+    @Test
+    public void testTempoComesFromTheLongestStaff() {
+        Song song = songOf(measure(note(60, 0.25, false, 60)), measure(note(62, 0.25, false, 90)));
+        List<Staff> staves = song.getSheetMusic().get(0).getStaves();
+        // A longer staff that stays at 120 BPM, and a staff as long that changes at the same onset.
+        staves.add(new Staff("bass", new ArrayList<>(List.of(measure(note(48, 0.25, false)),
+                measure(note(50, 0.25, false), note(52, 0.25, false))))));
+        staves.add(new Staff("bass", new ArrayList<>(List.of(measure(note(48, 0.25, false)),
+                measure(note(50, 0.25, false, 60), note(52, 0.25, false, 60))))));
+        SongEventTable events = SongEventTable.build(song);
+
+        assertEquals(1, events.getLongestStaff());
+        assertEquals(1, events.getTempoCount());
+        assertEquals(120, events.getTempoBpm(0));
+        // The first staff's 60 BPM is ignored, so its second measure starts after a quarter at 120 BPM.
+        assertEquals(500_000, events.getMeasureMicros(0, 1));
+    }
+
+    @Test
+    public void testTieAcrossBarline() {
+        SongEventTable events = SongEventTable.build(songOf(measure(note(60, 0.25, true)),
+                measure(note(60, 0.5, false))));
+        assertTrue(events.isTiedToNext(0));
+        assertTrue(events.isTiedFromPrevious(1));
+        assertEquals(3 * QUARTER, events.getSoundingEndTick(0));
+    }
+
+    @Test
+    public void testTieIntoChordMatchesByMidiNumber() {
+        List<Note> notes = new ArrayList<>(List.of(note(64, 0.25, false), note(60, 0.25, false)));
+        SongEventTable events = SongEventTable.build(songOf(measure(note(60, 0.25, true),
+                new Chord("", notes, 120))));
+        assertFalse(events.isTiedFromPrevious(1));
+        assertTrue(events.isTiedFromPrevious(2));
+        assertEquals(2 * QUARTER, events.getSoundingEndTick(0));
+    }
+
+    @Test
+    public void testTieOutOfTuplet() {
+        List<MusicElement> inner = new ArrayList<>(List.of(note(60, 0.125, false), note(62, 0.125, false),
+                note(64, 0.125, true)));
+        SongEventTable events = SongEventTable.build(songOf(measure(new Tuplet(3, 2, 0.375, inner, 120)),
+                measure(note(64, 0.25, false))));
+        assertTrue(events.isTiedToNext(2));
+        assertTrue(events.isTiedFromPrevious(3));
+        assertEquals(QUARTER * 2 / 3, events.getOnsetTick(2));
+        assertEquals(2 * QUARTER, events.getSoundingEndTick(2));
+    }
+
+    @Test
+    public void testUntiedRepeatIsStruckAgain() {
+        SongEventTable events = SongEventTable.build(songOf(measure(note(60, 0.25, false), note(60, 0.25, false))));
+        assertFalse(events.isTiedFromPrevious(1));
+        assertEquals(QUARTER, events.getSoundingEndTick(0));
+    }
+
+    @Test
+    public void testEventAtTick() {
+        SongEventTable events = SongEventTable.build(songOf(measure(note(60, 0.25, false), note(62, 0.25, false)),
+                measure(note(64, 0.5, false))));
+        assertEquals(0, events.eventAt(0, 0));
+        assertEquals(1, events.eventAt(0, QUARTER + 5));
+        assertEquals(2, events.eventAt(0, 10 * QUARTER));
+        assertEquals(-1, events.eventAt(0, -1));
+    }
+
+    @Test
+    public void testCacheBuildsOncePerVersion() {
+        Song song = songOf(measure(note(60, 0.25, false)));
+        CompiledSongCache cache = new CompiledSongCache(1000);
+        SongEventTable first = cache.getEventTable(song);
+        assertSame(first, cache.getEventTable(song));
+        song.markModified();
+        SongEventTable second = cache.getEventTable(song);
+        assertNotSame(first, second);
+        assertEquals(song.getContentVersion(), second.getContentVersion());
+    }
+}
@@ -0,0 +1,61 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import static com.service.MidiSequenceCompilerTest.measure;
+import static com.service.MidiSequenceCompilerTest.note;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.model.*;
+
+public class SongPlayerPatternTest {
+
+    private static Song songWithStaves(int count) {
+        List<Staff> staves = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            staves.add(new Staff("treble", List.of(measure(note(60 + i, 0.25, true)), measure(note(60 + i, 0.25, false)))));
+        }
+        SheetMusic sheetMusic = new SheetMusic(new Instrument(List.of("treble"), "Piano"), staves);
+        List<SheetMusic> sheets = new ArrayList<>();
+        sheets.add(sheetMusic);
+        return new Song(UUID.randomUUID(), "Test", "Composer", 0, sheets);
+    }
+
+    @Test
+    public void testVoicesStayInStaffOrder() {
+        Song song = songWithStaves(12);
+        String pattern = new SongPlayer().play(song).toString();
+        MidiChannelAllocator.Allocation allocation = new MidiChannelAllocator().allocate(song);
+        int previous = -1;
+        for (int i = 0; i < 12; i++) {
+            int voice = pattern.indexOf("V" + allocation.getChannel(i) + " ");
+            assertTrue(voice > previous);
+            previous = voice;
+        }
+        assertFalse(pattern.contains("V9 "));
+    }
+
+    @Test
+    public void testTieAcrossBarlineIsMergedAndCounted() {
+        SongPlayer player = new SongPlayer();
+        String pattern = player.play(songWithStaves(1)).toString();
+        assertEquals("V0 I0 R T120 C4h", pattern);
+        assertEquals(4, player.getEventsBeforeOptimization());
+        assertEquals(2, player.getEventsAfterOptimization());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSongOnSeveralPortsHasNoPattern() {
+        List<SheetMusic> sheets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            List<Staff> staves = new ArrayList<>();
+            staves.add(new Staff("treble", List.of(measure(note(60, 0.25, false)))));
+            sheets.add(new SheetMusic(new Instrument(List.of("treble"), "Part " + i), staves));
+        }
+        new SongPlayer().play(new Song(UUID.randomUUID(), "Test", "Composer", 0, sheets));
+    }
+}
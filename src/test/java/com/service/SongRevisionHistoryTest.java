@@ -0,0 +1,145 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.model.*;
+
+public class SongRevisionHistoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SongRevisionHistory history;
+    private Song song;
+
+    @Before
+    public void setUp() {
+        history = new SongRevisionHistory(folder.getRoot().getPath());
+        List<Measure> measures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            List<MusicElement> elements = new ArrayList<>();
+            elements.add(new Note(261.63, 60 + i, "C4", 0.25, 'q', 0, false, "", 120));
+            measures.add(new Measure(0, 4, 4, elements));
+        }
+        List<Staff> staves = new ArrayList<>();
+        staves.add(new Staff("treble", measures));
+        List<SheetMusic> sheetMusic = new ArrayList<>();
+        sheetMusic.add(new SheetMusic(new Instrument(new ArrayList<>(List.of("treble")), "Piano"), staves));
+        song = new Song(UUID.randomUUID(), "Revisions", "Composer", 0, sheetMusic);
+    }
+
+    @Test
+    public void testFirstRevisionIsCheckpoint() throws Exception {
+        assertEquals(0, history.recordRevision(song));
+        List<SongRevision> revisions = history.getRevisions(song.getId());
+        assertEquals(1, revisions.size());
+        assertTrue(revisions.get(0).checkpoint());
+        assertEquals(4, revisions.get(0).changedMeasures());
+    }
+
+    @Test
+    public void testUnchangedSongRecordsNothing() throws Exception {
+        history.recordRevision(song);
+        assertEquals(-1, history.recordRevision(song));
+    }
+
+    @Test
+    public void testRevisionStoresOnlyChangedMeasures() throws Exception {
+        history.recordRevision(song);
+        measure(2).addMusicElement(new Rest(0.25, 'q', 0, false, "", 120));
+        assertEquals(1, history.recordRevision(song));
+        assertEquals(1, history.getRevisions(song.getId()).get(1).changedMeasures());
+    }
+
+    @Test
+    public void testReconstructEarlierRevision() throws Exception {
+        history.recordRevision(song);
+        measure(0).addMusicElement(new Rest(0.5, 'h', 0, false, "", 120));
+        song.getSheetMusic().get(0).getStaves().get(0).addMeasure(new Measure(0, 3, 4, new ArrayList<>()));
+        history.recordRevision(song);
+
+        Song first = history.reconstruct(song.getId(), 0);
+        Staff staff = first.getSheetMusic().get(0).getStaves().get(0);
+        assertEquals(4, staff.getMeasures().size());
+        assertEquals(1, staff.getMeasures().get(0).getMusicElements().size());
+
+        Song second = history.reconstruct(song.getId(), 1);
+        Staff secondStaff = second.getSheetMusic().get(0).getStaves().get(0);
+        assertEquals(5, secondStaff.getMeasures().size());
+        assertEquals(SongContentHasher.hashMeasure(measure(0)),
+            SongContentHasher.hashMeasure(secondStaff.getMeasures().get(0)));
+    }
+
+    @Test
+    public void testHistoryReloadsFromDisk() throws Exception {
+        history.recordRevision(song);
+        SongRevisionHistory reopened = new SongRevisionHistory(folder.getRoot().getPath());
+        assertEquals(-1, reopened.recordRevision(song));
+        measure(3).addMusicElement(new Rest(0.25, 'q', 0, false, "", 120));
+        assertEquals(1, reopened.recordRevision(song));
+    }
+
+    @Test
+    public void testReconstructAcrossCheckpoint() throws Exception {
+        for (int i = 0; i <= SongRevisionHistory.CHECKPOINT_INTERVAL + 1; i++) {
+            measure(i % 4).addMusicElement(new Rest(0.0625, 's', 0, false, "", 120));
+            history.recordRevision(song);
+        }
+        int last = SongRevisionHistory.CHECKPOINT_INTERVAL + 1;
+        Song rebuilt = history.reconstruct(song.getId(), last);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(SongContentHasher.hashMeasure(measure(i)),
+                SongContentHasher.hashMeasure(rebuilt.getSheetMusic().get(0).getStaves().get(0).getMeasures().get(i)));
+        }
+    }
+
+    @Test
+    public void testUnchangedSongAtCheckpointRecordsNothing() throws Exception {
+        for (int i = 0; i < SongRevisionHistory.CHECKPOINT_INTERVAL; i++) {
+            measure(i % 4).addMusicElement(new Rest(0.0625, 's', 0, false, "", 120));
+            history.recordRevision(song);
+        }
+        assertEquals(-1, history.recordRevision(song));
+    }
+
+    @Test
+    public void testCheckpointStandsOnItsOwn() throws Exception {
+        String original = SongContentHasher.hashMeasure(measure(1));
+        for (int i = 0; i < SongRevisionHistory.CHECKPOINT_INTERVAL; i++) {
+            measure(0).addMusicElement(new Rest(0.0625, 's', 0, false, "", 120));
+            history.recordRevision(song);
+        }
+        measure(1).addMusicElement(new Rest(0.25, 'q', 0, false, "", 120));
+        history.recordRevision(song);
+        // Back to the contents of the first revision, which were stored before the checkpoint.
+        measure(1).getMusicElements().remove(measure(1).getMusicElements().size() - 1);
+        int last = history.recordRevision(song);
+
+        // Every revision before the checkpoint is unreadable, so the rebuild must not need them.
+        Path log = folder.getRoot().toPath().resolve(song.getId() + ".jsonl");
+        List<String> lines = new ArrayList<>(Files.readAllLines(log));
+        for (int i = 0; i < SongRevisionHistory.CHECKPOINT_INTERVAL; i++) {
+            lines.set(i, "{not json");
+        }
+        Files.write(log, lines);
+
+        Song rebuilt = new SongRevisionHistory(folder.getRoot().getPath()).reconstruct(song.getId(), last);
+        List<Measure> measures = rebuilt.getSheetMusic().get(0).getStaves().get(0).getMeasures();
+        assertEquals(original, SongContentHasher.hashMeasure(measures.get(1)));
+        assertEquals(SongContentHasher.hashMeasure(measure(0)), SongContentHasher.hashMeasure(measures.get(0)));
+    }
+
+    private Measure measure(int index) {
+        return song.getSheetMusic().get(0).getStaves().get(0).getMeasures().get(index);
+    }
+}
@@ -0,0 +1,110 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import static com.service.MidiSequenceCompilerTest.measure;
+import static com.service.MidiSequenceCompilerTest.note;
+import static com.service.MidiSequenceCompilerTest.songOf;
+
+import com.model.*;
+import java.util.concurrent.CountDownLatch;
+
+public class SpeculativeCompilerTest {
+
+    @Test
+    public void testSelectedSongIsCompiledAndPlayCountsAsHit() throws Exception {
+        CompiledSongCache cache = new CompiledSongCache(100_000);
+        SpeculativeCompiler speculative = new SpeculativeCompiler(cache);
+        Song song = songOf(measure(note(60, 0.25, false)), measure(note(62, 0.25, false)));
+        speculative.speculate(song).get();
+        assertNotNull(cache.lookup(song));
+        assertEquals(1, speculative.getCompletedCount());
+
+        speculative.recordPlay(song);
+        speculative.recordPlay(song);
+        assertEquals(1, speculative.getHitCount());
+        assertEquals(0, speculative.getMissCount());
+        assertEquals(1.0, speculative.getHitRate(), 0);
+    }
+
+    @Test
+    public void testReadySongIsNotCompiledAgainUntilModified() throws Exception {
+        SpeculativeCompiler speculative = new SpeculativeCompiler(new CompiledSongCache(100_000));
+        Song song = songOf(measure(note(60, 0.25, false)));
+        speculative.speculate(song).get();
+        assertNull(speculative.speculate(song));
+        song.markModified();
+        assertNotNull(speculative.speculate(song));
+        assertEquals(2, speculative.getStartedCount());
+    }
+
+    @Test
+    public void testPlaysOfOtherSongsAreNotCounted() {
+        SpeculativeCompiler speculative = new SpeculativeCompiler(new CompiledSongCache(1000));
+        assertNull(speculative.speculate(null));
+        speculative.recordPlay(songOf(measure(note(60, 0.25, false))));
+        assertEquals(0, speculative.getHitCount() + speculative.getMissCount());
+        assertEquals(0, speculative.getHitRate(), 0);
+    }
+
+    @Test
+    public void testSongSelectedAtTheCapStartsWhenTheCancelledJobEnds() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Song first = songOf(measure(note(60, 0.25, false)));
+        // Holds the first job before its first window, so it is still running when it is cancelled.
+        CompiledSongCache cache = new CompiledSongCache(100_000) {
+            @Override
+            public SongEventTable getEventTable(Song song) {
+                if (song == first) {
+                    entered.countDown();
+                    boolean interrupted = false;
+                    while (release.getCount() > 0) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.getEventTable(song);
+            }
+        };
+        SpeculativeCompiler speculative = new SpeculativeCompiler(cache, 1);
+        speculative.speculate(first);
+        entered.await();
+
+        Song second = songOf(measure(note(62, 0.25, false)));
+        Song third = songOf(measure(note(64, 0.25, false)));
+        assertNull(speculative.speculate(second));
+        assertNull(speculative.speculate(third));
+        assertEquals(2, speculative.getDeferredCount());
+        release.countDown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (speculative.getCompletedCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(cache.lookup(third));
+        assertNull(cache.lookup(second));
+        assertEquals(2, speculative.getStartedCount());
+    }
+
+    @Test
+    public void testReadySongsAreBounded() throws Exception {
+        SpeculativeCompiler speculative = new SpeculativeCompiler(new CompiledSongCache(100_000));
+        for (int i = 0; i <= SpeculativeCompiler.MAX_READY; i++) {
+            speculative.speculate(songOf(measure(note(60, 0.25, false)))).get();
+        }
+        assertEquals(SpeculativeCompiler.MAX_READY, speculative.getReadyCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapMustAllowAJob() {
+        new SpeculativeCompiler(new CompiledSongCache(1000), 0);
+    }
+}
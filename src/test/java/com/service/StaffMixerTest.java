@@ -0,0 +1,80 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import javax.sound.midi.Sequencer;
+
+public class StaffMixerTest {
+
+    // Records the mute and solo flags set on each track.
+    private static Sequencer recordingSequencer(Map<Integer, Boolean> mutes, Map<Integer, Boolean> solos) {
+        return (Sequencer) Proxy.newProxyInstance(Sequencer.class.getClassLoader(), new Class<?>[] {Sequencer.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setTrackMute" -> mutes.put((Integer) args[0], (Boolean) args[1]);
+                        case "setTrackSolo" -> solos.put((Integer) args[0], (Boolean) args[1]);
+                        default -> { }
+                    }
+                    return null;
+                });
+    }
+
+    @Test
+    public void testSoloSilencesOtherStaves() {
+        StaffMixer mixer = new StaffMixer();
+        assertTrue(mixer.isAudible(1));
+        mixer.setSolo(0, true);
+        assertTrue(mixer.isAudible(0));
+        assertFalse(mixer.isAudible(1));
+        mixer.setMuted(0, true);
+        assertFalse(mixer.isAudible(0));
+        mixer.clear();
+        assertTrue(mixer.isAudible(0));
+        assertTrue(mixer.isAudible(1));
+    }
+
+    @Test
+    public void testAttachAppliesEveryTrack() {
+        Map<Integer, Boolean> mutes = new HashMap<>();
+        Map<Integer, Boolean> solos = new HashMap<>();
+        StaffMixer mixer = new StaffMixer();
+        mixer.setMuted(1, true);
+        mixer.setSolo(2, true);
+        mixer.attach(recordingSequencer(mutes, solos), 3);
+        assertEquals(Map.of(0, false, 1, false, 2, true, 3, false), mutes);
+        assertEquals(Map.of(0, true, 1, false, 2, false, 3, true), solos);
+    }
+
+    @Test
+    public void testChangesApplyOnlyWhileAttached() {
+        Map<Integer, Boolean> mutes = new HashMap<>();
+        Map<Integer, Boolean> solos = new HashMap<>();
+        StaffMixer mixer = new StaffMixer();
+        mixer.attach(recordingSequencer(mutes, solos), 2);
+        mutes.clear();
+        mixer.setMuted(1, true);
+        assertEquals(Map.of(2, true), mutes);
+        mixer.detach();
+        mixer.setMuted(0, true);
+        assertEquals(Map.of(2, true), mutes);
+        assertTrue(mixer.isMuted(0));
+    }
+
+    @Test
+    public void testClickIsMutedUntilEnabled() {
+        StaffMixer mixer = new StaffMixer();
+        assertFalse(mixer.isClickEnabled());
+        mixer.setClickEnabled(true);
+        mixer.clear();
+        assertTrue(mixer.isClickEnabled());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testNegativeStaffIsRejected() {
+        new StaffMixer().setMuted(-1, true);
+    }
+}
@@ -0,0 +1,94 @@
+package com.service;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.service.MidiSequenceCompilerTest.measure;
+import static com.service.MidiSequenceCompilerTest.note;
+import static com.service.MidiSequenceCompilerTest.songOf;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import com.model.*;
+
+public class WavRendererTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Song song() {
+        return songOf(measure(note(60, 0.25, false), note(64, 0.25, false)), measure(note(67, 0.5, false)));
+    }
+
+    @Test
+    public void testRendersRequestedFormatAndLength() throws Exception {
+        File wav = folder.newFile("song.wav");
+        long frames = new WavRenderer(22050f, 1).render(song(), wav);
+
+        AudioFileFormat format = AudioSystem.getAudioFileFormat(wav);
+        assertEquals(AudioFileFormat.Type.WAVE, format.getType());
+        assertEquals(22050f, format.getFormat().getSampleRate(), 0.0);
+        assertEquals(1, format.getFormat().getChannels());
+        // Four quarters at 120 BPM plus the one second tail.
+        assertEquals(3 * 22050, frames);
+        assertEquals(frames, format.getFrameLength());
+    }
+
+    @Test
+    public void testRenderingIsDeterministic() throws Exception {
+        File first = folder.newFile("first.wav");
+        File second = folder.newFile("second.wav");
+        WavRenderer renderer = new WavRenderer();
+        renderer.render(song(), first);
+        renderer.render(song(), second);
+        assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+    }
+
+    @Test
+    public void testStavesOnTheSecondPortPlayOnTheirOwnSynthesizer() throws Exception {
+        // Staff 0 holds an organ note for two bars; staff 15 is on port 1, channel 0, and plays the same pitch
+        // briefly. Sharing one synthesizer, its program change and note off would silence the organ.
+        List<SheetMusic> sheetMusic = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Measure first = i == 0 ? measure(note(60, 1.0, true)) : i == 15 ? measure(note(60, 0.25, false))
+                    : measure(new Rest(1.0, 'w', 0, false, "", 120));
+            Measure second = i == 0 ? measure(note(60, 1.0, false)) : measure(new Rest(1.0, 'w', 0, false, "", 120));
+            List<Staff> staves = new ArrayList<>();
+            staves.add(new Staff("treble", new ArrayList<>(List.of(first, second))));
+            String name = i == 0 ? "Organ" : "Part " + i;
+            sheetMusic.add(new SheetMusic(new Instrument(new ArrayList<>(List.of("treble")), name), staves));
+        }
+        Song song = new Song(UUID.randomUUID(), "Test", "Composer", 0, sheetMusic);
+        assertEquals(2, MidiChannelAllocator.portCount(new MidiSequenceCompiler().compile(song)));
+
+        File wav = folder.newFile("ports.wav");
+        new WavRenderer(22050f, 1).render(song, wav);
+
+        // The organ still sounds in the second bar, well after the short note ended.
+        assertTrue(rms(wav, 2.5, 3.5) > 100);
+    }
+
+    private static double rms(File wav, double fromSeconds, double toSeconds) throws Exception {
+        try (AudioInputStream stream = AudioSystem.getAudioInputStream(wav)) {
+            byte[] bytes = stream.readAllBytes();
+            float rate = stream.getFormat().getSampleRate();
+            int from = (int) (fromSeconds * rate);
+            int to = (int) (toSeconds * rate);
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                short sample = (short) ((bytes[2 * i] & 0xFF) | (bytes[2 * i + 1] << 8));
+                sum += (double) sample * sample;
+            }
+            return Math.sqrt(sum / (to - from));
+        }
+    }
+}